@@ -0,0 +1,317 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.gcm;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfutils.OPFLog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The executor of all blocking GCM calls: getting and deleting of tokens, topic subscriptions
+ * and sending of upstream messages.
+ * <p/>
+ * The threads are created on demand and are stopped when they are idle, so the executor doesn't keep
+ * threads while GCM isn't used. The queue is bounded, a task that exceeds the queue capacity is rejected
+ * with the {@link RejectedExecutionException}.
+ * <p/>
+ * The delays are counted on a separate timer thread, so a task waiting for its retry doesn't occupy
+ * a thread of the executor.
+ *
+ * @since 18.10.2026
+ */
+final class GCMExecutor {
+
+    static final int MAX_THREADS_COUNT = 4;
+
+    static final int QUEUE_CAPACITY = 128;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final String THREAD_NAME_PREFIX = "OPFPushGCMThread-";
+
+    private static final String TIMER_THREAD_NAME_PREFIX = "OPFPushGCMTimerThread-";
+
+    private static volatile GCMExecutor instance;
+
+    @NonNull
+    private final ThreadPoolExecutor executor;
+
+    @NonNull
+    private final ScheduledThreadPoolExecutor timer;
+
+    private GCMExecutor() {
+        executor = new ThreadPoolExecutor(
+                MAX_THREADS_COUNT,
+                MAX_THREADS_COUNT,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                new GCMThreadFactory(THREAD_NAME_PREFIX)
+        );
+        executor.allowCoreThreadTimeOut(true);
+
+        timer = new ScheduledThreadPoolExecutor(1, new GCMThreadFactory(TIMER_THREAD_NAME_PREFIX));
+        timer.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);
+    }
+
+    @NonNull
+    @SuppressWarnings("PMD.NonThreadSafeSingleton")
+    static GCMExecutor getInstance() {
+        if (instance == null) {
+            synchronized (GCMExecutor.class) {
+                if (instance == null) {
+                    instance = new GCMExecutor();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Submits the task for the execution.
+     *
+     * @param task The blocking task.
+     * @return The {@link Future} which can be used to cancel the task.
+     * @throws RejectedExecutionException If the queue is full.
+     */
+    @NonNull
+    Future<?> submit(@NonNull final Runnable task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Runs the task on the timer thread after the delay. The task must be short and must not block,
+     * the blocking work must be submitted to this executor by the task.
+     *
+     * @param task        The short task.
+     * @param delayMillis The delay in milliseconds.
+     */
+    void runDelayed(@NonNull final Runnable task, final long delayMillis) {
+        timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates the queue of tasks which are run one by one on the threads of this executor.
+     *
+     * @return The new {@link SerialQueue}.
+     */
+    @NonNull
+    SerialQueue newSerialQueue() {
+        return new SerialQueue();
+    }
+
+    /**
+     * Is notified when the task of the {@link SerialQueue} is rejected by the executor.
+     */
+    interface RejectionHandler {
+
+        void onRejected(@NonNull RejectedExecutionException e);
+    }
+
+    /**
+     * Runs the submitted tasks one by one in the order of submission.
+     * <p/>
+     * An exception thrown by a task is rethrown on the executor thread after the next task is scheduled,
+     * so it isn't swallowed by the {@link Future} of the task.
+     */
+    final class SerialQueue {
+
+        /**
+         * Guarded by {@code this}.
+         */
+        @NonNull
+        private final Queue<SerialTask> tasks = new ArrayDeque<>();
+
+        /**
+         * Guarded by {@code this}.
+         */
+        @Nullable
+        private SerialTask activeTask;
+
+        private SerialQueue() {
+        }
+
+        /**
+         * Adds the task to the end of the queue.
+         *
+         * @param task The blocking task.
+         * @return The {@link Future} which can be used to cancel the task.
+         */
+        @NonNull
+        Future<?> submit(@NonNull final Runnable task) {
+            return submit(task, null);
+        }
+
+        /**
+         * Adds the task to the end of the queue.
+         * <p/>
+         * If the executor rejects the task, the task is cancelled and the rejection handler is called
+         * on the thread which has scheduled the task. The lock of the queue isn't held during the call.
+         *
+         * @param task             The blocking task.
+         * @param rejectionHandler The handler of the rejection of the task.
+         * @return The {@link Future} which can be used to cancel the task.
+         */
+        @NonNull
+        Future<?> submit(@NonNull final Runnable task, @Nullable final RejectionHandler rejectionHandler) {
+            final SerialTask serialTask = new SerialTask(task, rejectionHandler);
+            synchronized (this) {
+                tasks.offer(serialTask);
+            }
+            scheduleNext(null);
+            return serialTask.future;
+        }
+
+        /**
+         * Cancels the running task and all queued tasks.
+         */
+        synchronized void cancelAll() {
+            if (activeTask != null) {
+                activeTask.future.cancel(true);
+            }
+            for (SerialTask task : tasks) {
+                task.future.cancel(true);
+            }
+            tasks.clear();
+        }
+
+        /**
+         * Executes the next task if the finished task is the active one.
+         *
+         * @param finishedTask The finished task or null if a task has been submitted.
+         */
+        private void scheduleNext(@Nullable final SerialTask finishedTask) {
+            final List<SerialTask> rejectedTasks = new ArrayList<>();
+            synchronized (this) {
+                if (activeTask != finishedTask) {
+                    return;
+                }
+
+                activeTask = tasks.poll();
+                while (activeTask != null) {
+                    try {
+                        executor.execute(activeTask);
+                        break;
+                    } catch (RejectedExecutionException e) {
+                        OPFLog.w("GCM task is rejected : " + e.getMessage());
+                        activeTask.future.cancel(false);
+                        activeTask.rejection = e;
+                        rejectedTasks.add(activeTask);
+                        activeTask = tasks.poll();
+                    }
+                }
+            }
+
+            for (SerialTask rejectedTask : rejectedTasks) {
+                if (rejectedTask.rejectionHandler != null && rejectedTask.rejection != null) {
+                    rejectedTask.rejectionHandler.onRejected(rejectedTask.rejection);
+                }
+            }
+        }
+
+        private final class SerialTask implements Runnable {
+
+            @NonNull
+            private final FutureTask<Void> future;
+
+            @Nullable
+            private final RejectionHandler rejectionHandler;
+
+            /**
+             * Guarded by the {@link SerialQueue}.
+             */
+            @Nullable
+            private RejectedExecutionException rejection;
+
+            SerialTask(@NonNull final Runnable task, @Nullable final RejectionHandler rejectionHandler) {
+                this.future = new FutureTask<>(task, null);
+                this.rejectionHandler = rejectionHandler;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    future.run();
+                } finally {
+                    scheduleNext(this);
+                }
+                rethrowFailure();
+            }
+
+            @SuppressWarnings("PMD.PreserveStackTrace")
+            private void rethrowFailure() {
+                if (future.isCancelled()) {
+                    return;
+                }
+
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw (Error) cause;
+                }
+            }
+        }
+    }
+
+    private static final class GCMThreadFactory implements ThreadFactory {
+
+        @NonNull
+        private final String threadNamePrefix;
+
+        @NonNull
+        private final AtomicInteger threadsCount = new AtomicInteger();
+
+        GCMThreadFactory(@NonNull final String threadNamePrefix) {
+            this.threadNamePrefix = threadNamePrefix;
+        }
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, threadNamePrefix + threadsCount.incrementAndGet());
+        }
+    }
+}
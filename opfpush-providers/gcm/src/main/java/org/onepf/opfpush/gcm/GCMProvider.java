@@ -19,6 +19,8 @@ package org.onepf.opfpush.gcm;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
@@ -26,7 +28,6 @@ import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.gms.gcm.GcmReceiver;
 import com.google.android.gms.gcm.GoogleCloudMessaging;
-import com.google.android.gms.iid.InstanceID;
 import org.onepf.opfpush.BasePushProvider;
 import org.onepf.opfpush.OPFPush;
 import org.onepf.opfpush.listener.CheckManifestHandler;
@@ -42,11 +43,10 @@ import org.onepf.opfutils.OPFLog;
 import org.onepf.opfutils.exception.WrongThreadException;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import static android.content.pm.PackageManager.PERMISSION_GRANTED;
-import static com.google.android.gms.gcm.GoogleCloudMessaging.INSTANCE_ID_SCOPE;
 import static org.onepf.opfpush.gcm.GCMConstants.C2DM_ACTION_RECEIVE;
 import static org.onepf.opfpush.gcm.GCMConstants.ERROR_AUTHENTICATION_FAILED;
 import static org.onepf.opfpush.gcm.GCMConstants.ERROR_SERVICE_NOT_AVAILABLE;
@@ -75,9 +75,35 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
 
     private final String senderIDs;
 
-    //TODO: refactor executor
+    @NonNull
+    private final TokenClient tokenClient;
+
+    /**
+     * Runs the registration and unregistration tasks one by one on the {@link GCMExecutor}.
+     */
+    @NonNull
+    private final GCMExecutor.SerialQueue registrationQueue = GCMExecutor.getInstance().newSerialQueue();
+
+    /**
+     * The token request that is in flight. The concurrent registrations share it instead of
+     * requesting the token again. Guarded by {@code this}.
+     */
     @Nullable
-    private ExecutorService registrationExecutor;
+    private Future<?> registerFuture;
+
+    /**
+     * Incremented when the registration becomes obsolete: on the unregistration, the invalidation
+     * or the unavailability of the provider. The result of the token request that has been started
+     * in an earlier generation is discarded. Guarded by {@code this}.
+     */
+    private int generation;
+
+    /**
+     * Reports the rejected tasks. The task can be rejected while the lock of the provider is held,
+     * so the error isn't reported on the calling thread.
+     */
+    @NonNull
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
 
     @NonNull
     private final PreferencesProvider preferencesProvider = PreferencesProvider.getInstance(getContext());
@@ -85,6 +111,7 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
     public GCMProvider(@NonNull final Context context, @NonNull final String... senderIDs) {
         super(context, PROVIDER_NAME, GOOGLE_PLAY_APP_PACKAGE);
         this.senderIDs = buildSenderIdsString(senderIDs);
+        this.tokenClient = new InstanceIDTokenClient(getContext());
     }
 
     public GCMProvider(@NonNull final Context context,
@@ -92,14 +119,29 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
                        @NonNull final String... senderIDs) {
         super(context, PROVIDER_NAME, GOOGLE_PLAY_APP_PACKAGE, notificationMaker);
         this.senderIDs = buildSenderIdsString(senderIDs);
+        this.tokenClient = new InstanceIDTokenClient(getContext());
+    }
+
+    GCMProvider(@NonNull final Context context,
+                @NonNull final TokenClient tokenClient,
+                @NonNull final String... senderIDs) {
+        super(context, PROVIDER_NAME, GOOGLE_PLAY_APP_PACKAGE);
+        this.senderIDs = buildSenderIdsString(senderIDs);
+        this.tokenClient = tokenClient;
     }
 
     @Override
     @SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
     public synchronized void register() {
         OPFLog.logMethod();
+        if (registerFuture != null && !registerFuture.isDone()) {
+            OPFLog.i("GCMProvider registration is already in progress.");
+            return;
+        }
+
         OPFLog.i("Start register GCMProvider.");
-        executeTask(new RegisterTask());
+        final RegisterTask registerTask = new RegisterTask(generation);
+        registerFuture = executeTask(registerTask, registerTask);
     }
 
     @Override
@@ -107,7 +149,9 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
     public synchronized void unregister() {
         OPFLog.logMethod();
         OPFLog.i("Start unregister GCMProvider.");
-        executeTask(new UnregisterTask(preferencesProvider.getRegistrationId()));
+        startNewGeneration();
+        final UnregisterTask unregisterTask = new UnregisterTask(preferencesProvider.getRegistrationId());
+        executeTask(unregisterTask, unregisterTask);
     }
 
     @Override
@@ -172,16 +216,26 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
     @Override
     public void onRegistrationInvalid() {
         OPFLog.logMethod();
+        startNewGeneration();
         preferencesProvider.reset();
     }
 
     @Override
     public void onUnavailable() {
         OPFLog.logMethod();
+        startNewGeneration();
         preferencesProvider.reset();
         close();
     }
 
+    /**
+     * Adds the message to the persistent outbox and sends it asynchronously.
+     * A message that can't be sent is retried with the exponential delay and when the connectivity
+     * is restored, until its time to live is over.
+     *
+     * @param message The message to send.
+     * @throws IllegalStateException If GCM isn't registered.
+     */
     @Override
     public void send(@NonNull final Message message) {
         OPFLog.logMethod(message);
@@ -191,10 +245,9 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
             throw new IllegalStateException("Before send message you need register GCM.");
         }
 
-        final Intent intent = new Intent(getContext(), SendMessageService.class);
-        intent.putExtra(SendMessageService.EXTRA_MESSAGE, message);
-        intent.putExtra(SendMessageService.EXTRA_MESSAGES_TO, senderIDs + MESSAGES_TO_SUFFIX);
-        getContext().startService(intent);
+        UpstreamOutbox.getInstance(getContext())
+                .add(senderIDs + MESSAGES_TO_SUFFIX, message, System.currentTimeMillis());
+        SendMessageService.flush(getContext(), false);
     }
 
     @NonNull
@@ -203,28 +256,23 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
         return PROVIDER_NAME;
     }
 
-    @SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
-    private synchronized void close() {
+    private void close() {
         OPFLog.logMethod();
-
-        if (registrationExecutor != null) {
-            OPFLog.d("Registration executor is not null");
-
-            registrationExecutor.shutdownNow();
-            registrationExecutor = null;
-        }
-
+        registrationQueue.cancelAll();
         GoogleCloudMessaging.getInstance(getContext()).close();
     }
 
-    @SuppressWarnings("PMD.UnusedPrivateMethod")
-    private void executeTask(@NonNull final Runnable runnable) {
+    @NonNull
+    private Future<?> executeTask(@NonNull final Runnable runnable,
+                                  @NonNull final GCMExecutor.RejectionHandler rejectionHandler) {
         OPFLog.logMethod(runnable);
+        return registrationQueue.submit(runnable, rejectionHandler);
+    }
 
-        if (registrationExecutor == null || registrationExecutor.isShutdown()) {
-            registrationExecutor = Executors.newSingleThreadExecutor();
-        }
-        registrationExecutor.execute(runnable);
+    @SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
+    private synchronized void startNewGeneration() {
+        ++generation;
+        registerFuture = null;
     }
 
     private boolean isReceivePermissionDeclared() {
@@ -248,7 +296,13 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
         return senderIdsBuilder.toString();
     }
 
-    private final class RegisterTask implements Runnable {
+    private final class RegisterTask implements Runnable, GCMExecutor.RejectionHandler {
+
+        private final int taskGeneration;
+
+        private RegisterTask(final int taskGeneration) {
+            this.taskGeneration = taskGeneration;
+        }
 
         @Override
         @SuppressWarnings("PMD.PreserveStackTrace")
@@ -256,8 +310,7 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
             OPFLog.logMethod(senderIDs);
 
             try {
-                final String registrationId =
-                        InstanceID.getInstance(getContext()).getToken(senderIDs, INSTANCE_ID_SCOPE);
+                final String registrationId = tokenClient.getToken(senderIDs);
                 if (TextUtils.isEmpty(registrationId)) {
                     OPFLog.w("Registration id is empty");
                     onAuthError();
@@ -282,6 +335,39 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
             }
         }
 
+        /**
+         * Completes the registration of this task under the lock of the provider, so the result can't
+         * be accepted after the generation has been changed. The callbacks are called without the lock.
+         *
+         * @param registrationId The obtained registration id or null if the registration has failed.
+         * @return {@code true} if the result is actual and must be reported.
+         */
+        private boolean complete(@Nullable final String registrationId) {
+            synchronized (GCMProvider.this) {
+                if (generation != taskGeneration) {
+                    OPFLog.d("Registration result is obsolete");
+                    return false;
+                }
+
+                registerFuture = null;
+                if (registrationId != null) {
+                    preferencesProvider.saveRegistrationId(registrationId);
+                }
+                return true;
+            }
+        }
+
+        @Override
+        public void onRejected(@NonNull final RejectedExecutionException e) {
+            OPFLog.logMethod(e.getMessage());
+            mainThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onServicesNotAvailable();
+                }
+            });
+        }
+
         private void onServicesNotAvailable() {
             OPFLog.logMethod();
             onError(ERROR_SERVICE_NOT_AVAILABLE);
@@ -289,8 +375,15 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
 
         private void onRegistrationSuccess(@NonNull final String registrationId) {
             OPFLog.logMethod(registrationId);
-            preferencesProvider.saveRegistrationId(registrationId);
+            if (!complete(registrationId)) {
+                return;
+            }
+
             OPFPush.getHelper().getReceivedMessageHandler().onRegistered(PROVIDER_NAME, registrationId);
+            GCMPubSubHelper.getInstance(getContext()).resubscribeMissingTopics(registrationId);
+            if (UpstreamOutbox.getInstance(getContext()).getNextTryTime() != UpstreamOutbox.NO_NEXT_TRY_TIME) {
+                SendMessageService.flush(getContext(), true);
+            }
         }
 
         private void onAuthError() {
@@ -300,11 +393,13 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
 
         private void onError(@NonNull final String errorId) {
             OPFLog.logMethod(errorId);
-            OPFPush.getHelper().getReceivedMessageHandler().onRegistrationError(PROVIDER_NAME, convertError(errorId));
+            if (complete(null)) {
+                OPFPush.getHelper().getReceivedMessageHandler().onRegistrationError(PROVIDER_NAME, convertError(errorId));
+            }
         }
     }
 
-    private final class UnregisterTask implements Runnable {
+    private final class UnregisterTask implements Runnable, GCMExecutor.RejectionHandler {
 
         @Nullable
         private final String oldRegistrationId;
@@ -319,7 +414,7 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
             OPFLog.logMethod();
 
             try {
-                InstanceID.getInstance(getContext()).deleteToken(senderIDs, INSTANCE_ID_SCOPE);
+                tokenClient.deleteToken(senderIDs);
                 preferencesProvider.reset();
                 onUnregistrationSuccess();
             } catch (IOException e) {
@@ -337,7 +432,18 @@ public class GCMProvider extends BasePushProvider implements SenderPushProvider
                         break;
                 }
             }
-            close();
+            GoogleCloudMessaging.getInstance(getContext()).close();
+        }
+
+        @Override
+        public void onRejected(@NonNull final RejectedExecutionException e) {
+            OPFLog.logMethod(e.getMessage());
+            mainThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onServicesNotAvailable();
+                }
+            });
         }
 
         private void onServicesNotAvailable() {
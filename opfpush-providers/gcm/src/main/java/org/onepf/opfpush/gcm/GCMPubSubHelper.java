@@ -28,8 +28,12 @@ import org.onepf.opfpush.OPFPushHelper;
 import org.onepf.opfutils.OPFLog;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.onepf.opfpush.gcm.GCMConstants.GCM_NOT_CURRENT_PROVIDER_ERROR;
 import static org.onepf.opfpush.gcm.GCMConstants.PROVIDER_NAME;
@@ -38,6 +42,8 @@ import static org.onepf.opfpush.gcm.GCMConstants.REGISTRATION_ID_NOT_OBTAINED_ER
 /**
  * The helper class which performs {@link GcmPubSub#subscribe(String, String, Bundle)} and {@link GcmPubSub#unsubscribe(String, String)}
  * in the worker thread using the saved registration id.
+ * <p/>
+ * The subscribed topics are persisted, so they are subscribed again when the registration id is changed.
  *
  * @author Roman Savin
  * @since 26.06.2015
@@ -50,13 +56,11 @@ public final class GCMPubSubHelper {
     private final GcmPubSub gcmPubSub;
 
     @NonNull
-    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
-
-    @NonNull
-    private final Object pubSubMonitor = new Object();
+    private final TopicLedger topicLedger;
 
     private GCMPubSubHelper(@NonNull final Context context) {
         this.gcmPubSub = GcmPubSub.getInstance(context);
+        this.topicLedger = new TopicLedger(context.getApplicationContext());
     }
 
     @SuppressWarnings({"DoubleCheckedLocking", "PMD.NonThreadSafeSingleton"})
@@ -94,22 +98,24 @@ public final class GCMPubSubHelper {
         final OPFPushHelper helper = OPFPush.getHelper();
         final Callback callbackWrapper = new CallbackMainThreadWrapper(callback);
 
+        topicLedger.add(topic, extras);
         if (checkPubSubAvailability(helper, callbackWrapper)) {
-            synchronized (pubSubMonitor) {
-                executorService.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            //noinspection ConstantConditions
-                            gcmPubSub.subscribe(helper.getRegistrationId(), topic, extras);
-                            callbackWrapper.onSuccess();
-                        } catch (final IOException e) {
-                            OPFLog.w(e.getMessage());
-                            callbackWrapper.onError(e.getMessage());
-                        }
+            final String registrationId = helper.getRegistrationId();
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        //noinspection ConstantConditions
+                        gcmPubSub.subscribe(registrationId, topic, extras);
+                        //noinspection ConstantConditions
+                        topicLedger.markSubscribed(Collections.singleton(topic), registrationId);
+                        callbackWrapper.onSuccess();
+                    } catch (final IOException e) {
+                        OPFLog.w(e.getMessage());
+                        callbackWrapper.onError(e.getMessage());
                     }
-                });
-            }
+                }
+            }, callbackWrapper);
         }
     }
 
@@ -133,34 +139,148 @@ public final class GCMPubSubHelper {
         final OPFPushHelper helper = OPFPush.getHelper();
         final Callback callbackWrapper = new CallbackMainThreadWrapper(callback);
 
+        topicLedger.remove(Collections.singleton(topic));
         if (checkPubSubAvailability(helper, callbackWrapper)) {
-            synchronized (pubSubMonitor) {
-                executorService.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            //noinspection ConstantConditions
-                            gcmPubSub.unsubscribe(helper.getRegistrationId(), topic);
-                            callbackWrapper.onSuccess();
-                        } catch (final IOException e) {
-                            OPFLog.w(e.getMessage());
-                            callbackWrapper.onError(e.getMessage());
-                        }
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        //noinspection ConstantConditions
+                        gcmPubSub.unsubscribe(helper.getRegistrationId(), topic);
+                        callbackWrapper.onSuccess();
+                    } catch (final IOException e) {
+                        OPFLog.w(e.getMessage());
+                        callbackWrapper.onError(e.getMessage());
                     }
-                });
+                }
+            }, callbackWrapper);
+        }
+    }
+
+    /**
+     * Invokes {@link GcmPubSub#subscribe(String, String, Bundle)} asynchronously for every topic.
+     * At most {@link TopicBatch#MAX_PARALLEL_REQUESTS} topics are subscribed concurrently,
+     * a failed subscription is retried with the exponential delay.
+     * The {@link BatchCallback#onComplete(Set, Map)} method is called once on the main thread
+     * when all topics are processed.
+     * <p/>
+     * The current provider and the registration id are checked the same way as in the
+     * {@link #subscribe(String, Bundle, Callback)} method. If the check fails, all topics are reported as failed.
+     *
+     * @param topics   Developer defined topic names. Must match the following regular expression:
+     *                 "/topics/[a-zA-Z0-9-_.~%]{1,900}".
+     * @param extras   An additional information (optional). The same for all topics.
+     * @param callback The callback instance. Can be null.
+     */
+    public void subscribeAll(@NonNull final Collection<String> topics,
+                             @Nullable final Bundle extras,
+                             @Nullable final BatchCallback callback) {
+        for (String topic : topics) {
+            topicLedger.add(topic, extras);
+        }
+        executeBatch(topics, callback, new TopicBatch.TopicOperation() {
+            @Override
+            public void run(@NonNull final String registrationId, @NonNull final String topic) throws IOException {
+                gcmPubSub.subscribe(registrationId, topic, extras);
+                topicLedger.markSubscribed(Collections.singleton(topic), registrationId);
+            }
+        });
+    }
+
+    /**
+     * Invokes {@link GcmPubSub#unsubscribe(String, String)} asynchronously for every topic.
+     * See {@link #subscribeAll(Collection, Bundle, BatchCallback)}.
+     *
+     * @param topics   From which to stop receiving messages.
+     * @param callback The callback instance. Can be null.
+     */
+    public void unsubscribeAll(@NonNull final Collection<String> topics,
+                               @Nullable final BatchCallback callback) {
+        topicLedger.remove(topics);
+        executeBatch(topics, callback, new TopicBatch.TopicOperation() {
+            @Override
+            public void run(@NonNull final String registrationId, @NonNull final String topic) throws IOException {
+                gcmPubSub.unsubscribe(registrationId, topic);
+            }
+        });
+    }
+
+    /**
+     * Subscribes the topics which haven't been subscribed with the new registration id yet.
+     * Called when the new registration id is obtained.
+     *
+     * @param registrationId The new registration id.
+     */
+    void resubscribeMissingTopics(@NonNull final String registrationId) {
+        final Map<String, Bundle> missingTopics = topicLedger.getMissingTopics(registrationId);
+        if (missingTopics.isEmpty()) {
+            return;
+        }
+
+        OPFLog.i("Resubscribe %d topics", missingTopics.size());
+        new TopicBatch(registrationId, missingTopics.keySet(), new TopicBatch.TopicOperation() {
+            @Override
+            public void run(@NonNull final String registrationId, @NonNull final String topic) throws IOException {
+                gcmPubSub.subscribe(registrationId, topic, missingTopics.get(topic));
+                topicLedger.markSubscribed(Collections.singleton(topic), registrationId);
+            }
+        }, new BatchCallback() {
+            @Override
+            public void onComplete(@NonNull final Set<String> succeededTopics,
+                                   @NonNull final Map<String, String> failedTopics) {
+                if (!failedTopics.isEmpty()) {
+                    OPFLog.w("Topics aren't resubscribed : " + failedTopics);
+                }
+            }
+        }).start();
+    }
+
+    private void executeBatch(@NonNull final Collection<String> topics,
+                              @Nullable final BatchCallback callback,
+                              @NonNull final TopicBatch.TopicOperation operation) {
+        final OPFPushHelper helper = OPFPush.getHelper();
+        final BatchCallback callbackWrapper = new BatchCallbackMainThreadWrapper(callback);
+        final String error = getPubSubAvailabilityError(helper);
+        final String registrationId = helper.getRegistrationId();
+        if (error != null || registrationId == null) {
+            final Map<String, String> failedTopics = new HashMap<>();
+            for (String topic : topics) {
+                failedTopics.put(topic, error);
             }
+            callbackWrapper.onComplete(Collections.<String>emptySet(), failedTopics);
+            return;
+        }
+
+        new TopicBatch(registrationId, topics, operation, callbackWrapper).start();
+    }
+
+    private void execute(@NonNull final Runnable task, @NonNull final Callback callback) {
+        try {
+            GCMExecutor.getInstance().submit(task);
+        } catch (RejectedExecutionException e) {
+            OPFLog.w(e.getMessage());
+            callback.onError(e.getMessage());
         }
     }
 
     private boolean checkPubSubAvailability(@NonNull final OPFPushHelper helper, @NonNull final Callback callback) {
+        final String error = getPubSubAvailabilityError(helper);
+        if (error == null) {
+            return true;
+        }
+
+        callback.onError(error);
+        return false;
+    }
+
+    @Nullable
+    private String getPubSubAvailabilityError(@NonNull final OPFPushHelper helper) {
         if (!PROVIDER_NAME.equals(helper.getProviderName())) {
-            callback.onError(GCM_NOT_CURRENT_PROVIDER_ERROR);
-            return false;
+            return GCM_NOT_CURRENT_PROVIDER_ERROR;
         } else if (helper.getRegistrationId() == null) {
-            callback.onError(REGISTRATION_ID_NOT_OBTAINED_ERROR);
-            return false;
+            return REGISTRATION_ID_NOT_OBTAINED_ERROR;
         }
-        return true;
+        return null;
     }
 
     public interface Callback {
@@ -170,6 +290,20 @@ public final class GCMPubSubHelper {
         void onError(@Nullable final String error);
     }
 
+    /**
+     * The callback of the batch operations with topics.
+     */
+    public interface BatchCallback {
+
+        /**
+         * Called when all topics of the batch are processed.
+         *
+         * @param succeededTopics The topics for which the operation is succeeded.
+         * @param failedTopics    The topics for which the operation is failed mapped to the errors of the last try.
+         */
+        void onComplete(@NonNull final Set<String> succeededTopics, @NonNull final Map<String, String> failedTopics);
+    }
+
     private class CallbackMainThreadWrapper implements Callback {
 
         @NonNull
@@ -208,4 +342,31 @@ public final class GCMPubSubHelper {
             }
         }
     }
+
+    private static class BatchCallbackMainThreadWrapper implements BatchCallback {
+
+        @NonNull
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Nullable
+        private final BatchCallback callback;
+
+        public BatchCallbackMainThreadWrapper(@Nullable final BatchCallback callback) {
+            this.callback = callback;
+        }
+
+        @SuppressWarnings("InnerClassTooDeeplyNested")
+        @Override
+        public void onComplete(@NonNull final Set<String> succeededTopics,
+                               @NonNull final Map<String, String> failedTopics) {
+            if (callback != null) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onComplete(succeededTopics, failedTopics);
+                    }
+                });
+            }
+        }
+    }
 }
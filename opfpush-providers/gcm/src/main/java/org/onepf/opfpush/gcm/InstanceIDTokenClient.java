@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.gcm;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.iid.InstanceID;
+
+import java.io.IOException;
+
+import static com.google.android.gms.gcm.GoogleCloudMessaging.INSTANCE_ID_SCOPE;
+
+/**
+ * The {@link TokenClient} which uses the {@link InstanceID}.
+ *
+ * @since 18.10.2026
+ */
+final class InstanceIDTokenClient implements TokenClient {
+
+    @NonNull
+    private final Context context;
+
+    InstanceIDTokenClient(@NonNull final Context context) {
+        this.context = context;
+    }
+
+    @Nullable
+    @Override
+    public String getToken(@NonNull final String senderIds) throws IOException {
+        return InstanceID.getInstance(context).getToken(senderIds, INSTANCE_ID_SCOPE);
+    }
+
+    @Override
+    public void deleteToken(@NonNull final String senderIds) throws IOException {
+        InstanceID.getInstance(context).deleteToken(senderIds, INSTANCE_ID_SCOPE);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.gcm;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfutils.OPFLog;
+import org.onepf.opfutils.OPFUtils;
+
+/**
+ * Flushes the {@link UpstreamOutbox} when the connectivity is restored.
+ * <p/>
+ * It's registered only while the outbox contains messages. The receiver doesn't read the network state,
+ * so the {@code ACCESS_NETWORK_STATE} permission isn't required.
+ *
+ * @since 18.10.2026
+ */
+final class OutboxConnectivityReceiver extends BroadcastReceiver {
+
+    @Nullable
+    private static OutboxConnectivityReceiver registeredReceiver;
+
+    private OutboxConnectivityReceiver() {
+        super();
+    }
+
+    static synchronized void register(@NonNull final Context context) {
+        if (registeredReceiver == null) {
+            OPFLog.d("Register outbox connectivity receiver");
+            registeredReceiver = new OutboxConnectivityReceiver();
+            context.getApplicationContext().registerReceiver(
+                    registeredReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+    }
+
+    static synchronized void unregister(@NonNull final Context context) {
+        if (registeredReceiver != null) {
+            OPFLog.d("Unregister outbox connectivity receiver");
+            context.getApplicationContext().unregisterReceiver(registeredReceiver);
+            registeredReceiver = null;
+        }
+    }
+
+    @Override
+    public void onReceive(@NonNull final Context context, @NonNull final Intent intent) {
+        OPFLog.logMethod(OPFUtils.toString(intent));
+
+        //The sticky broadcast is delivered on the registration, it doesn't mean that the connectivity is restored.
+        if (isInitialStickyBroadcast()
+                || intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+            return;
+        }
+
+        SendMessageService.flush(context, true);
+    }
+}
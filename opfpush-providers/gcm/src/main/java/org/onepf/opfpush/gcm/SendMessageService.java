@@ -16,8 +16,14 @@
 
 package org.onepf.opfpush.gcm;
 
-import android.app.IntentService;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
+import android.os.IBinder;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.google.android.gms.gcm.GoogleCloudMessaging;
 
@@ -26,43 +32,184 @@ import org.onepf.opfutils.OPFLog;
 import org.onepf.opfutils.OPFUtils;
 
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.onepf.opfpush.gcm.UpstreamOutbox.NO_NEXT_TRY_TIME;
 
 /**
+ * Sends the upstream messages from the {@link UpstreamOutbox} on the {@link GCMExecutor}.
+ * All due messages are sent by one flush. Only one flush is running at a time: a flush requested during
+ * the running one is coalesced and done by the same executor thread right after it.
+ * A message that can't be sent stays in the outbox and is tried again by the alarm,
+ * or as soon as the connectivity is restored.
+ * The service is running until all started flushes are finished, so the app process isn't killed during sending.
+ *
  * @author Kirill Rozov
  * @author Roman Savin
  * @since 10/13/14.
  */
-public class SendMessageService extends IntentService {
+public class SendMessageService extends Service {
 
     public static final String ACTION_SEND_MESSAGE = "org.onepf.opfpush.gcm.SEND_MSG";
+    public static final String ACTION_FLUSH_OUTBOX = "org.onepf.opfpush.gcm.FLUSH_OUTBOX";
     public static final String EXTRA_MESSAGE = "msg";
     public static final String EXTRA_MESSAGES_TO = "to";
+    public static final String EXTRA_IGNORE_BACKOFF = "ignore_backoff";
+
+    /**
+     * Is {@code true} while a flush occupies an executor thread, so a message isn't sent twice.
+     */
+    private static final AtomicBoolean IS_FLUSH_RUNNING = new AtomicBoolean();
+
+    /**
+     * Is {@code true} if the outbox must be flushed once more.
+     */
+    private static final AtomicBoolean IS_FLUSH_REQUESTED = new AtomicBoolean();
 
-    public SendMessageService() {
-        super("SendMessageService");
+    /**
+     * Is {@code true} if one of the requested flushes must ignore the backoff.
+     */
+    private static final AtomicBoolean IS_BACKOFF_IGNORED = new AtomicBoolean();
+
+    private int runningSendsCount;
+
+    private int lastStartId;
+
+    /**
+     * Sends the due messages of the {@link UpstreamOutbox}.
+     *
+     * @param context       The instance of {@link Context}.
+     * @param ignoreBackoff {@code true} if the messages must be sent regardless of the delay after their failed tries.
+     */
+    static void flush(@NonNull final Context context, final boolean ignoreBackoff) {
+        context.startService(new Intent(context, SendMessageService.class)
+                .setAction(ACTION_FLUSH_OUTBOX)
+                .putExtra(EXTRA_IGNORE_BACKOFF, ignoreBackoff));
     }
 
     @Override
-    protected void onHandleIntent(final Intent intent) {
-        OPFLog.logMethod(OPFUtils.toString(intent));
+    public int onStartCommand(@Nullable final Intent intent, final int flags, final int startId) {
+        OPFLog.logMethod(OPFUtils.toString(intent), flags, startId);
 
-        if (ACTION_SEND_MESSAGE.equals(intent.getAction())) {
+        onSendStarted(startId);
+        final String action = intent == null ? null : intent.getAction();
+        if (ACTION_SEND_MESSAGE.equals(action)) {
             final Message message = intent.getParcelableExtra(EXTRA_MESSAGE);
-            final String messageTo = intent.getStringExtra(EXTRA_MESSAGES_TO);
+            final String messagesTo = intent.getStringExtra(EXTRA_MESSAGES_TO);
+            UpstreamOutbox.getInstance(this).add(messagesTo, message, System.currentTimeMillis());
+            submitFlush(false);
+        } else if (ACTION_FLUSH_OUTBOX.equals(action)) {
+            submitFlush(intent.getBooleanExtra(EXTRA_IGNORE_BACKOFF, false));
+        } else {
+            OPFLog.w("Unknown action '%s'.", action);
+            onSendFinished();
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(final Intent intent) {
+        return null;
+    }
+
+    private void submitFlush(final boolean ignoreBackoff) {
+        if (ignoreBackoff) {
+            IS_BACKOFF_IGNORED.set(true);
+        }
+        IS_FLUSH_REQUESTED.set(true);
+        if (!IS_FLUSH_RUNNING.compareAndSet(false, true)) {
+            OPFLog.d("Outbox flush is coalesced with the running one.");
+            onSendFinished();
+            return;
+        }
 
+        try {
+            GCMExecutor.getInstance().submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flushRequested();
+                    } finally {
+                        onSendFinished();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            OPFLog.e("Outbox flush is rejected.", e);
+            IS_FLUSH_RUNNING.set(false);
+            scheduleNextFlush(UpstreamOutbox.getInstance(this).getNextTryTime());
+            onSendFinished();
+        }
+    }
+
+    private void flushRequested() {
+        do {
+            try {
+                while (IS_FLUSH_REQUESTED.getAndSet(false)) {
+                    flushOutbox(IS_BACKOFF_IGNORED.getAndSet(false));
+                }
+            } finally {
+                IS_FLUSH_RUNNING.set(false);
+            }
+            //A flush can be requested after the last check, but before the running flag is reset.
+        } while (IS_FLUSH_REQUESTED.get() && IS_FLUSH_RUNNING.compareAndSet(false, true));
+    }
+
+    private void flushOutbox(final boolean ignoreBackoff) {
+        final UpstreamOutbox outbox = UpstreamOutbox.getInstance(this);
+        final GoogleCloudMessaging gcm = GoogleCloudMessaging.getInstance(this);
+        final long now = System.currentTimeMillis();
+        for (UpstreamOutbox.PendingMessage pendingMessage : outbox.getDueMessages(now, ignoreBackoff)) {
+            final Message message = pendingMessage.getMessage();
             try {
-                GoogleCloudMessaging.getInstance(this).send(
-                        messageTo,
+                gcm.send(
+                        pendingMessage.getMessagesTo(),
                         message.getId(),
                         message.getTimeToLeave(),
                         message.getData()
                 );
+                outbox.remove(message.getId());
                 OPFLog.d("Message '%s' has sent.", message);
             } catch (IOException ex) {
                 OPFLog.e(String.format("Error while send Message '%s'.", message), ex);
+                outbox.onSendFailed(message.getId(), now);
             }
+        }
+        scheduleNextFlush(outbox.getNextTryTime());
+    }
+
+    private void scheduleNextFlush(final long nextTryTime) {
+        final AlarmManager alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
+        final PendingIntent flushIntent = PendingIntent.getService(
+                this,
+                0,
+                new Intent(this, SendMessageService.class).setAction(ACTION_FLUSH_OUTBOX),
+                PendingIntent.FLAG_UPDATE_CURRENT
+        );
+
+        if (nextTryTime == NO_NEXT_TRY_TIME) {
+            alarmManager.cancel(flushIntent);
+            OutboxConnectivityReceiver.unregister(this);
         } else {
-            OPFLog.w("Unknown action '%s'.", intent.getAction());
+            OPFLog.d("Next outbox flush at %d", nextTryTime);
+            alarmManager.set(AlarmManager.RTC, nextTryTime, flushIntent);
+            OutboxConnectivityReceiver.register(this);
+        }
+    }
+
+    @SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
+    private synchronized void onSendStarted(final int startId) {
+        lastStartId = startId;
+        ++runningSendsCount;
+    }
+
+    @SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
+    private synchronized void onSendFinished() {
+        --runningSendsCount;
+        if (runningSendsCount == 0) {
+            stopSelf(lastStartId);
         }
     }
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.gcm;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Gets and deletes the GCM tokens. The blocking calls must be made off the main thread.
+ *
+ * @since 18.10.2026
+ */
+interface TokenClient {
+
+    @Nullable
+    String getToken(@NonNull String senderIds) throws IOException;
+
+    void deleteToken(@NonNull String senderIds) throws IOException;
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.gcm;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfutils.OPFLog;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Performs the operation for every topic of the batch on the {@link GCMExecutor}.
+ * <p/>
+ * At most {@link #MAX_PARALLEL_REQUESTS} topics are processed concurrently, so the executor
+ * has a free thread for the registration. A failed topic is retried up to {@link #MAX_TRIES} times
+ * with the exponential delay. The delay is counted by {@link GCMExecutor#runDelayed(Runnable, long)},
+ * so a topic waiting for the retry doesn't occupy a thread of the executor.
+ * The result of the whole batch is reported once.
+ *
+ * @since 18.10.2026
+ */
+final class TopicBatch {
+
+    static final int MAX_PARALLEL_REQUESTS = GCMExecutor.MAX_THREADS_COUNT - 1;
+
+    static final int MAX_TRIES = 3;
+
+    static final long INITIAL_RETRY_DELAY_MILLIS = 1000;
+
+    @NonNull
+    private final String registrationId;
+
+    @NonNull
+    private final Queue<String> pendingTopics;
+
+    @NonNull
+    private final Map<String, Integer> triesCounts = new ConcurrentHashMap<>();
+
+    @NonNull
+    private final Set<String> succeededTopics = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * The errors can be null, so the map isn't concurrent.
+     */
+    @NonNull
+    private final Map<String, String> failedTopics = Collections.synchronizedMap(new HashMap<String, String>());
+
+    @NonNull
+    private final TopicOperation operation;
+
+    @NonNull
+    private final GCMPubSubHelper.BatchCallback callback;
+
+    @NonNull
+    private final AtomicInteger runningWorkersCount = new AtomicInteger();
+
+    @NonNull
+    private final AtomicInteger unfinishedTopicsCount;
+
+    TopicBatch(@NonNull final String registrationId,
+               @NonNull final Collection<String> topics,
+               @NonNull final TopicOperation operation,
+               @NonNull final GCMPubSubHelper.BatchCallback callback) {
+        this.registrationId = registrationId;
+        this.pendingTopics = new ConcurrentLinkedQueue<>(new HashSet<>(topics));
+        this.unfinishedTopicsCount = new AtomicInteger(pendingTopics.size());
+        this.operation = operation;
+        this.callback = callback;
+    }
+
+    /**
+     * Starts the processing of the topics. Returns immediately.
+     */
+    void start() {
+        if (unfinishedTopicsCount.get() == 0) {
+            finish();
+            return;
+        }
+        startWorkers();
+    }
+
+    /**
+     * Submits the workers for the pending topics while the limit of the parallel requests isn't reached.
+     */
+    private void startWorkers() {
+        while (!pendingTopics.isEmpty()) {
+            final int workersCount = runningWorkersCount.get();
+            if (workersCount >= MAX_PARALLEL_REQUESTS) {
+                return;
+            }
+            if (!runningWorkersCount.compareAndSet(workersCount, workersCount + 1)) {
+                continue;
+            }
+
+            try {
+                GCMExecutor.getInstance().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        processTopics();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                OPFLog.w("Topic worker is rejected : " + e.getMessage());
+                if (runningWorkersCount.decrementAndGet() == 0) {
+                    //There are no workers, the pending topics can't be processed.
+                    failPendingTopics(e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    private void processTopics() {
+        String topic;
+        while ((topic = pendingTopics.poll()) != null) {
+            processTopic(topic);
+        }
+        runningWorkersCount.decrementAndGet();
+
+        //A retried topic could have been added after the queue has been polled.
+        if (!pendingTopics.isEmpty()) {
+            startWorkers();
+        }
+    }
+
+    /**
+     * Performs the operation for the topic and puts the topic to the succeeded or the failed ones
+     * or schedules the retry.
+     */
+    private void processTopic(@NonNull final String topic) {
+        final Integer previousTriesCount = triesCounts.get(topic);
+        final int tryNumber = previousTriesCount == null ? 1 : previousTriesCount + 1;
+        try {
+            operation.run(registrationId, topic);
+            succeededTopics.add(topic);
+            onTopicFinished();
+        } catch (IOException e) {
+            OPFLog.w("Try %d for topic %s failed : %s", tryNumber, topic, e.getMessage());
+            if (tryNumber == MAX_TRIES) {
+                failedTopics.put(topic, e.getMessage());
+                onTopicFinished();
+            } else {
+                triesCounts.put(topic, tryNumber);
+                scheduleRetry(topic, INITIAL_RETRY_DELAY_MILLIS << (tryNumber - 1));
+            }
+        }
+    }
+
+    private void scheduleRetry(@NonNull final String topic, final long delayMillis) {
+        GCMExecutor.getInstance().runDelayed(new Runnable() {
+            @Override
+            public void run() {
+                pendingTopics.offer(topic);
+                startWorkers();
+            }
+        }, delayMillis);
+    }
+
+    private void failPendingTopics(@Nullable final String error) {
+        String topic;
+        while ((topic = pendingTopics.poll()) != null) {
+            failedTopics.put(topic, error);
+            onTopicFinished();
+        }
+    }
+
+    private void onTopicFinished() {
+        if (unfinishedTopicsCount.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        final Map<String, String> failedTopicsCopy;
+        synchronized (failedTopics) {
+            failedTopicsCopy = new HashMap<>(failedTopics);
+        }
+        callback.onComplete(
+                Collections.unmodifiableSet(new HashSet<>(succeededTopics)),
+                Collections.unmodifiableMap(failedTopicsCopy)
+        );
+    }
+
+    /**
+     * The blocking operation with a topic.
+     */
+    interface TopicOperation {
+
+        void run(@NonNull String registrationId, @NonNull String topic) throws IOException;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.gcm;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Persists the topics to which the app wants to be subscribed together with their extras
+ * and the registration id with which every topic has been subscribed.
+ * <p/>
+ * A topic that hasn't been subscribed with the current registration id is missing. The missing topics
+ * are subscribed again when a new registration id is obtained.
+ * The extras are stored as strings, because {@link com.google.android.gms.gcm.GcmPubSub} sends them as strings.
+ *
+ * @since 18.10.2026
+ */
+@SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
+final class TopicLedger {
+
+    private static final String PREFERENCES_POSTFIX = ".opfpush.gcm.topics";
+    private static final String KEY_REGISTRATION_ID = "registration_id";
+    private static final String KEY_EXTRAS = "extras";
+
+    @NonNull
+    private final SharedPreferences preferences;
+
+    TopicLedger(@NonNull final Context context) {
+        this.preferences = context.getSharedPreferences(
+                context.getPackageName() + PREFERENCES_POSTFIX, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Adds the topic which isn't subscribed yet.
+     */
+    synchronized void add(@NonNull final String topic, @Nullable final Bundle extras) {
+        preferences.edit().putString(topic, toJson(null, extras)).apply();
+    }
+
+    synchronized void remove(@NonNull final Collection<String> topics) {
+        final SharedPreferences.Editor editor = preferences.edit();
+        for (String topic : topics) {
+            editor.remove(topic);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Marks the topics as subscribed with the registration id. The topics that have been removed
+     * from the ledger meanwhile are ignored.
+     */
+    synchronized void markSubscribed(@NonNull final Collection<String> topics, @NonNull final String registrationId) {
+        final SharedPreferences.Editor editor = preferences.edit();
+        for (String topic : topics) {
+            final String entry = preferences.getString(topic, null);
+            if (entry != null) {
+                editor.putString(topic, toJson(registrationId, getExtras(entry)));
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * Returns the topics that haven't been subscribed with the registration id mapped to their extras.
+     */
+    @NonNull
+    synchronized Map<String, Bundle> getMissingTopics(@NonNull final String registrationId) {
+        final Map<String, Bundle> missingTopics = new HashMap<>();
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            final String value = String.valueOf(entry.getValue());
+            if (!registrationId.equals(getRegistrationId(value))) {
+                missingTopics.put(entry.getKey(), getExtras(value));
+            }
+        }
+        return missingTopics;
+    }
+
+    @NonNull
+    private static String toJson(@Nullable final String registrationId, @Nullable final Bundle extras) {
+        final JSONObject entry = new JSONObject();
+        try {
+            if (registrationId != null) {
+                entry.put(KEY_REGISTRATION_ID, registrationId);
+            }
+            if (extras != null) {
+                final JSONObject extrasJson = new JSONObject();
+                for (String key : extras.keySet()) {
+                    extrasJson.put(key, String.valueOf(extras.get(key)));
+                }
+                entry.put(KEY_EXTRAS, extrasJson);
+            }
+        } catch (JSONException e) {
+            OPFLog.w("Can't serialize topic : " + e.getMessage());
+        }
+        return entry.toString();
+    }
+
+    @Nullable
+    private static String getRegistrationId(@NonNull final String entry) {
+        try {
+            final String registrationId = new JSONObject(entry).optString(KEY_REGISTRATION_ID);
+            return TextUtils.isEmpty(registrationId) ? null : registrationId;
+        } catch (JSONException e) {
+            OPFLog.w("Wrong stored topic : " + entry);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Bundle getExtras(@NonNull final String entry) {
+        try {
+            final JSONObject extrasJson = new JSONObject(entry).optJSONObject(KEY_EXTRAS);
+            if (extrasJson == null) {
+                return null;
+            }
+
+            final Bundle extras = new Bundle();
+            final Iterator<String> keys = extrasJson.keys();
+            while (keys.hasNext()) {
+                final String key = keys.next();
+                extras.putString(key, extrasJson.getString(key));
+            }
+            return extras;
+        } catch (JSONException e) {
+            OPFLog.w("Wrong stored topic : " + entry);
+            return null;
+        }
+    }
+}
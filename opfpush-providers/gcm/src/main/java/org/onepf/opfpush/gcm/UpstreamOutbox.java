@@ -0,0 +1,244 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.gcm;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.onepf.opfpush.model.Message;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the upstream messages until they are sent or expired.
+ * <p/>
+ * A message expires when its time to live is over. The time to live of the message is counted
+ * from the moment when the message has been added, so the message is sent with the rest of its time to live.
+ * A message with the zero time to live expires after {@link #DEFAULT_TIME_TO_LIVE_SECONDS}, the GCM default.
+ * <p/>
+ * After a failed try the message is delayed exponentially in the same way as the retries of the registration.
+ * The data of the message is stored as strings, because GCM sends it as strings.
+ *
+ * @since 18.10.2026
+ */
+@SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
+final class UpstreamOutbox {
+
+    static final long DEFAULT_TIME_TO_LIVE_SECONDS = TimeUnit.DAYS.toSeconds(28);
+
+    /**
+     * Give max delay about two hours.
+     */
+    static final int MAX_TRY_COUNT = 12;
+
+    static final long NO_NEXT_TRY_TIME = -1;
+
+    private static final String PREFERENCES_POSTFIX = ".opfpush.gcm.outbox";
+    private static final String KEY_MESSAGES_TO = "to";
+    private static final String KEY_DATA = "data";
+    private static final String KEY_TIME_TO_LIVE = "ttl";
+    private static final String KEY_ADDED_TIME = "added_time";
+    private static final String KEY_TRIES_COUNT = "tries_count";
+    private static final String KEY_NEXT_TRY_TIME = "next_try_time";
+
+    private static volatile UpstreamOutbox instance;
+
+    @NonNull
+    private final SharedPreferences preferences;
+
+    private UpstreamOutbox(@NonNull final Context context) {
+        this.preferences = context.getSharedPreferences(
+                context.getPackageName() + PREFERENCES_POSTFIX, Context.MODE_PRIVATE);
+    }
+
+    @NonNull
+    @SuppressWarnings("PMD.NonThreadSafeSingleton")
+    static UpstreamOutbox getInstance(@NonNull final Context context) {
+        if (instance == null) {
+            synchronized (UpstreamOutbox.class) {
+                if (instance == null) {
+                    instance = new UpstreamOutbox(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Adds the message. The message with the same id is replaced.
+     */
+    synchronized void add(@NonNull final String messagesTo, @NonNull final Message message, final long now) {
+        final JSONObject entry = new JSONObject();
+        try {
+            final JSONObject data = new JSONObject();
+            final Bundle messageData = message.getData();
+            for (String key : messageData.keySet()) {
+                data.put(key, String.valueOf(messageData.get(key)));
+            }
+            final long timeToLive = message.getTimeToLeave() == 0
+                    ? DEFAULT_TIME_TO_LIVE_SECONDS
+                    : message.getTimeToLeave();
+
+            entry.put(KEY_MESSAGES_TO, messagesTo)
+                    .put(KEY_DATA, data)
+                    .put(KEY_TIME_TO_LIVE, timeToLive)
+                    .put(KEY_ADDED_TIME, now)
+                    .put(KEY_TRIES_COUNT, 0)
+                    .put(KEY_NEXT_TRY_TIME, now);
+        } catch (JSONException e) {
+            OPFLog.e(String.format("Message '%s' can't be stored.", message), e);
+            return;
+        }
+        preferences.edit().putString(message.getId(), entry.toString()).apply();
+    }
+
+    /**
+     * Returns the messages which must be sent now and removes the expired ones.
+     *
+     * @param now           The current time in milliseconds.
+     * @param ignoreBackoff {@code true} if the delay after the failed tries must be ignored.
+     * @return The messages which must be sent now.
+     */
+    @NonNull
+    synchronized List<PendingMessage> getDueMessages(final long now, final boolean ignoreBackoff) {
+        final List<PendingMessage> dueMessages = new ArrayList<>();
+        final SharedPreferences.Editor editor = preferences.edit();
+        for (Map.Entry<String, ?> storedEntry : preferences.getAll().entrySet()) {
+            final String id = storedEntry.getKey();
+            try {
+                final JSONObject entry = new JSONObject(String.valueOf(storedEntry.getValue()));
+                final long expirationTime = entry.getLong(KEY_ADDED_TIME)
+                        + TimeUnit.SECONDS.toMillis(entry.getLong(KEY_TIME_TO_LIVE));
+                if (expirationTime <= now) {
+                    OPFLog.w("Message '%s' is expired.", id);
+                    editor.remove(id);
+                } else if (ignoreBackoff || entry.getLong(KEY_NEXT_TRY_TIME) <= now) {
+                    final long timeToLive = TimeUnit.MILLISECONDS.toSeconds(expirationTime - now);
+                    dueMessages.add(new PendingMessage(
+                            entry.getString(KEY_MESSAGES_TO),
+                            new Message(id, toBundle(entry.getJSONObject(KEY_DATA)), Math.max(1, timeToLive))
+                    ));
+                }
+            } catch (JSONException e) {
+                OPFLog.w("Wrong stored message : " + storedEntry.getValue());
+                editor.remove(id);
+            }
+        }
+        editor.apply();
+        return dueMessages;
+    }
+
+    synchronized void remove(@NonNull final String id) {
+        preferences.edit().remove(id).apply();
+    }
+
+    /**
+     * Delays the next try of the message.
+     */
+    synchronized void onSendFailed(@NonNull final String id, final long now) {
+        final String storedEntry = preferences.getString(id, null);
+        if (storedEntry == null) {
+            return;
+        }
+
+        try {
+            final JSONObject entry = new JSONObject(storedEntry);
+            final int triesCount = entry.getInt(KEY_TRIES_COUNT);
+            entry.put(KEY_TRIES_COUNT, triesCount + 1)
+                    .put(KEY_NEXT_TRY_TIME, now + getTryDelay(triesCount));
+            preferences.edit().putString(id, entry.toString()).apply();
+        } catch (JSONException e) {
+            OPFLog.w("Wrong stored message : " + storedEntry);
+            remove(id);
+        }
+    }
+
+    /**
+     * Returns the time of the earliest next try or {@link #NO_NEXT_TRY_TIME} if there are no messages.
+     */
+    synchronized long getNextTryTime() {
+        long nextTryTime = NO_NEXT_TRY_TIME;
+        for (Object storedEntry : preferences.getAll().values()) {
+            try {
+                final long messageNextTryTime = new JSONObject(String.valueOf(storedEntry)).getLong(KEY_NEXT_TRY_TIME);
+                if (nextTryTime == NO_NEXT_TRY_TIME || messageNextTryTime < nextTryTime) {
+                    nextTryTime = messageNextTryTime;
+                }
+            } catch (JSONException e) {
+                OPFLog.w("Wrong stored message : " + storedEntry);
+            }
+        }
+        return nextTryTime;
+    }
+
+    static long getTryDelay(final int triesCount) {
+        return TimeUnit.SECONDS.toMillis(2 << Math.min(triesCount, MAX_TRY_COUNT));
+    }
+
+    @NonNull
+    private static Bundle toBundle(@NonNull final JSONObject data) throws JSONException {
+        final Bundle bundle = new Bundle();
+        final Iterator<String> keys = data.keys();
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            bundle.putString(key, data.getString(key));
+        }
+        return bundle;
+    }
+
+    static final class PendingMessage {
+
+        @NonNull
+        private final String messagesTo;
+
+        @NonNull
+        private final Message message;
+
+        PendingMessage(@NonNull final String messagesTo, @NonNull final Message message) {
+            this.messagesTo = messagesTo;
+            this.message = message;
+        }
+
+        @NonNull
+        String getMessagesTo() {
+            return messagesTo;
+        }
+
+        /**
+         * @return The message with the rest of its time to live.
+         */
+        @NonNull
+        Message getMessage() {
+            return message;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return message.toString();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.gcm;
+
+import android.support.annotation.NonNull;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class GCMExecutorTest extends Assert {
+
+    private static final int TASKS_COUNT = 20;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    @Test
+    public void serialQueueRunsTasksInOrder() throws InterruptedException {
+        final GCMExecutor.SerialQueue queue = GCMExecutor.getInstance().newSerialQueue();
+        final List<Integer> executionOrder = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(TASKS_COUNT);
+
+        for (int i = 0; i < TASKS_COUNT; ++i) {
+            final int taskNumber = i;
+            queue.submit(new Runnable() {
+                @Override
+                public void run() {
+                    executionOrder.add(taskNumber);
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue(latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < TASKS_COUNT; ++i) {
+            assertEquals(Integer.valueOf(i), executionOrder.get(i));
+        }
+    }
+
+    @Test
+    public void cancelAllCancelsQueuedTasks() throws InterruptedException {
+        final GCMExecutor.SerialQueue queue = GCMExecutor.getInstance().newSerialQueue();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        queue.submit(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final Future<?> queuedTask = queue.submit(new Runnable() {
+            @Override
+            public void run() {
+                fail();
+            }
+        });
+
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        queue.cancelAll();
+        release.countDown();
+        assertTrue(queuedTask.isCancelled());
+    }
+
+    @Test
+    public void serialQueueReportsRejectedTask() throws InterruptedException {
+        final GCMExecutor executor = GCMExecutor.getInstance();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Runnable blockingTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        final AtomicReference<RejectedExecutionException> rejection = new AtomicReference<>();
+
+        try {
+            for (int i = 0; i < GCMExecutor.MAX_THREADS_COUNT + GCMExecutor.QUEUE_CAPACITY; ++i) {
+                executor.submit(blockingTask);
+            }
+            final Future<?> rejectedTask = executor.newSerialQueue().submit(new Runnable() {
+                @Override
+                public void run() {
+                    fail();
+                }
+            }, new GCMExecutor.RejectionHandler() {
+                @Override
+                public void onRejected(@NonNull final RejectedExecutionException e) {
+                    rejection.set(e);
+                }
+            });
+
+            assertNotNull(rejection.get());
+            assertTrue(rejectedTask.isCancelled());
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.gcm;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class GCMProviderTest extends Assert {
+
+    private static final String SENDER_ID = "sender_id";
+    private static final String REGISTRATION_ID = "registration_id";
+    private static final long TIMEOUT_SECONDS = 5;
+    private static final long EXTRA_REQUEST_TIMEOUT_MILLIS = 300;
+
+    private BlockingTokenClient tokenClient;
+
+    private GCMProvider gcmProvider;
+
+    @Before
+    public void setUp() {
+        PreferencesProvider.getInstance(RuntimeEnvironment.application).reset();
+        tokenClient = new BlockingTokenClient();
+        gcmProvider = new GCMProvider(RuntimeEnvironment.application, tokenClient, SENDER_ID);
+    }
+
+    @After
+    public void tearDown() {
+        tokenClient.releaseAll();
+    }
+
+    @Test
+    public void register_concurrentRegistrationSharesTokenRequest() throws InterruptedException {
+        gcmProvider.register();
+        assertTrue(tokenClient.awaitRequest());
+
+        gcmProvider.register();
+        gcmProvider.register();
+
+        //The result of the shared request is made obsolete, so it isn't reported.
+        gcmProvider.onRegistrationInvalid();
+        tokenClient.release();
+
+        //The registration of the new generation starts a new request.
+        gcmProvider.register();
+        assertTrue(tokenClient.awaitRequest());
+        assertEquals(2, tokenClient.requestsCount.get());
+
+        gcmProvider.onRegistrationInvalid();
+        tokenClient.release();
+        assertFalse(tokenClient.awaitExtraRequest());
+        assertEquals(2, tokenClient.requestsCount.get());
+    }
+
+    @Test
+    public void register_obsoleteResultIsDropped() throws InterruptedException {
+        gcmProvider.register();
+        assertTrue(tokenClient.awaitRequest());
+
+        gcmProvider.onRegistrationInvalid();
+        tokenClient.release();
+
+        //The next request starts only after the obsolete result has been handled.
+        gcmProvider.register();
+        assertTrue(tokenClient.awaitRequest());
+        assertNull(gcmProvider.getRegistrationId());
+        assertFalse(gcmProvider.isRegistered());
+        gcmProvider.onRegistrationInvalid();
+    }
+
+    /**
+     * Blocks every token request until it's released.
+     */
+    private static final class BlockingTokenClient implements TokenClient {
+
+        private final AtomicInteger requestsCount = new AtomicInteger();
+
+        private final Semaphore requests = new Semaphore(0);
+
+        private final Semaphore releases = new Semaphore(0);
+
+        @Nullable
+        @Override
+        public String getToken(@NonNull final String senderIds) {
+            requestsCount.incrementAndGet();
+            requests.release();
+            releases.acquireUninterruptibly();
+            return REGISTRATION_ID;
+        }
+
+        @Override
+        public void deleteToken(@NonNull final String senderIds) {
+            fail();
+        }
+
+        boolean awaitRequest() throws InterruptedException {
+            return requests.tryAcquire(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        boolean awaitExtraRequest() throws InterruptedException {
+            return requests.tryAcquire(EXTRA_REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        void release() {
+            releases.release();
+        }
+
+        void releaseAll() {
+            releases.release(Integer.MAX_VALUE / 2);
+        }
+    }
+}
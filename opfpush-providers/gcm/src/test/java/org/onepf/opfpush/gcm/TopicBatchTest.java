@@ -0,0 +1,168 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.gcm;
+
+import android.support.annotation.NonNull;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class TopicBatchTest extends Assert {
+
+    private static final String REGISTRATION_ID = "registration_id";
+    private static final int TOPICS_COUNT = 30;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Test
+    public void allTopicsAreProcessedInParallel() throws InterruptedException {
+        final List<String> topics = new ArrayList<>(TOPICS_COUNT);
+        for (int i = 0; i < TOPICS_COUNT; ++i) {
+            topics.add("/topics/topic" + i);
+        }
+        final AtomicInteger runningOperations = new AtomicInteger();
+        final AtomicInteger maxRunningOperations = new AtomicInteger();
+        final ResultCollector result = new ResultCollector();
+
+        new TopicBatch(REGISTRATION_ID, topics, new TopicBatch.TopicOperation() {
+            @Override
+            public void run(@NonNull final String registrationId, @NonNull final String topic) {
+                final int running = runningOperations.incrementAndGet();
+                synchronized (maxRunningOperations) {
+                    maxRunningOperations.set(Math.max(maxRunningOperations.get(), running));
+                }
+                runningOperations.decrementAndGet();
+            }
+        }, result).start();
+
+        assertTrue(result.latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(TOPICS_COUNT, result.succeededTopics.size());
+        assertTrue(result.failedTopics.isEmpty());
+        assertTrue(maxRunningOperations.get() <= TopicBatch.MAX_PARALLEL_REQUESTS);
+    }
+
+    @Test
+    public void failedTopicIsRetried() throws InterruptedException {
+        final String topic = "/topics/topic";
+        final Map<String, Integer> tries = new ConcurrentHashMap<>();
+        final ResultCollector result = new ResultCollector();
+
+        new TopicBatch(REGISTRATION_ID, Collections.singletonList(topic), new TopicBatch.TopicOperation() {
+            @Override
+            public void run(@NonNull final String registrationId, @NonNull final String topic) throws IOException {
+                final Integer triesCount = tries.get(topic);
+                tries.put(topic, triesCount == null ? 1 : triesCount + 1);
+                if (triesCount == null) {
+                    throw new IOException(GCMConstants.ERROR_SERVICE_NOT_AVAILABLE);
+                }
+            }
+        }, result).start();
+
+        assertTrue(result.latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Collections.singleton(topic), result.succeededTopics);
+        assertEquals(Integer.valueOf(2), tries.get(topic));
+    }
+
+    @Test
+    public void retryDelayDoesNotOccupyExecutorThread() throws InterruptedException {
+        final CountDownLatch firstTryFailed = new CountDownLatch(1);
+        final ResultCollector result = new ResultCollector();
+
+        new TopicBatch(REGISTRATION_ID, Collections.singletonList("/topics/topic"), new TopicBatch.TopicOperation() {
+            @Override
+            public void run(@NonNull final String registrationId, @NonNull final String topic) throws IOException {
+                if (firstTryFailed.getCount() > 0) {
+                    firstTryFailed.countDown();
+                    throw new IOException(GCMConstants.ERROR_SERVICE_NOT_AVAILABLE);
+                }
+            }
+        }, result).start();
+        assertTrue(firstTryFailed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        //All threads of the executor must be available while the topic waits for the retry.
+        final CountDownLatch runningTasks = new CountDownLatch(GCMExecutor.MAX_THREADS_COUNT);
+        final CountDownLatch allTasksRan = new CountDownLatch(GCMExecutor.MAX_THREADS_COUNT);
+        for (int i = 0; i < GCMExecutor.MAX_THREADS_COUNT; ++i) {
+            GCMExecutor.getInstance().submit(new Runnable() {
+                @Override
+                public void run() {
+                    runningTasks.countDown();
+                    try {
+                        if (runningTasks.await(TopicBatch.INITIAL_RETRY_DELAY_MILLIS / 2, TimeUnit.MILLISECONDS)) {
+                            allTasksRan.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        assertTrue(allTasksRan.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(result.latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, result.succeededTopics.size());
+    }
+
+    @Test
+    public void emptyBatchIsCompletedImmediately() {
+        final ResultCollector result = new ResultCollector();
+        new TopicBatch(REGISTRATION_ID, Collections.<String>emptyList(), new TopicBatch.TopicOperation() {
+            @Override
+            public void run(@NonNull final String registrationId, @NonNull final String topic) {
+                fail();
+            }
+        }, result).start();
+
+        assertEquals(0, result.latch.getCount());
+    }
+
+    private static final class ResultCollector implements GCMPubSubHelper.BatchCallback {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        private volatile Set<String> succeededTopics;
+
+        private volatile Map<String, String> failedTopics;
+
+        @Override
+        public void onComplete(@NonNull final Set<String> succeededTopics,
+                               @NonNull final Map<String, String> failedTopics) {
+            this.succeededTopics = succeededTopics;
+            this.failedTopics = failedTopics;
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.gcm;
+
+import android.os.Bundle;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class TopicLedgerTest extends Assert {
+
+    private static final String TOPIC_A = "/topics/a";
+    private static final String TOPIC_B = "/topics/b";
+    private static final String OLD_REGISTRATION_ID = "old_registration_id";
+    private static final String NEW_REGISTRATION_ID = "new_registration_id";
+
+    @Test
+    public void onlyMissingTopicsAreReturned() {
+        final TopicLedger ledger = new TopicLedger(RuntimeEnvironment.application);
+        ledger.add(TOPIC_A, null);
+        ledger.add(TOPIC_B, null);
+        ledger.markSubscribed(Collections.singleton(TOPIC_A), NEW_REGISTRATION_ID);
+
+        assertEquals(Collections.singleton(TOPIC_B), ledger.getMissingTopics(NEW_REGISTRATION_ID).keySet());
+    }
+
+    @Test
+    public void topicsAreMissingAfterRegistrationIdChange() {
+        final TopicLedger ledger = new TopicLedger(RuntimeEnvironment.application);
+        ledger.add(TOPIC_A, null);
+        ledger.add(TOPIC_B, null);
+        ledger.markSubscribed(Arrays.asList(TOPIC_A, TOPIC_B), OLD_REGISTRATION_ID);
+        assertTrue(ledger.getMissingTopics(OLD_REGISTRATION_ID).isEmpty());
+
+        final TopicLedger restoredLedger = new TopicLedger(RuntimeEnvironment.application);
+        assertEquals(new HashSet<>(Arrays.asList(TOPIC_A, TOPIC_B)),
+                restoredLedger.getMissingTopics(NEW_REGISTRATION_ID).keySet());
+    }
+
+    @Test
+    public void removedTopicIsNotMarkedSubscribed() {
+        final TopicLedger ledger = new TopicLedger(RuntimeEnvironment.application);
+        ledger.add(TOPIC_A, null);
+        ledger.remove(Collections.singleton(TOPIC_A));
+        ledger.markSubscribed(Collections.singleton(TOPIC_A), NEW_REGISTRATION_ID);
+
+        assertTrue(ledger.getMissingTopics(OLD_REGISTRATION_ID).isEmpty());
+    }
+
+    @Test
+    public void extrasAreStored() {
+        final Bundle extras = new Bundle();
+        extras.putString("key", "value");
+        final TopicLedger ledger = new TopicLedger(RuntimeEnvironment.application);
+        ledger.add(TOPIC_A, extras);
+        ledger.markSubscribed(Collections.singleton(TOPIC_A), OLD_REGISTRATION_ID);
+
+        final Map<String, Bundle> missingTopics = ledger.getMissingTopics(NEW_REGISTRATION_ID);
+        assertEquals("value", missingTopics.get(TOPIC_A).getString("key"));
+    }
+}
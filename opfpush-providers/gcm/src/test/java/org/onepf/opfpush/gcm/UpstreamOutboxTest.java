@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.gcm;
+
+import android.os.Bundle;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.onepf.opfpush.model.Message;
+import org.onepf.opfutils.OPFLog;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class UpstreamOutboxTest extends Assert {
+
+    private static final String MESSAGES_TO = "sender@gcm.googleapis.com";
+    private static final String MESSAGE_ID = "message_id";
+    private static final long NOW = 1000000L;
+    private static final long TIME_TO_LIVE_SECONDS = 60;
+
+    private UpstreamOutbox outbox;
+
+    @Before
+    public void setUp() {
+        outbox = UpstreamOutbox.getInstance(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void eraseOutboxInstance() {
+        synchronized (UpstreamOutbox.class) {
+            try {
+                final Field instanceField = UpstreamOutbox.class.getDeclaredField("instance");
+                instanceField.setAccessible(true);
+                instanceField.set(null, null);
+            } catch (IllegalAccessException | NoSuchFieldException e) {
+                OPFLog.e(e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void addedMessageIsDue() {
+        final Bundle data = new Bundle();
+        data.putString("key", "value");
+        outbox.add(MESSAGES_TO, new Message(MESSAGE_ID, data, TIME_TO_LIVE_SECONDS), NOW);
+
+        final List<UpstreamOutbox.PendingMessage> dueMessages = outbox.getDueMessages(NOW, false);
+        assertEquals(1, dueMessages.size());
+        assertEquals(MESSAGES_TO, dueMessages.get(0).getMessagesTo());
+        assertEquals(MESSAGE_ID, dueMessages.get(0).getMessage().getId());
+        assertEquals("value", dueMessages.get(0).getMessage().getData().getString("key"));
+        assertEquals(NOW, outbox.getNextTryTime());
+    }
+
+    @Test
+    public void failedMessageIsDelayed() {
+        outbox.add(MESSAGES_TO, new Message(MESSAGE_ID, new Bundle(), TIME_TO_LIVE_SECONDS), NOW);
+        outbox.onSendFailed(MESSAGE_ID, NOW);
+
+        final long nextTryTime = NOW + UpstreamOutbox.getTryDelay(0);
+        assertEquals(nextTryTime, outbox.getNextTryTime());
+        assertTrue(outbox.getDueMessages(NOW, false).isEmpty());
+        assertEquals(1, outbox.getDueMessages(NOW, true).size());
+        assertEquals(1, outbox.getDueMessages(nextTryTime, false).size());
+    }
+
+    @Test
+    public void messageIsSentWithRestOfTimeToLive() {
+        outbox.add(MESSAGES_TO, new Message(MESSAGE_ID, new Bundle(), TIME_TO_LIVE_SECONDS), NOW);
+
+        final long later = NOW + TimeUnit.SECONDS.toMillis(TIME_TO_LIVE_SECONDS / 2);
+        final List<UpstreamOutbox.PendingMessage> dueMessages = outbox.getDueMessages(later, false);
+        assertEquals(TIME_TO_LIVE_SECONDS / 2, dueMessages.get(0).getMessage().getTimeToLeave());
+    }
+
+    @Test
+    public void expiredMessageIsRemoved() {
+        outbox.add(MESSAGES_TO, new Message(MESSAGE_ID, new Bundle(), TIME_TO_LIVE_SECONDS), NOW);
+
+        final long expirationTime = NOW + TimeUnit.SECONDS.toMillis(TIME_TO_LIVE_SECONDS);
+        assertTrue(outbox.getDueMessages(expirationTime, true).isEmpty());
+        assertEquals(UpstreamOutbox.NO_NEXT_TRY_TIME, outbox.getNextTryTime());
+    }
+
+    @Test
+    public void sentMessageIsRemoved() {
+        outbox.add(MESSAGES_TO, new Message(MESSAGE_ID, new Bundle()), NOW);
+        outbox.remove(MESSAGE_ID);
+
+        assertTrue(outbox.getDueMessages(NOW, true).isEmpty());
+        assertEquals(UpstreamOutbox.NO_NEXT_TRY_TIME, outbox.getNextTryTime());
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfpush.model.AvailabilityResult;
+import org.onepf.opfpush.pushprovider.PushProvider;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the available {@link AvailabilityResult} of every provider, because
+ * {@link PushProvider#getAvailabilityResult()} makes several calls to the {@link android.content.pm.PackageManager}.
+ * <p/>
+ * An unavailable result isn't cached, because a provider can become available without any package broadcast,
+ * e.g. when Google Play services leave a recoverable state. The cached results are invalidated
+ * by the {@link PackageChangeReceiver} when a host app of a provider or Google Play services is added,
+ * changed, removed or replaced.
+ *
+ * @since 18.10.2026
+ */
+final class AvailabilityCache {
+
+    @NonNull
+    private final Map<String, AvailabilityResult> availabilityResults = new ConcurrentHashMap<>();
+
+    @NonNull
+    AvailabilityResult getAvailabilityResult(@NonNull final PushProvider provider) {
+        final String providerName = provider.getName();
+        AvailabilityResult availabilityResult = availabilityResults.get(providerName);
+        if (availabilityResult == null) {
+            availabilityResult = provider.getAvailabilityResult();
+            if (availabilityResult.isAvailable()) {
+                availabilityResults.put(providerName, availabilityResult);
+            }
+        }
+        return availabilityResult;
+    }
+
+    void invalidateAll() {
+        OPFLog.logMethod();
+        availabilityResults.clear();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the tasks one by one on a single thread with the background priority.
+ * <p/>
+ * Used for the rare one-shot tasks like the deferred manifest check and the revalidation of the restored
+ * provider, which mustn't delay the calling thread. The thread is created on demand and is stopped
+ * when it's idle.
+ *
+ * @since 18.10.2026
+ */
+final class BackgroundTaskExecutor implements Executor {
+
+    private static final String THREAD_NAME = "OPFPushBackgroundThread";
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static volatile BackgroundTaskExecutor instance;
+
+    @NonNull
+    private final ThreadPoolExecutor executor;
+
+    private BackgroundTaskExecutor() {
+        executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, THREAD_NAME);
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @NonNull
+    @SuppressWarnings("PMD.NonThreadSafeSingleton")
+    static BackgroundTaskExecutor getInstance() {
+        if (instance == null) {
+            synchronized (BackgroundTaskExecutor.class) {
+                if (instance == null) {
+                    instance = new BackgroundTaskExecutor();
+                }
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public void execute(@NonNull final Runnable task) {
+        executor.execute(task);
+    }
+}
@@ -28,9 +28,6 @@ import org.onepf.opfutils.OPFUtils;
 
 import java.util.Set;
 
-import static org.onepf.opfpush.OPFConstants.ACTION_RETRY_REGISTER;
-import static org.onepf.opfpush.OPFConstants.ACTION_RETRY_UNREGISTER;
-
 /**
  * @author Roman Savin
  * @since 07.04.2015
@@ -41,21 +38,18 @@ public final class ConnectivityChangeReceiver extends BroadcastReceiver {
     public void onReceive(@NonNull final Context context, @NonNull final Intent intent) {
         OPFLog.logMethod(context, OPFUtils.toString(intent));
 
+        if (isInitialStickyBroadcast()) {
+            //The current connectivity state is delivered on registration. It isn't a change.
+            OPFLog.d("Initial sticky broadcast is ignored");
+            return;
+        }
+
         final Set<Pair<String, String>> retryProvidersActions = RetryManager.getInstance()
-                .getRetryProvidersActions();
+                .onConnectivityChanged();
 
         final OPFPushHelper helper = OPFPush.getHelper();
         for (Pair<String, String> retryProviderAction : retryProvidersActions) {
-            final String providerName = retryProviderAction.first;
-            final String action = retryProviderAction.second;
-            switch (action) {
-                case ACTION_RETRY_REGISTER:
-                    helper.register(providerName);
-                    break;
-                case ACTION_RETRY_UNREGISTER:
-                    helper.unregister(providerName);
-                    break;
-            }
+            RetryBroadcastReceiver.retry(helper, retryProviderAction.first, retryProviderAction.second);
         }
     }
 }
@@ -16,21 +16,24 @@
 
 package org.onepf.opfpush;
 
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ResolveInfo;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import org.onepf.opfpush.listener.BatchEventListener;
 import org.onepf.opfpush.listener.EventListener;
 import org.onepf.opfpush.model.UnrecoverablePushError;
 import org.onepf.opfutils.OPFLog;
-import org.onepf.opfutils.OPFUtils;
 
-import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import static org.onepf.opfpush.OPFConstants.ACTION_NO_AVAILABLE_PROVIDER;
 import static org.onepf.opfpush.OPFConstants.ACTION_RECEIVE;
@@ -55,39 +58,64 @@ final class EventListenerWrapperCreator {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Returns the listener that calls the {@code directEventListener} callbacks via the {@code callbackExecutor}.
+     * The listener that sends broadcasts is returned as is, because broadcasts can be sent from any thread.
+     *
+     * @param directEventListener The listener that is returned by
+     *                            {@link #getDirectEventListener(Context, EventListener, boolean)}.
+     */
     @NonNull
-    static EventListener getEventListenerWrapper(
-            @Nullable final EventListener eventListener
+    static BatchEventListener getEventListenerWrapper(
+            @NonNull final BatchEventListener directEventListener,
+            @NonNull final Executor callbackExecutor
     ) {
-        OPFLog.logMethod(eventListener);
+        OPFLog.logMethod(directEventListener);
 
-        if (eventListener != null) {
-            return createMainLooperWrapper(eventListener);
+        if (directEventListener instanceof BroadcastSender) {
+            return directEventListener;
         } else {
-            return createBroadcastSender();
+            return createExecutorWrapper(directEventListener, callbackExecutor);
         }
     }
 
+    /**
+     * Returns the listener that calls the {@code eventListener} callbacks in the calling thread.
+     * If the {@code eventListener} is null, returns the listener that sends broadcasts to the app receivers.
+     * Batched messages are passed to an {@code eventListener} that isn't a {@link BatchEventListener} one by one.
+     *
+     * @param isInProcessReceiverEnabled {@code true} if broadcasts must be delivered to the receivers
+     *                                   of the current process without the system server.
+     */
     @NonNull
-    private static EventListener createMainLooperWrapper(@NonNull final EventListener eventListener) {
-        OPFLog.logMethod(eventListener);
-        return new EventListener() {
-
-            private final Handler handler = new Handler(Looper.getMainLooper());
+    static BatchEventListener getDirectEventListener(@NonNull final Context context,
+                                                     @Nullable final EventListener eventListener,
+                                                     final boolean isInProcessReceiverEnabled) {
+        if (eventListener == null) {
+            return new BroadcastSender(context, isInProcessReceiverEnabled);
+        } else if (eventListener instanceof BatchEventListener) {
+            return (BatchEventListener) eventListener;
+        }
 
+        return new BatchEventListener() {
             @Override
             public void onMessage(
                     @NonNull final Context context,
                     @NonNull final String providerName,
                     @Nullable final Bundle extras
             ) {
-                post(new Runnable() {
-                    @Override
-                    public void run() {
-                        OPFLog.d("Post onMessage(%1$s, %2$s)", providerName, extras);
-                        eventListener.onMessage(context, providerName, extras);
-                    }
-                });
+                eventListener.onMessage(context, providerName, extras);
+            }
+
+            @Override
+            public void onMessages(
+                    @NonNull final Context context,
+                    @NonNull final String providerName,
+                    @NonNull final List<Bundle> messages
+            ) {
+                for (Bundle extras : messages) {
+                    eventListener.onMessage(context, providerName, extras);
+                }
             }
 
             @Override
@@ -96,13 +124,7 @@ final class EventListenerWrapperCreator {
                     @NonNull final String providerName,
                     final int messagesCount
             ) {
-                post(new Runnable() {
-                    @Override
-                    public void run() {
-                        OPFLog.d("Post onDeletedMessages(%1$s, %2$s)", providerName, messagesCount);
-                        eventListener.onDeletedMessages(context, providerName, messagesCount);
-                    }
-                });
+                eventListener.onDeletedMessages(context, providerName, messagesCount);
             }
 
             @Override
@@ -111,13 +133,7 @@ final class EventListenerWrapperCreator {
                     @NonNull final String providerName,
                     @NonNull final String registrationId
             ) {
-                post(new Runnable() {
-                    @Override
-                    public void run() {
-                        OPFLog.d("Post onRegistered(%1$s, %2$s)", providerName, registrationId);
-                        eventListener.onRegistered(context, providerName, registrationId);
-                    }
-                });
+                eventListener.onRegistered(context, providerName, registrationId);
             }
 
             @Override
@@ -126,58 +142,53 @@ final class EventListenerWrapperCreator {
                     @NonNull final String providerName,
                     @Nullable final String registrationId
             ) {
-                post(new Runnable() {
-                    @Override
-                    public void run() {
-                        OPFLog.d("Post onUnregistered(%1$s, %2$s)", providerName, registrationId);
-                        eventListener.onUnregistered(context, providerName, registrationId);
-                    }
-                });
+                eventListener.onUnregistered(context, providerName, registrationId);
             }
 
             @Override
             public void onNoAvailableProvider(
                     @NonNull final Context context,
-                    @NonNull final Map<String, UnrecoverablePushError> pushErrors) {
-                post(new Runnable() {
-                    @Override
-                    public void run() {
-                        OPFLog.d("Post onNoAvailableProvider()");
-                        eventListener.onNoAvailableProvider(context, pushErrors);
-                    }
-                });
-            }
-
-            private void post(@NonNull final Runnable runnable) {
-                if (OPFUtils.isMainThread()) {
-                    runnable.run();
-                } else {
-                    handler.post(runnable);
-                }
+                    @NonNull final Map<String, UnrecoverablePushError> pushErrors
+            ) {
+                eventListener.onNoAvailableProvider(context, pushErrors);
             }
         };
     }
 
     @NonNull
-    private static EventListener createBroadcastSender() {
-        OPFLog.logMethod();
-        return new EventListener() {
+    private static BatchEventListener createExecutorWrapper(@NonNull final BatchEventListener eventListener,
+                                                            @NonNull final Executor executor) {
+        OPFLog.logMethod(eventListener);
+        return new BatchEventListener() {
+
             @Override
             public void onMessage(
                     @NonNull final Context context,
                     @NonNull final String providerName,
                     @Nullable final Bundle extras
             ) {
-                OPFLog.d("SendBroadcast onMessage(%1$s, %2$s)", providerName, extras);
-
-                final Intent intent = new Intent(ACTION_RECEIVE);
-                if (extras != null) {
-                    intent.putExtras(extras);
-                }
-                intent.putExtra(EXTRA_MESSAGE_TYPE, MESSAGE_TYPE_MESSAGE);
-                intent.putExtra(EXTRA_PROVIDER_NAME, providerName);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        OPFLog.d("Execute onMessage(%1$s, %2$s)", providerName, extras);
+                        eventListener.onMessage(context, providerName, extras);
+                    }
+                });
+            }
 
-                context.sendBroadcast(intent);
+            @Override
+            public void onMessages(
+                    @NonNull final Context context,
+                    @NonNull final String providerName,
+                    @NonNull final List<Bundle> messages
+            ) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        OPFLog.d("Execute onMessages(%1$s, %2$s)", providerName, messages.size());
+                        eventListener.onMessages(context, providerName, messages);
+                    }
+                });
             }
 
             @Override
@@ -186,12 +197,13 @@ final class EventListenerWrapperCreator {
                     @NonNull final String providerName,
                     final int messagesCount
             ) {
-                OPFLog.d("SendBroadcast onDeletedMessages(%1$s, %2$s)", providerName, messagesCount);
-                final Intent intent = new Intent(ACTION_RECEIVE);
-                intent.putExtra(EXTRA_MESSAGE_TYPE, MESSAGE_TYPE_DELETED);
-                intent.putExtra(EXTRA_MESSAGE_COUNT, messagesCount);
-                intent.putExtra(EXTRA_PROVIDER_NAME, providerName);
-                context.sendBroadcast(intent);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        OPFLog.d("Execute onDeletedMessages(%1$s, %2$s)", providerName, messagesCount);
+                        eventListener.onDeletedMessages(context, providerName, messagesCount);
+                    }
+                });
             }
 
             @Override
@@ -200,11 +212,13 @@ final class EventListenerWrapperCreator {
                     @NonNull final String providerName,
                     @NonNull final String registrationId
             ) {
-                OPFLog.d("SendBroadcast onRegistered(%1$s, %2$s)", providerName, registrationId);
-                final Intent intent = new Intent(ACTION_REGISTRATION);
-                intent.putExtra(EXTRA_PROVIDER_NAME, providerName);
-                intent.putExtra(EXTRA_REGISTRATION_ID, registrationId);
-                context.sendBroadcast(intent);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        OPFLog.d("Execute onRegistered(%1$s, %2$s)", providerName, registrationId);
+                        eventListener.onRegistered(context, providerName, registrationId);
+                    }
+                });
             }
 
             @Override
@@ -213,25 +227,201 @@ final class EventListenerWrapperCreator {
                     @NonNull final String providerName,
                     @Nullable final String registrationId
             ) {
-                OPFLog.d("SendBroadcast onUnregistered(%1$s, %2$s)", providerName, registrationId);
-                final Intent intent = new Intent(ACTION_UNREGISTRATION);
-                intent.putExtra(EXTRA_PROVIDER_NAME, providerName);
-                intent.putExtra(EXTRA_REGISTRATION_ID, registrationId);
-                context.sendBroadcast(intent);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        OPFLog.d("Execute onUnregistered(%1$s, %2$s)", providerName, registrationId);
+                        eventListener.onUnregistered(context, providerName, registrationId);
+                    }
+                });
             }
 
             @Override
             public void onNoAvailableProvider(
                     @NonNull final Context context,
-                    @NonNull final Map<String, UnrecoverablePushError> pushErrors
-            ) {
-                OPFLog.d("SendBroadcast onNoAvailableProvider()");
-                final Intent intent = new Intent(ACTION_NO_AVAILABLE_PROVIDER);
-                final Bundle extras = new Bundle();
-                extras.putSerializable(EXTRA_REGISTRATION_ERRORS, (Serializable) pushErrors);
+                    @NonNull final Map<String, UnrecoverablePushError> pushErrors) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        OPFLog.d("Execute onNoAvailableProvider()");
+                        eventListener.onNoAvailableProvider(context, pushErrors);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Sends the events as broadcasts to the {@link org.onepf.opfpush.receiver.OPFPushReceiver} of the app.
+     * <p/>
+     * Receivers are resolved once, when the sender is created. If there is the only receiver of an action,
+     * the broadcast is explicit. Otherwise the broadcast is limited to the app package.
+     * So the system doesn't match the broadcasts against receivers of other apps.
+     * If the {@link LocalReceiverBus} is set, broadcasts to the receivers of the current process
+     * don't go through the system server at all.
+     */
+    static final class BroadcastSender implements BatchEventListener {
+
+        @NonNull
+        private final String packageName;
+
+        @NonNull
+        private final Map<String, ComponentName> receivers;
+
+        @Nullable
+        private final LocalReceiverBus localReceiverBus;
+
+        BroadcastSender(@NonNull final Context context, final boolean isInProcessReceiverEnabled) {
+            this(context, resolveReceivers(context), isInProcessReceiverEnabled);
+        }
+
+        private BroadcastSender(@NonNull final Context context,
+                                @NonNull final Map<String, ActivityInfo> receiverInfos,
+                                final boolean isInProcessReceiverEnabled) {
+            this(
+                    context.getPackageName(),
+                    toComponentNames(receiverInfos),
+                    isInProcessReceiverEnabled ? LocalReceiverBus.create(context, receiverInfos) : null
+            );
+        }
+
+        BroadcastSender(@NonNull final String packageName,
+                        @NonNull final Map<String, ComponentName> receivers,
+                        @Nullable final LocalReceiverBus localReceiverBus) {
+            this.packageName = packageName;
+            this.receivers = receivers;
+            this.localReceiverBus = localReceiverBus;
+        }
+
+        @Override
+        public void onMessage(
+                @NonNull final Context context,
+                @NonNull final String providerName,
+                @Nullable final Bundle extras
+        ) {
+            OPFLog.d("SendBroadcast onMessage(%1$s, %2$s)", providerName, extras);
+
+            final Intent intent = createIntent(ACTION_RECEIVE);
+            if (extras != null) {
                 intent.putExtras(extras);
+            }
+            intent.putExtra(EXTRA_MESSAGE_TYPE, MESSAGE_TYPE_MESSAGE);
+            intent.putExtra(EXTRA_PROVIDER_NAME, providerName);
+
+            sendBroadcast(context, intent);
+        }
+
+        @Override
+        public void onMessages(
+                @NonNull final Context context,
+                @NonNull final String providerName,
+                @NonNull final List<Bundle> messages
+        ) {
+            for (Bundle extras : messages) {
+                onMessage(context, providerName, extras);
+            }
+        }
+
+        @Override
+        public void onDeletedMessages(
+                @NonNull final Context context,
+                @NonNull final String providerName,
+                final int messagesCount
+        ) {
+            OPFLog.d("SendBroadcast onDeletedMessages(%1$s, %2$s)", providerName, messagesCount);
+            final Intent intent = createIntent(ACTION_RECEIVE);
+            intent.putExtra(EXTRA_MESSAGE_TYPE, MESSAGE_TYPE_DELETED);
+            intent.putExtra(EXTRA_MESSAGE_COUNT, messagesCount);
+            intent.putExtra(EXTRA_PROVIDER_NAME, providerName);
+            sendBroadcast(context, intent);
+        }
+
+        @Override
+        public void onRegistered(
+                @NonNull final Context context,
+                @NonNull final String providerName,
+                @NonNull final String registrationId
+        ) {
+            OPFLog.d("SendBroadcast onRegistered(%1$s, %2$s)", providerName, registrationId);
+            final Intent intent = createIntent(ACTION_REGISTRATION);
+            intent.putExtra(EXTRA_PROVIDER_NAME, providerName);
+            intent.putExtra(EXTRA_REGISTRATION_ID, registrationId);
+            sendBroadcast(context, intent);
+        }
+
+        @Override
+        public void onUnregistered(
+                @NonNull final Context context,
+                @NonNull final String providerName,
+                @Nullable final String registrationId
+        ) {
+            OPFLog.d("SendBroadcast onUnregistered(%1$s, %2$s)", providerName, registrationId);
+            final Intent intent = createIntent(ACTION_UNREGISTRATION);
+            intent.putExtra(EXTRA_PROVIDER_NAME, providerName);
+            intent.putExtra(EXTRA_REGISTRATION_ID, registrationId);
+            sendBroadcast(context, intent);
+        }
+
+        @Override
+        public void onNoAvailableProvider(
+                @NonNull final Context context,
+                @NonNull final Map<String, UnrecoverablePushError> pushErrors
+        ) {
+            OPFLog.d("SendBroadcast onNoAvailableProvider()");
+            final Intent intent = createIntent(ACTION_NO_AVAILABLE_PROVIDER);
+            final Bundle extras = new Bundle();
+            //The copy isolates an in-process receiver from the following changes of the map.
+            extras.putSerializable(EXTRA_REGISTRATION_ERRORS, new HashMap<>(pushErrors));
+            intent.putExtras(extras);
+            sendBroadcast(context, intent);
+        }
+
+        private void sendBroadcast(@NonNull final Context context, @NonNull final Intent intent) {
+            if (localReceiverBus == null || !localReceiverBus.sendBroadcast(context, intent)) {
                 context.sendBroadcast(intent);
             }
-        };
+        }
+
+        @NonNull
+        private Intent createIntent(@NonNull final String action) {
+            final Intent intent = new Intent(action);
+            final ComponentName receiver = receivers.get(action);
+            if (receiver == null) {
+                intent.setPackage(packageName);
+            } else {
+                intent.setComponent(receiver);
+            }
+            return intent;
+        }
+
+        @NonNull
+        private static Map<String, ActivityInfo> resolveReceivers(@NonNull final Context context) {
+            final Map<String, ActivityInfo> receivers = new HashMap<>();
+            final String[] actions = {
+                    ACTION_RECEIVE, ACTION_REGISTRATION, ACTION_UNREGISTRATION, ACTION_NO_AVAILABLE_PROVIDER
+            };
+            for (String action : actions) {
+                final Intent intent = new Intent(action);
+                intent.setPackage(context.getPackageName());
+                final List<ResolveInfo> resolveInfos = context.getPackageManager()
+                        .queryBroadcastReceivers(intent, 0);
+                if (resolveInfos != null && resolveInfos.size() == 1) {
+                    receivers.put(action, resolveInfos.get(0).activityInfo);
+                }
+            }
+
+            OPFLog.d("Resolved receivers : " + receivers.keySet());
+            return receivers;
+        }
+
+        @NonNull
+        private static Map<String, ComponentName> toComponentNames(@NonNull final Map<String, ActivityInfo> receivers) {
+            final Map<String, ComponentName> componentNames = new HashMap<>();
+            for (Map.Entry<String, ActivityInfo> entry : receivers.entrySet()) {
+                final ActivityInfo receiverInfo = entry.getValue();
+                componentNames.put(entry.getKey(), new ComponentName(receiverInfo.packageName, receiverInfo.name));
+            }
+            return componentNames;
+        }
     }
 }
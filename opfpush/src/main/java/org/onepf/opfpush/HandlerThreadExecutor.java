@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import org.onepf.opfutils.OPFLog;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks one by one on the dedicated background {@link HandlerThread}.
+ * <p/>
+ * Used by the {@link OPFPushHelperImpl} if
+ * {@link org.onepf.opfpush.configuration.Configuration.Builder#setBackgroundThreadEnabled(boolean)} is set.
+ *
+ * @since 18.10.2026
+ */
+final class HandlerThreadExecutor implements Executor {
+
+    private static final String THREAD_NAME = "OPFPushHelperThread";
+
+    @NonNull
+    private final Handler handler;
+
+    HandlerThreadExecutor() {
+        final HandlerThread handlerThread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_BACKGROUND);
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+    }
+
+    @Override
+    public void execute(@NonNull final Runnable task) {
+        if (!handler.post(task)) {
+            OPFLog.w("Task wasn't posted because the helper thread is exiting.");
+        }
+    }
+}
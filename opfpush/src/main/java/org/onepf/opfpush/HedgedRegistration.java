@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The state of the registration of several providers that have been started concurrently.
+ * <p/>
+ * The registration commits to the highest-priority provider that has been registered,
+ * so a registered provider waits until all providers with higher priority have failed.
+ * The class isn't thread-safe. It's used only by the registration executor of the {@link OPFPushHelperImpl}.
+ *
+ * @since 18.10.2026
+ */
+final class HedgedRegistration {
+
+    /**
+     * The names of the providers in the order of priority.
+     */
+    @NonNull
+    private final List<String> providerNames;
+
+    @NonNull
+    private final Set<String> failedProviderNames = new HashSet<>();
+
+    @NonNull
+    private final Map<String, String> registrationIds = new HashMap<>();
+
+    HedgedRegistration(@NonNull final List<String> providerNames) {
+        this.providerNames = Collections.unmodifiableList(new ArrayList<>(providerNames));
+    }
+
+    @NonNull
+    List<String> getProviderNames() {
+        return providerNames;
+    }
+
+    @NonNull
+    String getLastProviderName() {
+        return providerNames.get(providerNames.size() - 1);
+    }
+
+    boolean contains(@NonNull final String providerName) {
+        return providerNames.contains(providerName);
+    }
+
+    void onRegistered(@NonNull final String providerName, @NonNull final String registrationId) {
+        registrationIds.put(providerName, registrationId);
+    }
+
+    void onFailed(@NonNull final String providerName) {
+        registrationIds.remove(providerName);
+        failedProviderNames.add(providerName);
+    }
+
+    boolean isRegistered(@NonNull final String providerName) {
+        return registrationIds.containsKey(providerName);
+    }
+
+    @NonNull
+    String getRegistrationId(@NonNull final String providerName) {
+        final String registrationId = registrationIds.get(providerName);
+        if (registrationId == null) {
+            throw new IllegalStateException("Provider " + providerName + " isn't registered.");
+        }
+        return registrationId;
+    }
+
+    /**
+     * Returns the name of the provider to commit to: the first registered provider
+     * if all providers with higher priority have failed.
+     *
+     * @return The name of the provider to commit to or {@code null} if the registration must wait
+     * for the providers with higher priority.
+     */
+    @Nullable
+    String getWinner() {
+        for (String providerName : providerNames) {
+            if (registrationIds.containsKey(providerName)) {
+                return providerName;
+            }
+            if (!failedProviderNames.contains(providerName)) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns {@code true} if all providers have failed, {@code false} otherwise.
+     */
+    boolean isFailed() {
+        return failedProviderNames.size() == providerNames.size();
+    }
+}
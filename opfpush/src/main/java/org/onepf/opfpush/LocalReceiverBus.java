@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.app.ActivityManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import org.onepf.opfpush.receiver.OPFPushReceiver;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delivers broadcasts to the {@link OPFPushReceiver} of the app without the system server
+ * if the receiver runs in the current process.
+ * <p/>
+ * As the system does, the bus creates a new receiver instance for every broadcast and calls
+ * {@link BroadcastReceiver#onReceive(Context, Intent)} in the main thread. A broadcast that is sent
+ * in the main thread is delivered immediately, a broadcast from another thread is posted to the main thread.
+ * The receiver doesn't get a {@link BroadcastReceiver.PendingResult}, so {@link BroadcastReceiver#goAsync()}
+ * can't be used by it.
+ * <p/>
+ * An exception thrown by the receiver is rethrown in a separate task of the main thread. So, as with
+ * the system broadcast, it crashes the app, but it isn't thrown to the sender of the broadcast.
+ *
+ * @since 18.10.2026
+ */
+final class LocalReceiverBus {
+
+    @NonNull
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @NonNull
+    private final Map<String, Class<? extends OPFPushReceiver>> receivers;
+
+    LocalReceiverBus(@NonNull final Map<String, Class<? extends OPFPushReceiver>> receivers) {
+        this.receivers = receivers;
+    }
+
+    /**
+     * Creates the bus for the receivers that run in the current process.
+     *
+     * @param context   The application context.
+     * @param receivers The resolved receivers of the app by actions.
+     * @return The new bus or null if none of the {@code receivers} can get broadcasts in the current process.
+     */
+    @Nullable
+    static LocalReceiverBus create(@NonNull final Context context,
+                                   @NonNull final Map<String, ActivityInfo> receivers) {
+        final String currentProcessName = getCurrentProcessName(context);
+        final Map<String, Class<? extends OPFPushReceiver>> localReceivers = new HashMap<>();
+        for (Map.Entry<String, ActivityInfo> entry : receivers.entrySet()) {
+            final ActivityInfo receiverInfo = entry.getValue();
+            if (!TextUtils.equals(currentProcessName, receiverInfo.processName)) {
+                OPFLog.d("Receiver %s runs in another process", receiverInfo.name);
+                continue;
+            }
+
+            final Class<? extends OPFPushReceiver> receiverClass = loadReceiverClass(context, receiverInfo.name);
+            if (receiverClass != null) {
+                localReceivers.put(entry.getKey(), receiverClass);
+            }
+        }
+
+        OPFLog.d("Local receivers : " + localReceivers);
+        return localReceivers.isEmpty() ? null : new LocalReceiverBus(localReceivers);
+    }
+
+    /**
+     * Delivers the {@code intent} to the receiver of the intent action in the main thread.
+     *
+     * @return {@code true} if the intent is delivered in the current process,
+     * {@code false} if there isn't local receiver of the action.
+     */
+    boolean sendBroadcast(@NonNull final Context context, @NonNull final Intent intent) {
+        final Class<? extends OPFPushReceiver> receiverClass = receivers.get(intent.getAction());
+        if (receiverClass == null) {
+            return false;
+        }
+
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            deliver(context, intent, receiverClass);
+        } else {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(context, intent, receiverClass);
+                }
+            });
+        }
+        return true;
+    }
+
+    @SuppressWarnings("PMD.AvoidCatchingGenericException")
+    private void deliver(@NonNull final Context context,
+                         @NonNull final Intent intent,
+                         @NonNull final Class<? extends OPFPushReceiver> receiverClass) {
+        final BroadcastReceiver receiver;
+        try {
+            receiver = receiverClass.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            OPFLog.w("Can't create receiver " + receiverClass + ". Send system broadcast.");
+            context.sendBroadcast(intent);
+            return;
+        }
+
+        try {
+            receiver.onReceive(context, intent);
+        } catch (final RuntimeException e) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    throw e;
+                }
+            });
+        }
+    }
+
+    @Nullable
+    private static Class<? extends OPFPushReceiver> loadReceiverClass(@NonNull final Context context,
+                                                                      @NonNull final String className) {
+        try {
+            final Class<?> receiverClass = Class.forName(className, false, context.getClassLoader());
+            if (OPFPushReceiver.class.isAssignableFrom(receiverClass)) {
+                return receiverClass.asSubclass(OPFPushReceiver.class);
+            }
+            OPFLog.d("Receiver %s isn't OPFPushReceiver", className);
+        } catch (ClassNotFoundException e) {
+            OPFLog.w("Receiver class " + className + " not found");
+        }
+        return null;
+    }
+
+    @Nullable
+    private static String getCurrentProcessName(@NonNull final Context context) {
+        final ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        final List<ActivityManager.RunningAppProcessInfo> processes = activityManager.getRunningAppProcesses();
+        if (processes != null) {
+            final int pid = Process.myPid();
+            for (ActivityManager.RunningAppProcessInfo process : processes) {
+                if (process.pid == pid) {
+                    return process.processName;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import org.onepf.opfutils.OPFUtils;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks in the main thread.
+ * <p/>
+ * A task that is submitted from the main thread is run immediately,
+ * a task that is submitted from another thread is posted to the main looper.
+ * It's the default executor for the {@link org.onepf.opfpush.listener.EventListener} callbacks.
+ *
+ * @since 18.10.2026
+ */
+final class MainThreadExecutor implements Executor {
+
+    @NonNull
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void execute(@NonNull final Runnable task) {
+        if (OPFUtils.isMainThread()) {
+            task.run();
+        } else {
+            handler.post(task);
+        }
+    }
+}
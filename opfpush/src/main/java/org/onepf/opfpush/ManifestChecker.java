@@ -0,0 +1,160 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfpush.listener.CheckManifestHandler;
+import org.onepf.opfpush.pushprovider.PushProvider;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Checks the manifest declarations of the push providers.
+ * <p/>
+ * In the deferred mode the check is performed on a background thread only once for every app version.
+ * The version code of the successfully checked app is stored, so the following cold starts of the same
+ * app version skip the package manager calls at all.
+ *
+ * @since 18.10.2026
+ */
+final class ManifestChecker {
+
+    private static final String PREFERENCES_POSTFIX = ".opfpush.manifest";
+    private static final String KEY_CHECKED_VERSION_CODE = "checked_version_code";
+    private static final int NO_VERSION_CODE = -1;
+
+    @NonNull
+    private final Context context;
+
+    @NonNull
+    private final List<PushProvider> providers;
+
+    @Nullable
+    private final CheckManifestHandler checkManifestHandler;
+
+    @NonNull
+    private final Executor backgroundExecutor;
+
+    ManifestChecker(@NonNull final Context context,
+                    @NonNull final List<PushProvider> providers,
+                    @Nullable final CheckManifestHandler checkManifestHandler,
+                    @NonNull final Executor backgroundExecutor) {
+        this.context = context;
+        this.providers = providers;
+        this.checkManifestHandler = checkManifestHandler;
+        this.backgroundExecutor = backgroundExecutor;
+    }
+
+    /**
+     * Checks the manifest of every provider on the calling thread.
+     *
+     * @throws IllegalStateException If the check manifest handler isn't set and some check fails.
+     * @throws SecurityException     If the check manifest handler isn't set and some permission isn't declared.
+     */
+    void check() {
+        for (PushProvider provider : providers) {
+            provider.checkManifest(checkManifestHandler);
+        }
+    }
+
+    /**
+     * Checks the manifest of every provider on the background thread if the current app version
+     * hasn't been checked yet.
+     * <p/>
+     * If the check manifest handler isn't set, the exception of the failed check is rethrown
+     * on the main thread, so a misconfigured app still fails fast.
+     */
+    void checkDeferred() {
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                checkIfVersionChanged();
+            }
+        });
+    }
+
+    private void checkIfVersionChanged() {
+        final int versionCode = getVersionCode();
+        final SharedPreferences preferences = context.getSharedPreferences(
+                context.getPackageName() + PREFERENCES_POSTFIX, Context.MODE_PRIVATE);
+        if (versionCode != NO_VERSION_CODE
+                && preferences.getInt(KEY_CHECKED_VERSION_CODE, NO_VERSION_CODE) == versionCode) {
+            OPFLog.d("Manifest of the version %d has already been checked", versionCode);
+            return;
+        }
+
+        final ReportingCheckManifestHandler reportingHandler = checkManifestHandler == null
+                ? null
+                : new ReportingCheckManifestHandler(checkManifestHandler);
+        try {
+            for (PushProvider provider : providers) {
+                provider.checkManifest(reportingHandler);
+            }
+        } catch (final RuntimeException e) {
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    throw e;
+                }
+            });
+            return;
+        }
+
+        if (versionCode != NO_VERSION_CODE && (reportingHandler == null || !reportingHandler.hasErrors)) {
+            preferences.edit().putInt(KEY_CHECKED_VERSION_CODE, versionCode).apply();
+        }
+    }
+
+    private int getVersionCode() {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            OPFLog.w("Can't get the version code : " + e.getMessage());
+            return NO_VERSION_CODE;
+        }
+    }
+
+    /**
+     * Remembers whether any error has been reported, so the failed check is repeated on the next start.
+     */
+    private static final class ReportingCheckManifestHandler implements CheckManifestHandler {
+
+        @NonNull
+        private final CheckManifestHandler checkManifestHandler;
+
+        private volatile boolean hasErrors;
+
+        ReportingCheckManifestHandler(@NonNull final CheckManifestHandler checkManifestHandler) {
+            this.checkManifestHandler = checkManifestHandler;
+        }
+
+        @Override
+        public void onCheckManifestError(@NonNull final String reportMessage) {
+            hasErrors = true;
+            checkManifestHandler.onCheckManifestError(reportMessage);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfutils.OPFLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects received messages into batches and passes them to the {@link Callback} via the {@link Executor}.
+ * <p/>
+ * A batch is passed when it contains the maximum count of messages or when the batch window
+ * since the first message of the batch is expired. The batch window is measured by the {@link Handler}.
+ * A batch contains messages of one provider only, so a message of another provider closes the current batch.
+ * <p/>
+ * Closed batches are queued under the lock, but the {@code Callback} is never called under it.
+ * Only one task of the {@code Executor} delivers the queued batches at a time,
+ * so batches keep their order even with a multi-threaded {@code Executor}.
+ *
+ * @since 18.10.2026
+ */
+final class MessageBatcher {
+
+    @NonNull
+    private final Handler handler;
+
+    @NonNull
+    private final Executor executor;
+
+    @NonNull
+    private final Callback callback;
+
+    private final int maxCount;
+
+    private final long windowMillis;
+
+    @NonNull
+    private final Object lock = new Object();
+
+    @Nullable
+    private String pendingProviderName;
+
+    @NonNull
+    private List<Bundle> pendingMessages;
+
+    @Nullable
+    private Runnable windowRunnable;
+
+    @NonNull
+    private final Queue<Batch> readyBatches = new ConcurrentLinkedQueue<>();
+
+    @NonNull
+    private final AtomicBoolean isDelivering = new AtomicBoolean();
+
+    @NonNull
+    private final Runnable deliverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            deliverReadyBatches();
+        }
+    };
+
+    MessageBatcher(@NonNull final Handler handler,
+                   @NonNull final Executor executor,
+                   @NonNull final Callback callback,
+                   final int maxCount,
+                   final long windowMillis) {
+        this.handler = handler;
+        this.executor = executor;
+        this.callback = callback;
+        this.maxCount = maxCount;
+        this.windowMillis = windowMillis;
+        this.pendingMessages = new ArrayList<>(maxCount);
+    }
+
+    void add(@NonNull final String providerName, @Nullable final Bundle extras) {
+        synchronized (lock) {
+            if (!pendingMessages.isEmpty() && !providerName.equals(pendingProviderName)) {
+                OPFLog.d("Close batch of provider " + pendingProviderName);
+                queuePendingMessages();
+            }
+
+            pendingProviderName = providerName;
+            pendingMessages.add(extras);
+            if (pendingMessages.size() >= maxCount) {
+                queuePendingMessages();
+            } else if (pendingMessages.size() == 1) {
+                windowRunnable = new WindowRunnable(pendingMessages);
+                handler.postDelayed(windowRunnable, windowMillis);
+            }
+        }
+        scheduleDelivery();
+    }
+
+    /**
+     * Must be called under the {@link #lock}.
+     */
+    private void queuePendingMessages() {
+        if (windowRunnable != null) {
+            handler.removeCallbacks(windowRunnable);
+            windowRunnable = null;
+        }
+
+        final String providerName = pendingProviderName;
+        final List<Bundle> messages = pendingMessages;
+        pendingMessages = new ArrayList<>(maxCount);
+        if (providerName == null || messages.isEmpty()) {
+            return;
+        }
+
+        readyBatches.offer(new Batch(providerName, messages));
+    }
+
+    /**
+     * Must be called outside the {@link #lock}, because a direct {@link Executor} runs the callback immediately.
+     */
+    private void scheduleDelivery() {
+        if (!readyBatches.isEmpty() && isDelivering.compareAndSet(false, true)) {
+            executor.execute(deliverRunnable);
+        }
+    }
+
+    private void deliverReadyBatches() {
+        try {
+            Batch batch;
+            while ((batch = readyBatches.poll()) != null) {
+                callback.onMessages(batch.providerName, batch.messages);
+            }
+        } finally {
+            isDelivering.set(false);
+            //A batch can be queued after the last poll, but before the flag is reset.
+            scheduleDelivery();
+        }
+    }
+
+    private static final class Batch {
+
+        @NonNull
+        private final String providerName;
+
+        @NonNull
+        private final List<Bundle> messages;
+
+        Batch(@NonNull final String providerName, @NonNull final List<Bundle> messages) {
+            this.providerName = providerName;
+            this.messages = messages;
+        }
+    }
+
+    /**
+     * Passes the batch if it is still pending when the batch window is expired.
+     * A batch that has already been posted is ignored, so batches are never reordered.
+     */
+    private final class WindowRunnable implements Runnable {
+
+        @NonNull
+        private final List<Bundle> batch;
+
+        WindowRunnable(@NonNull final List<Bundle> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            synchronized (lock) {
+                if (pendingMessages != batch) {
+                    return;
+                }
+
+                queuePendingMessages();
+            }
+            scheduleDelivery();
+        }
+    }
+
+    interface Callback {
+
+        /**
+         * Called via the {@link Executor} with a non-empty batch of messages.
+         *
+         * @param providerName The name of the provider which has received the messages.
+         * @param messages     The messages extras in the order in which they were received.
+         */
+        void onMessages(@NonNull String providerName, @NonNull List<Bundle> messages);
+    }
+}
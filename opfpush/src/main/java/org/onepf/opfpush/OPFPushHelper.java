@@ -143,6 +143,14 @@ public abstract class OPFPushHelper {
 
     abstract void registerNextAvailableProvider(@Nullable final String prevProviderName);
 
+    abstract void onRegisteringTimeout(@NonNull final String providerName);
+
+    /**
+     * Is invoked if a host application of a provider or Google Play services has been added, changed,
+     * removed or replaced, so the availability of the providers must be checked again.
+     */
+    abstract void onPackagesChanged();
+
     @Nullable
     abstract String getProviderNameByHostApp(@Nullable final String appPackage);
 
@@ -18,6 +18,7 @@ package org.onepf.opfpush;
 
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -25,9 +26,13 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
+import org.onepf.opfpush.backoff.BackoffFactory;
+import org.onepf.opfpush.backoff.BackoffManager;
+import org.onepf.opfpush.backoff.FactoryBackoffManager;
 import org.onepf.opfpush.backoff.InfinityExponentialBackoffManager;
 import org.onepf.opfpush.backoff.RetryManager;
 import org.onepf.opfpush.configuration.Configuration;
+import org.onepf.opfpush.listener.BatchEventListener;
 import org.onepf.opfpush.listener.EventListener;
 import org.onepf.opfpush.model.AvailabilityResult;
 import org.onepf.opfpush.model.Message;
@@ -45,9 +50,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -63,6 +71,7 @@ import static org.onepf.opfpush.model.State.REGISTERED;
 import static org.onepf.opfpush.model.State.REGISTERING;
 import static org.onepf.opfpush.model.State.UNREGISTERED;
 import static org.onepf.opfpush.model.UnrecoverablePushError.Type.AVAILABILITY_ERROR;
+import static org.onepf.opfpush.model.UnrecoverablePushError.Type.PROVIDER_SPECIFIC_ERROR;
 
 /**
  * The helper class to manage push providers.
@@ -81,15 +90,38 @@ import static org.onepf.opfpush.model.UnrecoverablePushError.Type.AVAILABILITY_E
 @SuppressWarnings({"PMD.GodClass", "PMD.TooManyMethods"})
 final class OPFPushHelperImpl extends OPFPushHelper {
 
+    private static final String PACKAGE_SCHEME = "package";
+
+    @SuppressWarnings("NullableProblems")
+    @NonNull
+    private BatchEventListener eventListenerWrapper;
+
+    /**
+     * Calls the event listener in the calling thread. Used for messages that are already
+     * in the callback executor thread.
+     */
     @SuppressWarnings("NullableProblems")
     @NonNull
-    private EventListener eventListenerWrapper;
+    private BatchEventListener directEventListener;
+
+    /**
+     * The executor of the event listener callbacks. The main thread by default.
+     */
+    @SuppressWarnings("NullableProblems")
+    @NonNull
+    private Executor callbackExecutor;
+
+    /**
+     * Not null if the message batching is enabled.
+     */
+    @Nullable
+    private MessageBatcher messageBatcher;
 
     @NonNull
     private final Context appContext;
 
     @Nullable
-    private PushProvider currentProvider;
+    private volatile PushProvider currentProvider;
 
     @SuppressWarnings("NullableProblems")
     @NonNull
@@ -104,7 +136,7 @@ final class OPFPushHelperImpl extends OPFPushHelper {
     private volatile Configuration configuration;
 
     @NonNull
-    private final ReceivedMessageHandler receivedMessageHandler = new ReceivedMessageHandlerImpl();
+    private final ReceivedMessageHandlerImpl receivedMessageHandler = new ReceivedMessageHandlerImpl();
 
     @NonNull
     private final Settings settings;
@@ -113,8 +145,43 @@ final class OPFPushHelperImpl extends OPFPushHelper {
     @NonNull
     private RetryManager retryManager;
 
+    @SuppressWarnings("NullableProblems")
+    @NonNull
+    private RegisteringTimeoutController registeringTimeoutController;
+
+    /**
+     * Serializes registration operations and provider callbacks instead of a lock.
+     * Replaced by the {@link HandlerThreadExecutor} during the initialization if the background thread is enabled.
+     */
+    @NonNull
+    private volatile Executor registrationExecutor = new SerialExecutor();
+
     @NonNull
-    private final Object registrationLock = new Object();
+    private final RegistrationStateMachine stateMachine;
+
+    /**
+     * The registration of several providers that have been started concurrently.
+     * Accessed only by the {@link #registrationExecutor}.
+     */
+    @Nullable
+    private HedgedRegistration hedgedRegistration;
+
+    /**
+     * The names of the providers that have lost the hedged registration before they were registered.
+     * They are unregistered as soon as they are registered. Accessed only by the {@link #registrationExecutor}.
+     */
+    @NonNull
+    private final Set<String> hedgeLoserNames = new HashSet<>();
+
+    @NonNull
+    private final AvailabilityCache availabilityCache = new AvailabilityCache();
+
+    /**
+     * Runs the deferred manifest check and the revalidation of the optimistically restored provider.
+     * Isn't final, so the tests can replace it before the initialization.
+     */
+    @NonNull
+    private Executor backgroundExecutor = BackgroundTaskExecutor.getInstance();
 
     @NonNull
     private final Object initLock = new Object();
@@ -123,6 +190,7 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         super();
         appContext = context.getApplicationContext();
         settings = Settings.getInstance(context);
+        stateMachine = new RegistrationStateMachine(settings);
     }
 
     /**
@@ -143,18 +211,12 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         OPFLog.logMethod();
 
         checkInit(true);
-        synchronized (registrationLock) {
-            final State state = settings.getState();
-            OPFLog.d("Register state : " + state.toString());
-            switch (state) {
-                case REGISTERED:
-                case REGISTERING:
-                    break;
-                case UNREGISTERED:
-                    registerFirstAvailableProvider();
-                    break;
+        registrationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                registerIfUnregistered();
             }
-        }
+        });
     }
 
     /**
@@ -174,26 +236,30 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         OPFLog.logMethod();
 
         checkInit(true);
-        synchronized (registrationLock) {
-            final State state = settings.getState();
-            OPFLog.d("Registration state = " + state.toString());
-            if (currentProvider == null) {
-                OPFLog.w("Current provider null");
-                return;
-            }
-            final String providerName = currentProvider.getName();
-            final boolean isCurrentProviderRegistered = currentProvider.isRegistered();
+        registrationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final State state = stateMachine.getState();
+                OPFLog.d("Registration state = " + state.toString());
+                final PushProvider provider = currentProvider;
+                if (provider == null) {
+                    OPFLog.w("Current provider null");
+                    return;
+                }
+                final String providerName = provider.getName();
+                final boolean isCurrentProviderRegistered = provider.isRegistered();
 
-            if (state == REGISTERING || state == REGISTERED || isCurrentProviderRegistered) {
-                retryManager.cancelRetryUnregister(providerName);
+                if (state == REGISTERING || state == REGISTERED || isCurrentProviderRegistered) {
+                    retryManager.cancelRetryUnregister(providerName);
 
-                final String oldRegistrationId = currentProvider.getRegistrationId();
-                unregister(currentProvider.getName());
-                fakeOnUnregistered(providerName, oldRegistrationId);
-            } else {
-                OPFLog.w("Unregistration wasn't performed because already unregistered.");
+                    final String oldRegistrationId = provider.getRegistrationId();
+                    unregister(provider);
+                    fakeOnUnregistered(providerName, oldRegistrationId);
+                } else {
+                    OPFLog.w("Unregistration wasn't performed because already unregistered.");
+                }
             }
-        }
+        });
     }
 
     @SuppressWarnings({"UnusedDeclaration", "PMD.UnusedPrivateMethod"})
@@ -267,7 +333,7 @@ final class OPFPushHelperImpl extends OPFPushHelper {
      */
     @Override
     public boolean isRegistered() {
-        return settings.getState() == REGISTERED;
+        return stateMachine.getState() == REGISTERED;
     }
 
     /**
@@ -277,19 +343,26 @@ final class OPFPushHelperImpl extends OPFPushHelper {
      */
     @Override
     public boolean isRegistering() {
-        return settings.getState() == REGISTERING;
+        return stateMachine.getState() == REGISTERING;
     }
 
     @Override
     public void onNeedRetryRegistration() {
         OPFLog.logMethod();
-        OPFLog.d("Current provider : " + currentProvider);
-        settings.clear();
-        if (currentProvider != null) {
-            currentProvider.onRegistrationInvalid();
-            currentProvider = null;
-        }
-        register();
+        checkInit(true);
+        registrationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final PushProvider provider = currentProvider;
+                OPFLog.d("Current provider : " + provider);
+                stateMachine.clear();
+                if (provider != null) {
+                    provider.onRegistrationInvalid();
+                    currentProvider = null;
+                }
+                registerIfUnregistered();
+            }
+        });
     }
 
     @NonNull
@@ -321,12 +394,31 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         }
 
         final List<PushProvider> providers = configuration.getProviders();
+        final ManifestChecker manifestChecker =
+                new ManifestChecker(appContext, providers, configuration.getCheckManifestHandler(), backgroundExecutor);
+        if (configuration.isDeferredManifestCheckEnabled()) {
+            manifestChecker.checkDeferred();
+        } else {
+            manifestChecker.check();
+        }
+
+        final List<String> providerNames = new ArrayList<>(providers.size());
         for (PushProvider provider : providers) {
-            provider.checkManifest(configuration.getCheckManifestHandler());
             providersByHostApps.put(provider.getHostAppPackage(), provider.getName());
+            providerNames.add(provider.getName());
+        }
+        registerPackageChangeReceiver();
+
+        final BackoffFactory backoffFactory = configuration.getBackoffFactory();
+        final BackoffManager backoffManager = backoffFactory == null
+                ? InfinityExponentialBackoffManager.getInstance()
+                : new FactoryBackoffManager(backoffFactory);
+        retryManager = RetryManager.init(
+                appContext, backoffManager, providerNames, configuration.getFirstRetryJobId());
+        registeringTimeoutController = new RegisteringTimeoutController(appContext, configuration);
+        if (configuration.isBackgroundThreadEnabled()) {
+            registrationExecutor = new HandlerThreadExecutor();
         }
-
-        retryManager = RetryManager.init(appContext, InfinityExponentialBackoffManager.getInstance());
 
         final EventListener eventListener = configuration.getEventListener();
         final boolean isOPFReceiverRegistered = isOPFReceiverRegistered();
@@ -340,9 +432,36 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         }
 
         initSortedProviderList();
+        final Executor configuredCallbackExecutor = configuration.getCallbackExecutor();
+        this.callbackExecutor = configuredCallbackExecutor == null
+                ? new MainThreadExecutor()
+                : configuredCallbackExecutor;
+        this.directEventListener = EventListenerWrapperCreator.getDirectEventListener(
+                appContext,
+                eventListener,
+                configuration.isInProcessReceiverEnabled()
+        );
         this.eventListenerWrapper = EventListenerWrapperCreator
-                .getEventListenerWrapper(eventListener);
-        restoreLastProvider();
+                .getEventListenerWrapper(directEventListener, callbackExecutor);
+        if (configuration.isMessageBatchingEnabled()) {
+            messageBatcher = new MessageBatcher(
+                    new Handler(Looper.getMainLooper()),
+                    callbackExecutor,
+                    receivedMessageHandler,
+                    configuration.getMessageBatchMaxCount(),
+                    configuration.getMessageBatchWindowMillis()
+            );
+        }
+        registrationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (configuration.isOptimisticRestoreEnabled()) {
+                    restoreLastProviderOptimistically();
+                } else {
+                    restoreLastProvider();
+                }
+            }
+        });
         OPFLog.i("Init done.");
     }
 
@@ -358,67 +477,80 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         OPFLog.logMethod();
 
         checkInit(true);
-        settings.clear();
-        register();
+        registrationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                stateMachine.clear();
+                registerIfUnregistered();
+            }
+        });
     }
 
     @Override
     void register(@NonNull final String providerName) {
-        synchronized (registrationLock) {
-            register(getProviderWithException(providerName));
-        }
+        final PushProvider provider = getProviderWithException(providerName);
+        registrationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                register(provider);
+            }
+        });
     }
 
     @Override
     void unregister(@NonNull final String providerName) {
-        synchronized (registrationLock) {
-            unregister(getProviderWithException(providerName));
-        }
+        final PushProvider provider = getProviderWithException(providerName);
+        registrationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                unregister(provider);
+            }
+        });
     }
 
-    @SuppressWarnings("PMD.OneDeclarationPerLine")
     @Override
     void registerNextAvailableProvider(@Nullable final String prevProviderName) {
-        synchronized (registrationLock) {
-            OPFLog.logMethod(prevProviderName);
-
-            final int providersCount = sortedProvidersList.size();
-            final int prevProviderPosition = getProviderPosition(sortedProvidersList, prevProviderName);
-
-            for (int i = (prevProviderPosition + 1) % providersCount, j = 0;
-                 j < providersCount;
-                 i = (i + 1) % providersCount, j++) {
+        registrationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                doRegisterNextAvailableProvider(prevProviderName);
+            }
+        });
+    }
 
-                final PushProvider provider = sortedProvidersList.get(i);
-                final String providerName = provider.getName();
-                OPFLog.d("Provider name : " + providerName);
-
-                final AvailabilityResult providerAvailability = provider.getAvailabilityResult();
-                if (!providerAvailability.isAvailable()) {
-                    final Integer availabilityErrorCode = providerAvailability.getErrorCode();
-                    OPFLog.d("Provider isn't available. Error code : " + availabilityErrorCode);
-                    if (availabilityErrorCode != null) {
-                        registerProviderErrors.put(
-                                providerName,
-                                new UnrecoverablePushError(
-                                        AVAILABILITY_ERROR,
-                                        providerName,
-                                        availabilityErrorCode
-                                )
-                        );
-                    }
-                } else if (!registerProviderErrors.containsKey(providerName)) {
-                    OPFLog.d("Provider is available.");
-                    retryManager.cancelRetryRegister(providerName);
-                    register(provider);
-                    return;
+    @Override
+    void onRegisteringTimeout(@NonNull final String providerName) {
+        registrationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                OPFLog.logMethod(providerName);
+                registeringTimeoutController.onTimeout(providerName);
+                final HedgedRegistration registration = hedgedRegistration;
+                if (registration != null && registration.contains(providerName)) {
+                    onHedgedRegistrationFailed(registration, providerName);
+                } else if (stateMachine.getState() == REGISTERING) {
+                    stateMachine.moveTo(UNREGISTERED);
+                    doRegisterNextAvailableProvider(providerName);
                 }
             }
+        });
+    }
 
-            settings.saveState(UNREGISTERED);
-            OPFLog.w("No more available providers.");
-            eventListenerWrapper.onNoAvailableProvider(appContext, registerProviderErrors);
-        }
+    @Override
+    void onPackagesChanged() {
+        availabilityCache.invalidateAll();
+    }
+
+    /**
+     * Subscribes to the installing and enabling of packages only while the process is alive,
+     * so these frequent broadcasts don't start the application from the manifest.
+     */
+    private void registerPackageChangeReceiver() {
+        final IntentFilter packageChangeFilter = new IntentFilter();
+        packageChangeFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageChangeFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageChangeFilter.addDataScheme(PACKAGE_SCHEME);
+        appContext.registerReceiver(new PackageChangeReceiver(), packageChangeFilter);
     }
 
     @Nullable
@@ -428,9 +560,170 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         return providersByHostApps.get(appPackage);
     }
 
+    private void registerIfUnregistered() {
+        final State state = stateMachine.getState();
+        OPFLog.d("Register state : " + state.toString());
+        switch (state) {
+            case REGISTERED:
+            case REGISTERING:
+                break;
+            case UNREGISTERED:
+                registerFirstAvailableProvider();
+                break;
+        }
+    }
+
+    @SuppressWarnings("PMD.OneDeclarationPerLine")
+    private void doRegisterNextAvailableProvider(@Nullable final String prevProviderName) {
+        OPFLog.logMethod(prevProviderName);
+
+        final int providersCount = sortedProvidersList.size();
+        final int prevProviderPosition = getProviderPosition(sortedProvidersList, prevProviderName);
+        //The hedged registration is started only from the first provider.
+        final int hedgedCount = prevProviderName == null ? configuration.getHedgedRegistrationCount() : 1;
+        final List<PushProvider> registeringProviders = new ArrayList<>(hedgedCount);
+
+        for (int i = (prevProviderPosition + 1) % providersCount, j = 0;
+             j < providersCount;
+             i = (i + 1) % providersCount, j++) {
+
+            final PushProvider provider = sortedProvidersList.get(i);
+            final String providerName = provider.getName();
+            OPFLog.d("Provider name : " + providerName);
+
+            final AvailabilityResult providerAvailability = availabilityCache.getAvailabilityResult(provider);
+            if (!providerAvailability.isAvailable()) {
+                final Integer availabilityErrorCode = providerAvailability.getErrorCode();
+                OPFLog.d("Provider isn't available. Error code : " + availabilityErrorCode);
+                if (availabilityErrorCode != null) {
+                    registerProviderErrors.put(
+                            providerName,
+                            new UnrecoverablePushError(
+                                    AVAILABILITY_ERROR,
+                                    providerName,
+                                    availabilityErrorCode
+                            )
+                    );
+                }
+            } else if (!registerProviderErrors.containsKey(providerName)) {
+                OPFLog.d("Provider is available.");
+                if (registeringProviders.isEmpty() || canBeHedged(provider)) {
+                    registeringProviders.add(provider);
+                }
+                if (registeringProviders.size() == hedgedCount) {
+                    break;
+                }
+            }
+        }
+
+        if (registeringProviders.size() > 1 && canBeHedged(registeringProviders.get(0))) {
+            startHedgedRegistration(registeringProviders);
+            return;
+        } else if (!registeringProviders.isEmpty()) {
+            final PushProvider provider = registeringProviders.get(0);
+            retryManager.cancelScheduledRetryRegister(provider.getName());
+            register(provider);
+            return;
+        }
+
+        stateMachine.moveTo(UNREGISTERED);
+        OPFLog.w("No more available providers.");
+        eventListenerWrapper.onNoAvailableProvider(appContext, registerProviderErrors);
+    }
+
+    /**
+     * Returns {@code true} if the registration of the provider can be started together with other providers,
+     * {@code false} if the provider is in the middle of other operation.
+     */
+    private boolean canBeHedged(@NonNull final PushProvider provider) {
+        return !provider.isRegistered()
+                && !settings.isProviderUnregistrationPerforming(provider.getName());
+    }
+
+    private void startHedgedRegistration(@NonNull final List<PushProvider> providers) {
+        OPFLog.logMethod(providers);
+
+        final List<String> providerNames = new ArrayList<>(providers.size());
+        final Settings.Transaction transaction = settings.edit().removePendingRegistrationProvider();
+        for (PushProvider provider : providers) {
+            providerNames.add(provider.getName());
+            transaction.saveRegisteringProvider(provider.getName());
+        }
+
+        if (!stateMachine.moveTo(REGISTERING, transaction)) {
+            OPFLog.w("Hedged registration of providers %s can't be started in state %s",
+                    providerNames, stateMachine.getState());
+            return;
+        }
+
+        hedgedRegistration = new HedgedRegistration(providerNames);
+        for (PushProvider provider : providers) {
+            final String providerName = provider.getName();
+            hedgeLoserNames.remove(providerName);
+            retryManager.cancelScheduledRetryRegister(providerName);
+            registeringTimeoutController.setTimeout(providerName);
+            provider.register();
+        }
+    }
+
+    private void onHedgedRegistrationFailed(@NonNull final HedgedRegistration registration,
+                                            @NonNull final String providerName) {
+        OPFLog.logMethod(providerName);
+        registration.onFailed(providerName);
+        registeringTimeoutController.cancelTimeout(providerName);
+        retryManager.cancelScheduledRetryRegister(providerName);
+        settings.removeRegisteringProvider(providerName);
+        checkHedgedRegistration();
+    }
+
+    /**
+     * Commits to the winner of the hedged registration if it's known,
+     * or registers the rest of the providers one by one if all hedged providers have failed.
+     */
+    private void checkHedgedRegistration() {
+        final HedgedRegistration registration = hedgedRegistration;
+        if (registration == null) {
+            return;
+        }
+
+        final String winnerName = registration.getWinner();
+        if (winnerName != null) {
+            OPFLog.i("Hedged registration commits to provider '%s'.", winnerName);
+            hedgedRegistration = null;
+            for (String providerName : registration.getProviderNames()) {
+                if (!providerName.equals(winnerName)) {
+                    cancelHedgeLoser(registration, providerName);
+                }
+            }
+
+            receivedMessageHandler.handleRegistered(
+                    getProviderWithException(winnerName),
+                    registration.getRegistrationId(winnerName)
+            );
+        } else if (registration.isFailed()) {
+            OPFLog.i("All providers of the hedged registration have failed.");
+            hedgedRegistration = null;
+            stateMachine.moveTo(UNREGISTERED);
+            doRegisterNextAvailableProvider(registration.getLastProviderName());
+        }
+    }
+
+    private void cancelHedgeLoser(@NonNull final HedgedRegistration registration,
+                                  @NonNull final String providerName) {
+        cancelAllOperationsForProvider(providerName);
+        settings.removeRegisteringProvider(providerName);
+        if (registration.isRegistered(providerName)) {
+            OPFLog.d("Unregister hedged provider '%s'", providerName);
+            unregister(getProviderWithException(providerName));
+        } else {
+            hedgeLoserNames.add(providerName);
+        }
+    }
+
     private void cancelAllOperationsForProvider(@NonNull final String providerName) {
         OPFLog.logMethod(providerName);
         retryManager.cancelRetryAllOperations(providerName);
+        registeringTimeoutController.cancelTimeout(providerName);
     }
 
     private void checkInit(final boolean needInit) {
@@ -440,13 +733,15 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         }
     }
 
-    private void onProviderUnavailable(@NonNull final PushProvider provider) {
+    private void onProviderUnavailable(@NonNull final PushProvider provider,
+                                       @NonNull final Settings.Transaction transaction) {
         OPFLog.logMethod(provider);
         final String providerName = provider.getName();
 
         cancelAllOperationsForProvider(providerName);
-        settings.removeRegisteringProvider(providerName);
-        settings.removeUnregisteringProvider(providerName);
+        transaction.removeRegisteringProvider(providerName)
+                .removeUnregisteringProvider(providerName)
+                .apply();
         provider.onUnavailable();
     }
 
@@ -461,16 +756,65 @@ final class OPFPushHelperImpl extends OPFPushHelper {
 
         OPFLog.d("Try restore last provider '%s'.", lastProvider);
 
-        if (lastProvider.getAvailabilityResult().isAvailable() && lastProvider.isRegistered()) {
+        if (availabilityCache.getAvailabilityResult(lastProvider).isAvailable() && lastProvider.isRegistered()) {
             OPFLog.i("Last provider is available and registered");
             currentProvider = lastProvider;
-            settings.saveState(REGISTERED);
+            stateMachine.moveTo(REGISTERED);
         } else {
             OPFLog.i("Last provider is unavailable or unregistered");
-            settings.clear();
+            stateMachine.clear();
             currentProvider = null;
-            onProviderUnavailable(lastProvider);
+            onProviderUnavailable(lastProvider, settings.edit());
+        }
+    }
+
+    /**
+     * Trusts the stored registered provider without the availability check and checks it
+     * on the background thread. The next available provider is registered if the check fails.
+     */
+    private void restoreLastProviderOptimistically() {
+        OPFLog.logMethod();
+
+        final PushProvider lastProvider = getLastProvider();
+        if (lastProvider == null || stateMachine.getState() != REGISTERED) {
+            restoreLastProvider();
+            return;
         }
+
+        OPFLog.i("Last provider '%s' is restored optimistically", lastProvider);
+        currentProvider = lastProvider;
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean isAvailable = availabilityCache.getAvailabilityResult(lastProvider).isAvailable();
+                if (isAvailable && lastProvider.isRegistered()) {
+                    OPFLog.d("Last provider '%s' is still available and registered", lastProvider);
+                    return;
+                }
+
+                registrationExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRestoredProviderInvalid(lastProvider, isAvailable);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onRestoredProviderInvalid(@NonNull final PushProvider lastProvider, final boolean isAvailable) {
+        OPFLog.logMethod(lastProvider, isAvailable);
+        if (currentProvider != lastProvider || stateMachine.getState() != REGISTERED) {
+            OPFLog.d("Provider has already been changed");
+            return;
+        }
+
+        OPFLog.i("Last provider is unavailable or unregistered");
+        stateMachine.clear();
+        currentProvider = null;
+        onProviderUnavailable(lastProvider, settings.edit());
+        //The unregistered provider can be registered again, the unavailable one is skipped.
+        doRegisterNextAvailableProvider(isAvailable ? null : lastProvider.getName());
     }
 
     /**
@@ -478,7 +822,7 @@ final class OPFPushHelperImpl extends OPFPushHelper {
      */
     private void registerFirstAvailableProvider() {
         OPFLog.logMethod();
-        registerNextAvailableProvider(null);
+        doRegisterNextAvailableProvider(null);
     }
 
     private int getProviderPosition(@NonNull final List<PushProvider> providers,
@@ -507,12 +851,13 @@ final class OPFPushHelperImpl extends OPFPushHelper {
 
         final String regId = provider.getRegistrationId();
         final String providerName = provider.getName();
+        hedgeLoserNames.remove(providerName);
         if (settings.isProviderUnregistrationPerforming(providerName)) {
             OPFLog.i("Unregistration is being performed for provider %s", provider);
 
             //reset retrying backoff
             retryManager.cancelRetryUnregister(providerName);
-            unregister(providerName);
+            unregister(provider);
 
             settings.savePendingRegistrationProvider(providerName);
         } else if (provider.isRegistered() && !TextUtils.isEmpty(regId) && !isRegistering()) {
@@ -520,19 +865,26 @@ final class OPFPushHelperImpl extends OPFPushHelper {
 
             settings.removePendingRegistrationProvider();
             receivedMessageHandler.onRegistered(provider.getName(), regId);
-        } else if (provider.getAvailabilityResult().isAvailable()) {
+        } else if (availabilityCache.getAvailabilityResult(provider).isAvailable()) {
             OPFLog.i("Provider %s is available", provider);
 
-            settings.saveState(REGISTERING);
-            settings.removePendingRegistrationProvider();
-            settings.saveRegisteringProvider(providerName);
-            RegisteringTimeoutController.setTimeout(appContext, providerName);
-            provider.register();
+            final boolean isRegisteringStarted = stateMachine.moveTo(
+                    REGISTERING,
+                    settings.edit()
+                            .removePendingRegistrationProvider()
+                            .saveRegisteringProvider(providerName)
+            );
+            if (isRegisteringStarted) {
+                registeringTimeoutController.setTimeout(providerName);
+                provider.register();
+            } else {
+                OPFLog.w("Registration of provider %s can't be started in state %s",
+                        provider, stateMachine.getState());
+            }
         } else {
             OPFLog.i("Provider %s is no available", provider);
 
-            settings.removePendingRegistrationProvider();
-            onProviderUnavailable(provider);
+            onProviderUnavailable(provider, settings.edit().removePendingRegistrationProvider());
             register();
         }
     }
@@ -546,7 +898,7 @@ final class OPFPushHelperImpl extends OPFPushHelper {
 
             //reset retrying backoff
             retryManager.cancelRetryRegister(providerName);
-            register(providerName);
+            register(provider);
 
             settings.savePendingUnregistrationProvider(providerName);
         } else if (!provider.isRegistered()) {
@@ -554,20 +906,21 @@ final class OPFPushHelperImpl extends OPFPushHelper {
 
             settings.removePendingUnregistrationProvider();
             receivedMessageHandler.onUnregistered(providerName, provider.getRegistrationId());
-        } else if (provider.getAvailabilityResult().isAvailable()) {
+        } else if (availabilityCache.getAvailabilityResult(provider).isAvailable()) {
             OPFLog.i("Provider %s is available", provider);
 
-            settings.removePendingUnregistrationProvider();
-            settings.saveUnregisteringProvider(providerName);
+            settings.edit()
+                    .removePendingUnregistrationProvider()
+                    .saveUnregisteringProvider(providerName)
+                    .apply();
             provider.unregister();
         } else {
             OPFLog.i("Provider %s is no available", provider);
 
             final String pendingRegistrationProvider = settings.getPendingRegistrationProvider();
-            settings.removePendingUnregistrationProvider();
-            onProviderUnavailable(provider);
+            onProviderUnavailable(provider, settings.edit().removePendingUnregistrationProvider());
             if (providerName.equals(pendingRegistrationProvider)) {
-                registerNextAvailableProvider(providerName);
+                doRegisterNextAvailableProvider(providerName);
             }
         }
     }
@@ -657,8 +1010,7 @@ final class OPFPushHelperImpl extends OPFPushHelper {
                                     @Nullable final String registrationId) {
         OPFLog.logMethod(providerName, registrationId);
         currentProvider = null;
-        settings.saveState(UNREGISTERED);
-        settings.saveLastProvider(null);
+        stateMachine.moveTo(UNREGISTERED, settings.edit().saveLastProvider(null));
         registerProviderErrors.clear();
         eventListenerWrapper.onUnregistered(appContext, providerName, registrationId);
     }
@@ -684,11 +1036,11 @@ final class OPFPushHelperImpl extends OPFPushHelper {
 
     /**
      * Handles messages that were received by a push provider receiver.
+     * <p/>
+     * Registration callbacks are executed by the {@link #registrationExecutor}.
      */
     @SuppressWarnings("UnusedDeclaration")
-    private final class ReceivedMessageHandlerImpl implements ReceivedMessageHandler {
-
-        private final Handler handler = new Handler(Looper.getMainLooper());
+    private final class ReceivedMessageHandlerImpl implements ReceivedMessageHandler, MessageBatcher.Callback {
 
         /**
          * A push provider calls this method when a new message is received.
@@ -700,26 +1052,72 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         public void onMessage(@NonNull final String providerName,
                               @Nullable final Bundle extras) {
             OPFLog.logMethod(providerName);
-            if (currentProvider != null && providerName.equals(currentProvider.getName())) {
-                settings.saveState(REGISTERED);
+            final PushProvider provider = currentProvider;
+            if (provider != null && providerName.equals(provider.getName())) {
+                stateMachine.moveTo(REGISTERED);
+
+                final MessageBatcher batcher = messageBatcher;
+                if (batcher != null) {
+                    batcher.add(providerName, extras);
+                    return;
+                }
 
                 //noinspection InnerClassTooDeeplyNested
-                handler.post(new Runnable() {
+                callbackExecutor.execute(new Runnable() {
                     @Override
                     public void run() {
-                        //All operations with NotificationMaker should are performed in the main thread.
-                        //It saves users from having to make thread safe NotificationMaker.
-                        final NotificationMaker notificationMaker = currentProvider.getNotificationMaker();
-                        if (extras != null && notificationMaker.needShowNotification(extras)) {
-                            notificationMaker.showNotification(appContext, extras);
-                        } else {
-                            eventListenerWrapper.onMessage(appContext, providerName, extras);
-                        }
+                        deliverMessage(provider, extras);
                     }
                 });
             } else {
                 OPFLog.w("Ignore onMessage from provider " + providerName
-                        + ". Current provider is " + currentProvider);
+                        + ". Current provider is " + provider);
+            }
+        }
+
+        /**
+         * Shows the notification or passes the message to the event listener.
+         * Must be called via the {@link #callbackExecutor}, so the event listener is called directly.
+         */
+        private void deliverMessage(@NonNull final PushProvider provider, @Nullable final Bundle extras) {
+            //All operations with NotificationMaker are performed via the callback executor (the main thread
+            //by default). It saves users from having to make thread safe NotificationMaker.
+            final NotificationMaker notificationMaker = provider.getNotificationMaker();
+            if (extras != null && notificationMaker.needShowNotification(extras)) {
+                notificationMaker.showNotification(appContext, extras);
+            } else {
+                directEventListener.onMessage(appContext, provider.getName(), extras);
+            }
+        }
+
+        /**
+         * The {@link MessageBatcher} calls this method via the {@link #callbackExecutor}
+         * when a batch of messages is collected.
+         *
+         * @param providerName The name of the provider which has received the messages.
+         * @param messages     The messages extras.
+         */
+        @Override
+        public void onMessages(@NonNull final String providerName, @NonNull final List<Bundle> messages) {
+            OPFLog.logMethod(providerName, messages.size());
+            final PushProvider provider = getProvider(providerName);
+            if (provider == null) {
+                OPFLog.w("Ignore batch from unknown provider " + providerName);
+                return;
+            }
+
+            final NotificationMaker notificationMaker = provider.getNotificationMaker();
+            final List<Bundle> listenerMessages = new ArrayList<>(messages.size());
+            for (Bundle extras : messages) {
+                if (extras != null && notificationMaker.needShowNotification(extras)) {
+                    notificationMaker.showNotification(appContext, extras);
+                } else {
+                    listenerMessages.add(extras);
+                }
+            }
+
+            if (!listenerMessages.isEmpty()) {
+                directEventListener.onMessages(appContext, providerName, listenerMessages);
             }
         }
 
@@ -736,12 +1134,13 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         public void onDeletedMessages(@NonNull final String providerName,
                                       final int messagesCount) {
             OPFLog.logMethod(providerName, messagesCount);
-            if (currentProvider != null && providerName.equals(currentProvider.getName())) {
-                settings.saveState(REGISTERED);
+            final PushProvider provider = currentProvider;
+            if (provider != null && providerName.equals(provider.getName())) {
+                stateMachine.moveTo(REGISTERED);
                 eventListenerWrapper.onDeletedMessages(appContext, providerName, messagesCount);
             } else {
                 OPFLog.w("Ignore onDeletedMessages from provider " + providerName
-                        + ". Current provider is " + currentProvider);
+                        + ". Current provider is " + provider);
             }
         }
 
@@ -754,31 +1153,14 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         @Override
         public void onRegistered(@NonNull final String providerName,
                                  @NonNull final String registrationId) {
-            synchronized (registrationLock) {
-                OPFLog.logMethod(providerName, registrationId);
-                cancelAllOperationsForProvider(providerName);
-                settings.removeRegisteringProvider(providerName);
-
-                if (isRegistered()) {
-                    OPFLog.d("Registration state is REGISTERED");
-                    return;
-                }
-
-                OPFLog.i("Successfully register provider '%s'.", providerName);
-                settings.saveState(REGISTERED);
-                settings.saveLastAndroidId(
-                        Secure.getString(appContext.getContentResolver(), ANDROID_ID)
-                );
-                currentProvider = getProviderWithException(providerName);
-                settings.saveLastProvider(currentProvider);
-                registerProviderErrors.clear();
-
-                eventListenerWrapper.onRegistered(appContext, providerName, registrationId);
-
-                if (providerName.equals(settings.getPendingUnregistrationProvider())) {
-                    unregister(providerName);
+            OPFLog.logMethod(providerName, registrationId);
+            final PushProvider provider = getProviderWithException(providerName);
+            registrationExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleRegistered(provider, registrationId);
                 }
-            }
+            });
         }
 
         /**
@@ -790,14 +1172,13 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         @Override
         public void onUnregistered(@NonNull final String providerName,
                                    @Nullable final String oldRegistrationId) {
-            synchronized (registrationLock) {
-                OPFLog.logMethod(providerName, oldRegistrationId);
-                OPFLog.i("Successfully unregister provider '%s'.", providerName);
-                settings.removeUnregisteringProvider(providerName);
-                if (providerName.equals(settings.getPendingRegistrationProvider())) {
-                    register(providerName);
+            OPFLog.logMethod(providerName, oldRegistrationId);
+            registrationExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleUnregistered(providerName);
                 }
-            }
+            });
         }
 
         /**
@@ -809,30 +1190,13 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         @Override
         public void onRegistrationError(@NonNull final String providerName,
                                         @NonNull final PushError error) {
-            synchronized (registrationLock) {
-                OPFLog.logMethod(providerName, error);
-
-                if (isRegistered()) {
-                    OPFLog.d("Registration state is REGISTERED");
-                    return;
+            OPFLog.logMethod(providerName, error);
+            registrationExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleRegistrationError(providerName, error);
                 }
-
-                OPFLog.i("Registration error has been received : " + error);
-                settings.saveState(UNREGISTERED);
-                if (error.isRecoverable()
-                        && retryManager.hasTries(providerName, REGISTER)) {
-                    retryManager.postRetryRegister(providerName);
-                } else {
-                    registerProviderErrors.put(providerName, (UnrecoverablePushError) error);
-                    retryManager.reset(providerName, REGISTER);
-                    settings.removeRegisteringProvider(providerName);
-                    if (providerName.equals(settings.getPendingUnregistrationProvider())) {
-                        unregister(providerName);
-                    }
-
-                    registerNextAvailableProvider(providerName);
-                }
-            }
+            });
         }
 
         /**
@@ -844,29 +1208,14 @@ final class OPFPushHelperImpl extends OPFPushHelper {
         @Override
         public void onUnregistrationError(@NonNull final String providerName,
                                           @NonNull final PushError error) {
-            synchronized (registrationLock) {
-                OPFLog.logMethod(providerName, error);
-
-                final PushProvider provider = getProviderWithException(providerName);
-                if (!provider.isRegistered()) {
-                    OPFLog.i("Provider already unregistered.");
-                    return;
+            OPFLog.logMethod(providerName, error);
+            final PushProvider provider = getProviderWithException(providerName);
+            registrationExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleUnregistrationError(provider, error);
                 }
-
-                if (error.isRecoverable()
-                        && retryManager.hasTries(providerName, UNREGISTER)) {
-                    OPFLog.i("Error while unregister provider %1$s : %2$s. Unregistration will be retried",
-                            providerName, error);
-                    retryManager.postRetryUnregister(providerName);
-                } else {
-                    OPFLog.w("Error while unregister provider %1$s : %2$s",
-                            providerName, error);
-                    settings.removeUnregisteringProvider(providerName);
-                    if (providerName.equals(settings.getPendingRegistrationProvider())) {
-                        register(providerName);
-                    }
-                }
-            }
+            });
         }
 
         /**
@@ -878,17 +1227,147 @@ final class OPFPushHelperImpl extends OPFPushHelper {
          */
         @Override
         public void onError(@NonNull final String providerName, @NonNull final PushError error) {
-            synchronized (registrationLock) {
-                OPFLog.logMethod(providerName, error);
-
-                final State state = settings.getState();
-                final boolean isProviderRegistered = getProviderWithException(providerName).isRegistered();
-                OPFLog.i("Error occurred. Registration state : "
-                        + state + " Provider.isRegistered == " + isProviderRegistered);
-                if (state == REGISTERING || !isProviderRegistered) {
-                    onRegistrationError(providerName, error);
+            OPFLog.logMethod(providerName, error);
+            final PushProvider provider = getProviderWithException(providerName);
+            registrationExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final State state = stateMachine.getState();
+                    final boolean isProviderRegistered = provider.isRegistered();
+                    OPFLog.i("Error occurred. Registration state : "
+                            + state + " Provider.isRegistered == " + isProviderRegistered);
+                    if (state == REGISTERING || !isProviderRegistered) {
+                        handleRegistrationError(providerName, error);
+                    } else {
+                        handleUnregistrationError(provider, error);
+                    }
+                }
+            });
+        }
+
+        private void handleRegistered(@NonNull final PushProvider provider,
+                                      @NonNull final String registrationId) {
+            final String providerName = provider.getName();
+            registeringTimeoutController.onRegistered(providerName);
+            final HedgedRegistration registration = hedgedRegistration;
+            if (registration != null && registration.contains(providerName)) {
+                registration.onRegistered(providerName, registrationId);
+                checkHedgedRegistration();
+                return;
+            } else if (hedgeLoserNames.remove(providerName)) {
+                OPFLog.d("Unregister provider '%s' that has lost the hedged registration", providerName);
+                cancelAllOperationsForProvider(providerName);
+                settings.removeRegisteringProvider(providerName);
+                unregister(provider);
+                return;
+            }
+
+            cancelAllOperationsForProvider(providerName);
+            final Settings.Transaction transaction = settings.edit()
+                    .removeRegisteringProvider(providerName);
+
+            if (isRegistered()) {
+                OPFLog.d("Registration state is REGISTERED");
+                transaction.apply();
+                return;
+            }
+
+            OPFLog.i("Successfully register provider '%s'.", providerName);
+            currentProvider = provider;
+            stateMachine.moveTo(
+                    REGISTERED,
+                    transaction.saveLastAndroidId(Secure.getString(appContext.getContentResolver(), ANDROID_ID))
+                            .saveLastProvider(provider)
+            );
+            registerProviderErrors.clear();
+
+            eventListenerWrapper.onRegistered(appContext, providerName, registrationId);
+
+            if (providerName.equals(settings.getPendingUnregistrationProvider())) {
+                unregister(provider);
+            }
+        }
+
+        private void handleUnregistered(@NonNull final String providerName) {
+            OPFLog.i("Successfully unregister provider '%s'.", providerName);
+            settings.removeUnregisteringProvider(providerName);
+            if (providerName.equals(settings.getPendingRegistrationProvider())) {
+                register(getProviderWithException(providerName));
+            }
+        }
+
+        private void handleRegistrationError(@NonNull final String providerName,
+                                             @NonNull final PushError error) {
+            if (isRegistered()) {
+                OPFLog.d("Registration state is REGISTERED");
+                return;
+            }
+
+            OPFLog.i("Registration error has been received : " + error);
+            final HedgedRegistration registration = hedgedRegistration;
+            if (registration != null && registration.contains(providerName)) {
+                if (error.isRecoverable() && retryManager.hasTries(providerName, REGISTER)) {
+                    //The provider stays in the hedged registration until the retry is finished.
+                    OPFLog.i("Registration of hedged provider '%s' will be retried", providerName);
+                    retryManager.postRetryRegister(providerName);
                 } else {
-                    onUnregistrationError(providerName, error);
+                    registerProviderErrors.put(providerName, toUnrecoverableError(error));
+                    retryManager.reset(providerName, REGISTER);
+                    onHedgedRegistrationFailed(registration, providerName);
+                }
+                return;
+            }
+
+            if (error.isRecoverable()
+                    && retryManager.hasTries(providerName, REGISTER)) {
+                stateMachine.moveTo(UNREGISTERED);
+                retryManager.postRetryRegister(providerName);
+            } else {
+                registerProviderErrors.put(providerName, toUnrecoverableError(error));
+                retryManager.reset(providerName, REGISTER);
+                stateMachine.moveTo(UNREGISTERED, settings.edit().removeRegisteringProvider(providerName));
+                if (providerName.equals(settings.getPendingUnregistrationProvider())) {
+                    unregister(getProviderWithException(providerName));
+                }
+
+                doRegisterNextAvailableProvider(providerName);
+            }
+        }
+
+        /**
+         * A recoverable error becomes unrecoverable when the backoff has run out of tries.
+         */
+        @NonNull
+        private UnrecoverablePushError toUnrecoverableError(@NonNull final PushError error) {
+            if (error.isRecoverable()) {
+                return new UnrecoverablePushError(
+                        PROVIDER_SPECIFIC_ERROR,
+                        error.getProviderName(),
+                        error.getOriginalError()
+                );
+            }
+            return (UnrecoverablePushError) error;
+        }
+
+        private void handleUnregistrationError(@NonNull final PushProvider provider,
+                                               @NonNull final PushError error) {
+            if (!provider.isRegistered()) {
+                OPFLog.i("Provider already unregistered.");
+                return;
+            }
+
+            final String providerName = provider.getName();
+            if (error.isRecoverable()
+                    && retryManager.hasTries(providerName, UNREGISTER)) {
+                OPFLog.i("Error while unregister provider %1$s : %2$s. Unregistration will be retried",
+                        providerName, error);
+                retryManager.postRetryUnregister(providerName);
+            } else {
+                OPFLog.w("Error while unregister provider %1$s : %2$s",
+                        providerName, error);
+                settings.removeUnregisteringProvider(providerName);
+                if (providerName.equals(settings.getPendingRegistrationProvider())) {
+                    register(provider);
                 }
             }
         }
@@ -118,6 +118,16 @@ public class OPFPushHelperStub extends OPFPushHelper {
         OPFLog.logMethod(prevProviderName);
     }
 
+    @Override
+    void onRegisteringTimeout(@NonNull final String providerName) {
+        OPFLog.logMethod(providerName);
+    }
+
+    @Override
+    void onPackagesChanged() {
+        OPFLog.logMethod();
+    }
+
     @Nullable
     @Override
     String getProviderNameByHostApp(@Nullable final String appPackage) {
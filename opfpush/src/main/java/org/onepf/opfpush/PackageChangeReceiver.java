@@ -35,14 +35,24 @@ public final class PackageChangeReceiver extends BroadcastReceiver {
 
     private static final String PACKAGE_URI_PREFIX = "package:";
 
+    /**
+     * The availability of Google Cloud Messaging depends on this package, though it isn't the host app.
+     */
+    private static final String GOOGLE_PLAY_SERVICES_PACKAGE = "com.google.android.gms";
+
     @Override
     public void onReceive(@NonNull final Context context, @NonNull final Intent intent) {
         OPFLog.logMethod(context, OPFUtils.toString(intent));
 
         final OPFPushHelper helper = OPFPush.getHelper();
+        final String appPackage = getAppPackage(intent);
+        final String providerName = helper.getProviderNameByHostApp(appPackage);
+        if (providerName != null || GOOGLE_PLAY_SERVICES_PACKAGE.equals(appPackage)) {
+            helper.onPackagesChanged();
+        }
+
         final String action = intent.getAction();
         if (Intent.ACTION_PACKAGE_REMOVED.equals(action)) {
-            final String providerName = helper.getProviderNameByHostApp(getAppPackage(intent));
             if (providerName == null) {
                 return;
             }
@@ -73,9 +83,10 @@ public final class PackageChangeReceiver extends BroadcastReceiver {
 
     private void clearSettingsForProvider(@NonNull final Context context,
                                           @NonNull final String providerName) {
-        final Settings settings = Settings.getInstance(context);
-        settings.removeRegisteringProvider(providerName);
-        settings.removeUnregisteringProvider(providerName);
+        Settings.getInstance(context).edit()
+                .removeRegisteringProvider(providerName)
+                .removeUnregisteringProvider(providerName)
+                .apply();
     }
 
     @Nullable
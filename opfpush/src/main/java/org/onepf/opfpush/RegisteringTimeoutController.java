@@ -13,59 +13,135 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package org.onepf.opfpush;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 
+import org.onepf.opfpush.backoff.AlarmScheduler;
+import org.onepf.opfpush.configuration.Configuration;
 import org.onepf.opfutils.OPFLog;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import static org.onepf.opfpush.OPFConstants.ACTION_CHECK_REGISTERING_TIMEOUT;
-import static org.onepf.opfpush.OPFConstants.EXTRA_PROVIDER_NAME;
 
 /**
+ * Sets the registering timeouts of the providers.
+ * <p/>
+ * The timeout of the provider is taken from the {@link Configuration}. If the adaptive timeout is enabled,
+ * the timeout is derived from the 95th percentile of the stored latencies of the registrations,
+ * but it is never greater than the configured one.
+ * <p/>
+ * A registration that has timed out is stored as a latency equal to the applied timeout. Its real latency
+ * is unknown but it isn't less than the timeout, so the timeouts make the adaptive timeout grow
+ * instead of letting it shrink below the latencies of the slow registrations.
+ *
  * @author Roman Savin
  * @since 18.02.2015
  */
 final class RegisteringTimeoutController {
 
-    private static final long TIMEOUT_MINUTES = 5;
+    /**
+     * The adaptive timeout is the 95th percentile of latencies multiplied by this factor,
+     * so a registration that is a bit slower than usual isn't interrupted.
+     */
+    static final int ADAPTIVE_TIMEOUT_FACTOR = 2;
+
+    static final long MIN_ADAPTIVE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(15);
+
+    private static final double PERCENTILE = 0.95;
+
+    @NonNull
+    private final Context appContext;
+
+    @NonNull
+    private final Configuration configuration;
+
+    @NonNull
+    private final RegistrationLatencyStorage latencyStorage;
+
+    /**
+     * The {@link SystemClock#elapsedRealtime()} of the registration start by provider names.
+     */
+    @NonNull
+    private final Map<String, Long> registeringStartTimes = new ConcurrentHashMap<>();
+
+    /**
+     * The applied registering timeouts by provider names.
+     */
+    @NonNull
+    private final Map<String, Long> registeringTimeouts = new ConcurrentHashMap<>();
+
+    RegisteringTimeoutController(@NonNull final Context context, @NonNull final Configuration configuration) {
+        this.appContext = context.getApplicationContext();
+        this.configuration = configuration;
+        this.latencyStorage = new RegistrationLatencyStorage(appContext);
+    }
+
+    void setTimeout(@NonNull final String providerName) {
+        OPFLog.logMethod(providerName);
+        final long timeoutMillis = getTimeoutMillis(providerName);
+        registeringStartTimes.put(providerName, SystemClock.elapsedRealtime());
+        registeringTimeouts.put(providerName, timeoutMillis);
+
+        final long when = System.currentTimeMillis() + timeoutMillis;
+        AlarmScheduler.getInstance(appContext).schedule(providerName, ACTION_CHECK_REGISTERING_TIMEOUT, when);
+    }
+
+    void cancelTimeout(@NonNull final String providerName) {
+        OPFLog.logMethod(providerName);
+        registeringStartTimes.remove(providerName);
+        registeringTimeouts.remove(providerName);
+        AlarmScheduler.getInstance(appContext).cancel(providerName, ACTION_CHECK_REGISTERING_TIMEOUT);
+    }
+
+    /**
+     * Stores the latency of the registration if the adaptive timeout is enabled and cancels the timeout.
+     *
+     * @param providerName The name of the registered provider.
+     */
+    void onRegistered(@NonNull final String providerName) {
+        final Long startTime = registeringStartTimes.get(providerName);
+        if (startTime != null && configuration.isAdaptiveRegisteringTimeoutEnabled()) {
+            final long latency = SystemClock.elapsedRealtime() - startTime;
+            OPFLog.d("Provider '%s' has been registered in %d ms", providerName, latency);
+            latencyStorage.addLatency(providerName, latency);
+        }
+        cancelTimeout(providerName);
+    }
 
-    private RegisteringTimeoutController() {
-        throw new UnsupportedOperationException();
+    /**
+     * Stores the applied timeout as the latency of the registration if the adaptive timeout is enabled.
+     * The timeout that has fired after the registration has been finished or cancelled is ignored.
+     *
+     * @param providerName The name of the provider which registration has timed out.
+     */
+    void onTimeout(@NonNull final String providerName) {
+        final Long startTime = registeringStartTimes.remove(providerName);
+        final Long timeoutMillis = registeringTimeouts.remove(providerName);
+        if (startTime != null && timeoutMillis != null && configuration.isAdaptiveRegisteringTimeoutEnabled()) {
+            OPFLog.d("Registration of provider '%s' has timed out after %d ms", providerName, timeoutMillis);
+            latencyStorage.addLatency(providerName, timeoutMillis);
+        }
     }
 
-    static void setTimeout(@NonNull final Context context, @NonNull final String providerName) {
-        OPFLog.logMethod(context, providerName);
-        final long when = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(TIMEOUT_MINUTES);
-        OPFLog.d(
-                "Set registering timeout : %s",
-                SimpleDateFormat.getDateTimeInstance(
-                        DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US
-                ).format(new Date(when))
-        );
-
-        final AlarmManager alarmManager = (AlarmManager) context
-                .getSystemService(Context.ALARM_SERVICE);
-
-        final Intent intent = new Intent(context, RetryBroadcastReceiver.class);
-        intent.setAction(ACTION_CHECK_REGISTERING_TIMEOUT);
-        intent.putExtra(EXTRA_PROVIDER_NAME, providerName);
-
-        alarmManager.set(
-                AlarmManager.RTC,
-                when,
-                PendingIntent.getBroadcast(context, providerName.hashCode(), intent, 0)
-        );
+    long getTimeoutMillis(@NonNull final String providerName) {
+        final long configuredTimeout = configuration.getRegisteringTimeoutMillis(providerName);
+        if (!configuration.isAdaptiveRegisteringTimeoutEnabled()) {
+            return configuredTimeout;
+        }
+
+        final long[] latencies = latencyStorage.getSortedLatencies(providerName);
+        if (latencies.length < RegistrationLatencyStorage.MIN_LATENCIES_COUNT) {
+            return configuredTimeout;
+        }
+
+        final long percentileLatency = latencies[(int) Math.ceil(PERCENTILE * latencies.length) - 1];
+        final long adaptiveTimeout = Math.max(MIN_ADAPTIVE_TIMEOUT_MILLIS, percentileLatency * ADAPTIVE_TIMEOUT_FACTOR);
+        return Math.min(configuredTimeout, adaptiveTimeout);
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.text.TextUtils;
+
+import org.onepf.opfutils.OPFLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Persists the latencies of the last registrations of every provider.
+ *
+ * @since 18.10.2026
+ */
+@SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
+final class RegistrationLatencyStorage {
+
+    /**
+     * The count of the last latencies that are stored for every provider.
+     */
+    static final int MAX_LATENCIES_COUNT = 20;
+
+    /**
+     * The count of latencies that is enough to derive the timeout.
+     */
+    static final int MIN_LATENCIES_COUNT = 5;
+
+    private static final String PREFERENCES_POSTFIX = ".opfpush.latency";
+    private static final String KEY_LATENCIES_PREFIX = "registration_latencies_";
+    private static final String SEPARATOR = ",";
+
+    @NonNull
+    private final SharedPreferences preferences;
+
+    RegistrationLatencyStorage(@NonNull final Context context) {
+        this.preferences = context.getSharedPreferences(
+                context.getPackageName() + PREFERENCES_POSTFIX, Context.MODE_PRIVATE);
+    }
+
+    synchronized void addLatency(@NonNull final String providerName, final long latencyMillis) {
+        final List<String> latencies = new ArrayList<>(Arrays.asList(getStoredLatencies(providerName)));
+        latencies.add(String.valueOf(latencyMillis));
+        while (latencies.size() > MAX_LATENCIES_COUNT) {
+            latencies.remove(0);
+        }
+        preferences.edit()
+                .putString(KEY_LATENCIES_PREFIX + providerName, TextUtils.join(SEPARATOR, latencies))
+                .apply();
+    }
+
+    /**
+     * Returns the stored latencies of the provider in ascending order.
+     */
+    @NonNull
+    synchronized long[] getSortedLatencies(@NonNull final String providerName) {
+        final String[] storedLatencies = getStoredLatencies(providerName);
+        final long[] latencies = new long[storedLatencies.length];
+        int count = 0;
+        for (String storedLatency : storedLatencies) {
+            try {
+                latencies[count] = Long.parseLong(storedLatency);
+                ++count;
+            } catch (NumberFormatException e) {
+                OPFLog.w("Wrong stored latency : " + storedLatency);
+            }
+        }
+
+        final long[] sortedLatencies = Arrays.copyOf(latencies, count);
+        Arrays.sort(sortedLatencies);
+        return sortedLatencies;
+    }
+
+    @NonNull
+    private String[] getStoredLatencies(@NonNull final String providerName) {
+        final String latencies = preferences.getString(KEY_LATENCIES_PREFIX + providerName, null);
+        return TextUtils.isEmpty(latencies) ? new String[0] : latencies.split(SEPARATOR);
+    }
+}
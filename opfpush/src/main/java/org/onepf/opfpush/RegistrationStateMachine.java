@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfpush.model.State;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.onepf.opfpush.model.State.REGISTERED;
+import static org.onepf.opfpush.model.State.REGISTERING;
+import static org.onepf.opfpush.model.State.UNREGISTERED;
+
+/**
+ * Holds the registration {@link State} of the {@link OPFPushHelperImpl}.
+ * <p/>
+ * The state is changed by compare-and-set, so it can be read and changed from any thread without locks.
+ * Every successful transition, including {@link #clear()}, is persisted to the {@link Settings} together
+ * with the changes of its transaction. The concurrent transitions can be persisted in another order,
+ * so after persisting the stored state is rewritten until it is equal to the actual one.
+ * A transition that isn't allowed by {@link #isAllowed(State, State)} is always rejected and leaves
+ * the state untouched.
+ *
+ * @since 18.10.2026
+ */
+final class RegistrationStateMachine {
+
+    @NonNull
+    private final Settings settings;
+
+    @NonNull
+    private final AtomicReference<State> state;
+
+    RegistrationStateMachine(@NonNull final Settings settings) {
+        this.settings = settings;
+        this.state = new AtomicReference<>(settings.getState());
+    }
+
+    /**
+     * Checks whether the transition between two states is allowed.
+     * <p/>
+     * The only forbidden transition is from {@code REGISTERED} to {@code REGISTERING}:
+     * a registered helper must become {@code UNREGISTERED} before a new registration is started.
+     * Transitions to the same state are always allowed and don't change anything.
+     *
+     * @param from The current state.
+     * @param to   The new state.
+     * @return {@code true} if the transition is allowed, {@code false} otherwise.
+     */
+    static boolean isAllowed(@NonNull final State from, @NonNull final State to) {
+        return from != REGISTERED || to != REGISTERING;
+    }
+
+    @NonNull
+    State getState() {
+        return state.get();
+    }
+
+    /**
+     * Moves the state machine to the new state.
+     *
+     * @param newState The new state.
+     * @return {@code true} if the state machine is in the {@code newState} now,
+     * {@code false} if the transition has been rejected.
+     */
+    boolean moveTo(@NonNull final State newState) {
+        //Avoids the transaction allocation on the hot path, e.g. for every received message.
+        return state.get() == newState || moveTo(newState, settings.edit());
+    }
+
+    /**
+     * Moves the state machine to the new state and applies the {@code transaction} together with
+     * the new state. The {@code transaction} isn't applied if the transition has been rejected.
+     *
+     * @param newState    The new state.
+     * @param transaction The changes that must be persisted together with the new state.
+     * @return {@code true} if the state machine is in the {@code newState} now,
+     * {@code false} if the transition has been rejected.
+     */
+    boolean moveTo(@NonNull final State newState, @NonNull final Settings.Transaction transaction) {
+        while (true) {
+            final State currentState = state.get();
+            if (currentState == newState) {
+                //A cleared transaction can erase the state of a concurrent transition.
+                transaction.apply();
+                persistCurrentState(newState);
+                return true;
+            }
+
+            if (!isAllowed(currentState, newState)) {
+                OPFLog.w("Transition %s -> %s is rejected", currentState, newState);
+                return false;
+            }
+
+            if (state.compareAndSet(currentState, newState)) {
+                OPFLog.d("Transition %s -> %s", currentState, newState);
+                transaction.saveState(newState).apply();
+                persistCurrentState(newState);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Clears the {@link Settings} and resets the state to {@code UNREGISTERED}.
+     */
+    void clear() {
+        OPFLog.logMethod();
+        moveTo(UNREGISTERED, settings.edit().clear());
+    }
+
+    /**
+     * A concurrent transition can be persisted before the transition that has been made earlier.
+     * Rewrites the stored state until it is equal to the actual one.
+     */
+    private void persistCurrentState(@NonNull final State persistedState) {
+        State lastPersistedState = persistedState;
+        State currentState = state.get();
+        while (currentState != lastPersistedState) {
+            settings.saveState(currentState);
+            lastPersistedState = currentState;
+            currentState = state.get();
+        }
+    }
+}
@@ -20,13 +20,16 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.support.annotation.NonNull;
+import android.util.Pair;
 
-import org.onepf.opfpush.model.State;
+import org.onepf.opfpush.backoff.AlarmScheduler;
+import org.onepf.opfpush.backoff.RetryManager;
 import org.onepf.opfutils.OPFLog;
 import org.onepf.opfutils.OPFUtils;
 
 import java.util.Locale;
 
+import static org.onepf.opfpush.OPFConstants.ACTION_CHECK_ALARMS;
 import static org.onepf.opfpush.OPFConstants.ACTION_CHECK_REGISTERING_TIMEOUT;
 import static org.onepf.opfpush.OPFConstants.ACTION_RETRY_REGISTER;
 import static org.onepf.opfpush.OPFConstants.ACTION_RETRY_UNREGISTER;
@@ -48,32 +51,41 @@ public final class RetryBroadcastReceiver extends BroadcastReceiver {
             OPFLog.d("Initialisation is done");
 
             final String action = intent.getAction();
-            final String providerName = intent.getStringExtra(EXTRA_PROVIDER_NAME);
-            switch (action) {
-                case ACTION_RETRY_REGISTER:
-                    helper.register(providerName);
-                    break;
-                case ACTION_RETRY_UNREGISTER:
-                    helper.unregister(providerName);
-                    break;
-                case ACTION_CHECK_REGISTERING_TIMEOUT:
-                    checkRegistering(context, helper, providerName);
-                    break;
-                default:
-                    throw new IllegalStateException(String.format(Locale.US, "Unknown action '%s'.", action));
+            if (ACTION_CHECK_ALARMS.equals(action)) {
+                for (Pair<String, String> alarm : AlarmScheduler.getInstance(context).takeDueAlarms()) {
+                    onAlarm(helper, alarm.first, alarm.second);
+                }
+            } else {
+                //The alarm that has been set by the previous version of the library.
+                onAlarm(helper, intent.getStringExtra(EXTRA_PROVIDER_NAME), action);
             }
         } else {
             OPFLog.w("OPFPush must be initialized");
         }
     }
 
-    private void checkRegistering(@NonNull final Context context,
-                                  @NonNull final OPFPushHelper helper,
-                                  @NonNull final String providerName) {
-        OPFLog.logMethod(context, helper, providerName);
-        if (helper.isRegistering()) {
-            Settings.getInstance(context).saveState(State.UNREGISTERED);
-            helper.registerNextAvailableProvider(providerName);
+    private static void onAlarm(@NonNull final OPFPushHelper helper,
+                                @NonNull final String providerName,
+                                @NonNull final String action) {
+        if (ACTION_CHECK_REGISTERING_TIMEOUT.equals(action)) {
+            helper.onRegisteringTimeout(providerName);
+        } else if (RetryManager.getInstance().onRetryDue(providerName, action)) {
+            retry(helper, providerName, action);
+        }
+    }
+
+    static void retry(@NonNull final OPFPushHelper helper,
+                      @NonNull final String providerName,
+                      @NonNull final String action) {
+        switch (action) {
+            case ACTION_RETRY_REGISTER:
+                helper.register(providerName);
+                break;
+            case ACTION_RETRY_UNREGISTER:
+                helper.unregister(providerName);
+                break;
+            default:
+                throw new IllegalStateException(String.format(Locale.US, "Unknown action '%s'.", action));
         }
     }
 }
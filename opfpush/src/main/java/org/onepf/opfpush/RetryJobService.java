@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.os.PersistableBundle;
+
+import org.onepf.opfpush.backoff.RetryManager;
+import org.onepf.opfutils.OPFLog;
+
+import static org.onepf.opfpush.OPFConstants.EXTRA_PROVIDER_NAME;
+
+/**
+ * Executes the retries that are scheduled by the {@link android.app.job.JobScheduler}.
+ * The job is started when the retry delay has passed and a network is available.
+ *
+ * @since 18.10.2026
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class RetryJobService extends JobService {
+
+    public static final String EXTRA_ACTION = "org.onepf.opfpush.intent.EXTRA_ACTION";
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final PersistableBundle extras = params.getExtras();
+        final String providerName = extras.getString(EXTRA_PROVIDER_NAME);
+        final String action = extras.getString(EXTRA_ACTION);
+        OPFLog.logMethod(providerName, action);
+
+        final OPFPushHelper helper = OPFPush.getHelper();
+        if (helper.isInitDone()) {
+            if (RetryManager.getInstance().onRetryDue(providerName, action)) {
+                RetryBroadcastReceiver.retry(helper, providerName, action);
+            }
+        } else {
+            OPFLog.w("OPFPush must be initialized");
+        }
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(final JobParameters params) {
+        return false;
+    }
+}
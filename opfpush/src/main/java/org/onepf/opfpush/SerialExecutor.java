@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfutils.OPFLog;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one by one without blocking the submitting threads.
+ * <p/>
+ * A task is executed in the thread that has submitted it if no other thread is executing tasks at the moment.
+ * Otherwise the task is queued and the thread that is executing tasks runs it after the current one,
+ * so a submitting thread never waits for another one.
+ * A task that is submitted from another task runs after the submitting task has finished.
+ * <p/>
+ * The exception of a task is logged, so it doesn't prevent the following tasks from running.
+ *
+ * @since 18.10.2026
+ */
+final class SerialExecutor implements Executor {
+
+    @NonNull
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    @NonNull
+    private final AtomicBoolean isRunning = new AtomicBoolean();
+
+    @Override
+    public void execute(@NonNull final Runnable task) {
+        tasks.offer(task);
+        drain();
+    }
+
+    /**
+     * Runs the queued tasks if no other thread runs them. The queue is checked again after the running flag
+     * has been reset, so a task that has been queued meanwhile isn't left behind.
+     */
+    private void drain() {
+        while (!tasks.isEmpty() && isRunning.compareAndSet(false, true)) {
+            try {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    runSafely(task);
+                }
+            } finally {
+                isRunning.set(false);
+            }
+        }
+    }
+
+    @SuppressWarnings("PMD.AvoidCatchingGenericException")
+    private static void runSafely(@NonNull final Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            OPFLog.e("Task has failed.", e);
+        }
+    }
+}
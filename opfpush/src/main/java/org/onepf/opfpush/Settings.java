@@ -17,20 +17,36 @@
 package org.onepf.opfpush;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 
 import org.onepf.opfpush.model.State;
 import org.onepf.opfpush.pushprovider.PushProvider;
 import org.onepf.opfutils.OPFChecks;
 import org.onepf.opfutils.OPFLog;
-import org.onepf.opfutils.OPFPreferences;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import static org.onepf.opfpush.model.State.UNREGISTERED;
 
 /**
+ * Stores the {@link org.onepf.opfpush.OPFPushHelper} state.
+ * <p/>
+ * All values are kept in an immutable in-memory {@link Snapshot}, so getters are lock-free and never touch
+ * the disk. Every write replaces the snapshot and persists the changed keys asynchronously
+ * via {@link SharedPreferences.Editor#apply()}. Values that are equal to the stored ones aren't written again.
+ * Use {@link #edit()} to change several values at once.
+ * <p/>
+ * The snapshot is loaded once, when the {@code Settings} is created, so the values must be changed only
+ * via the {@code Settings}.
+ *
  * @author Kirill Rozov
  * @author Roman Savin
  * @since 01.10.14.
@@ -51,10 +67,22 @@ final class Settings {
     private static volatile Settings instance;
 
     @NonNull
-    private final OPFPreferences preferences;
+    private final SharedPreferences preferences;
+
+    @NonNull
+    private volatile Snapshot snapshot;
 
+    @SuppressWarnings("deprecation")
     private Settings(@NonNull final Context context) {
-        preferences = new OPFPreferences(context, OPF_CORE_POSTFIX);
+        this(context.getSharedPreferences(
+                context.getPackageName() + "." + OPF_CORE_POSTFIX,
+                Context.MODE_MULTI_PROCESS
+        ));
+    }
+
+    Settings(@NonNull final SharedPreferences preferences) {
+        this.preferences = preferences;
+        snapshot = Snapshot.load(preferences);
     }
 
     @SuppressWarnings("PMD.NonThreadSafeSingleton")
@@ -67,12 +95,22 @@ final class Settings {
         return instance;
     }
 
+    /**
+     * Starts a transaction. Changes made via the returned {@link Transaction} become visible to readers
+     * all at once and are written to disk in a single batch when {@link Transaction#apply()} is called.
+     *
+     * @return The new {@link Transaction} instance.
+     */
+    @NonNull
+    public Transaction edit() {
+        return new Transaction();
+    }
+
     @NonNull
-    public synchronized State getState() {
+    public State getState() {
         OPFLog.logMethod();
 
-        final int stateValue = preferences.getInt(KEY_STATE, UNREGISTERED.getValue());
-        State state = State.fromValue(stateValue);
+        State state = snapshot.state;
 
         OPFLog.d("State : " + state);
         if (state == null) {
@@ -82,122 +120,472 @@ final class Settings {
         return state;
     }
 
-    public synchronized void saveState(@NonNull final State state) {
-        OPFLog.logMethod(state);
-        preferences.put(KEY_STATE, state.getValue());
+    public void saveState(@NonNull final State state) {
+        if (snapshot.state == state) {
+            OPFLog.d("State %s is already saved", state);
+            return;
+        }
+        edit().saveState(state).apply();
     }
 
-    public synchronized void clear() {
-        OPFLog.logMethod();
-        preferences.clear();
+    public void clear() {
+        edit().clear().apply();
     }
 
     @Nullable
-    public synchronized String getLastProviderName() {
-        return preferences.getString(KEY_LAST_PROVIDER_NAME);
+    public String getLastProviderName() {
+        return snapshot.lastProviderName;
     }
 
-    public synchronized void saveLastProvider(@Nullable final PushProvider provider) {
-        OPFLog.logMethod(provider);
-
-        if (provider == null) {
-            preferences.remove(KEY_LAST_PROVIDER_NAME);
-        } else {
-            preferences.put(KEY_LAST_PROVIDER_NAME, provider.getName());
-        }
+    public void saveLastProvider(@Nullable final PushProvider provider) {
+        edit().saveLastProvider(provider).apply();
     }
 
     @Nullable
-    public synchronized String getLastAndroidId() {
-        return preferences.getString(KEY_LAST_ANDROID_ID);
+    public String getLastAndroidId() {
+        return snapshot.lastAndroidId;
     }
 
-    public synchronized void saveLastAndroidId(@Nullable final String androidId) {
-        OPFLog.logMethod(androidId);
-
-        if (androidId == null) {
-            preferences.remove(KEY_LAST_ANDROID_ID);
-        } else {
-            preferences.put(KEY_LAST_ANDROID_ID, androidId);
-        }
+    public void saveLastAndroidId(@Nullable final String androidId) {
+        edit().saveLastAndroidId(androidId).apply();
     }
 
-    public synchronized void saveUnregisteringProvider(@NonNull final String providerName) {
-        OPFLog.logMethod(providerName);
-        preferences.put(
-                getProviderPreferenceKey(KEY_UNREGISTERING_PROVIDER_PREFIX, providerName),
-                true
-        );
+    public void saveUnregisteringProvider(@NonNull final String providerName) {
+        edit().saveUnregisteringProvider(providerName).apply();
     }
 
-    public synchronized void removeUnregisteringProvider(@NonNull final String providerName) {
-        OPFLog.logMethod(providerName);
-        preferences.remove(getProviderPreferenceKey(KEY_UNREGISTERING_PROVIDER_PREFIX, providerName));
+    public void removeUnregisteringProvider(@NonNull final String providerName) {
+        edit().removeUnregisteringProvider(providerName).apply();
     }
 
-    public synchronized boolean isProviderUnregistrationPerforming(@NonNull final String providerName) {
+    public boolean isProviderUnregistrationPerforming(@NonNull final String providerName) {
         OPFLog.logMethod(providerName);
-        return preferences.getBoolean(
-                getProviderPreferenceKey(KEY_UNREGISTERING_PROVIDER_PREFIX, providerName),
-                false
-        );
+        return snapshot.unregisteringProviders.contains(normalize(providerName));
     }
 
-    public synchronized void saveRegisteringProvider(@NonNull final String providerName) {
-        OPFLog.logMethod(providerName);
-        preferences.put(
-                getProviderPreferenceKey(KEY_REGISTERING_PROVIDER_PREFIX, providerName),
-                true
-        );
+    public void saveRegisteringProvider(@NonNull final String providerName) {
+        edit().saveRegisteringProvider(providerName).apply();
     }
 
-    public synchronized void removeRegisteringProvider(@NonNull final String providerName) {
-        OPFLog.logMethod(providerName);
-        preferences.remove(getProviderPreferenceKey(KEY_REGISTERING_PROVIDER_PREFIX, providerName));
+    public void removeRegisteringProvider(@NonNull final String providerName) {
+        edit().removeRegisteringProvider(providerName).apply();
     }
 
-    public synchronized boolean isProviderRegistrationPerforming(@NonNull final String providerName) {
+    public boolean isProviderRegistrationPerforming(@NonNull final String providerName) {
         OPFLog.logMethod(providerName);
-        return preferences.getBoolean(
-                getProviderPreferenceKey(KEY_REGISTERING_PROVIDER_PREFIX, providerName),
-                false
-        );
+        return snapshot.registeringProviders.contains(normalize(providerName));
     }
 
-    public synchronized void savePendingRegistrationProvider(@NonNull final String providerName) {
-        OPFLog.logMethod(providerName);
-        preferences.put(KEY_PENDING_REGISTRATION_PROVIDER, providerName);
+    public void savePendingRegistrationProvider(@NonNull final String providerName) {
+        edit().savePendingRegistrationProvider(providerName).apply();
     }
 
-    public synchronized void removePendingRegistrationProvider() {
-        OPFLog.logMethod();
-        preferences.remove(KEY_PENDING_REGISTRATION_PROVIDER);
+    public void removePendingRegistrationProvider() {
+        edit().removePendingRegistrationProvider().apply();
     }
 
     @Nullable
-    public synchronized String getPendingRegistrationProvider() {
+    public String getPendingRegistrationProvider() {
         OPFLog.logMethod();
-        return preferences.getString(KEY_PENDING_REGISTRATION_PROVIDER);
+        return snapshot.pendingRegistrationProvider;
     }
 
-    public synchronized void savePendingUnregistrationProvider(@NonNull final String providerName) {
-        OPFLog.logMethod(providerName);
-        preferences.put(KEY_PENDING_UNREGISTRATION_PROVIDER, providerName);
+    public void savePendingUnregistrationProvider(@NonNull final String providerName) {
+        edit().savePendingUnregistrationProvider(providerName).apply();
     }
 
-    public synchronized void removePendingUnregistrationProvider() {
-        OPFLog.logMethod();
-        preferences.remove(KEY_PENDING_UNREGISTRATION_PROVIDER);
+    public void removePendingUnregistrationProvider() {
+        edit().removePendingUnregistrationProvider().apply();
     }
 
     @Nullable
-    public synchronized String getPendingUnregistrationProvider() {
+    public String getPendingUnregistrationProvider() {
         OPFLog.logMethod();
-        return preferences.getString(KEY_PENDING_UNREGISTRATION_PROVIDER);
+        return snapshot.pendingUnregistrationProvider;
+    }
+
+    @NonNull
+    private static String normalize(@NonNull final String providerName) {
+        return providerName.toLowerCase(Locale.US);
+    }
+
+    /**
+     * Collects changes of several values and applies them as one state transition.
+     * <p/>
+     * The in-memory snapshot is replaced once under the {@link Settings} lock, so no reader can see
+     * a half-applied transition. All changed keys are persisted by a single
+     * {@link SharedPreferences.Editor#apply()} call. If no value actually changes, nothing is written.
+     * A transaction must not be reused after {@link #apply()}.
+     */
+    final class Transaction {
+
+        private boolean isCleared;
+
+        @Nullable
+        private State state;
+
+        private boolean isLastProviderNameChanged;
+
+        @Nullable
+        private String lastProviderName;
+
+        private boolean isLastAndroidIdChanged;
+
+        @Nullable
+        private String lastAndroidId;
+
+        private boolean isPendingRegistrationProviderChanged;
+
+        @Nullable
+        private String pendingRegistrationProvider;
+
+        private boolean isPendingUnregistrationProviderChanged;
+
+        @Nullable
+        private String pendingUnregistrationProvider;
+
+        @NonNull
+        private final Map<String, Boolean> registeringProviders = new HashMap<>();
+
+        @NonNull
+        private final Map<String, Boolean> unregisteringProviders = new HashMap<>();
+
+        private Transaction() {
+        }
+
+        /**
+         * Removes all stored values before the other changes of this transaction are applied.
+         */
+        @NonNull
+        public Transaction clear() {
+            OPFLog.logMethod();
+            isCleared = true;
+            return this;
+        }
+
+        @NonNull
+        public Transaction saveState(@NonNull final State newState) {
+            OPFLog.logMethod(newState);
+            state = newState;
+            return this;
+        }
+
+        @NonNull
+        public Transaction saveLastProvider(@Nullable final PushProvider provider) {
+            OPFLog.logMethod(provider);
+            isLastProviderNameChanged = true;
+            lastProviderName = provider == null ? null : provider.getName();
+            return this;
+        }
+
+        @NonNull
+        public Transaction saveLastAndroidId(@Nullable final String androidId) {
+            OPFLog.logMethod(androidId);
+            isLastAndroidIdChanged = true;
+            lastAndroidId = androidId;
+            return this;
+        }
+
+        @NonNull
+        public Transaction saveUnregisteringProvider(@NonNull final String providerName) {
+            OPFLog.logMethod(providerName);
+            unregisteringProviders.put(normalize(providerName), true);
+            return this;
+        }
+
+        @NonNull
+        public Transaction removeUnregisteringProvider(@NonNull final String providerName) {
+            OPFLog.logMethod(providerName);
+            unregisteringProviders.put(normalize(providerName), false);
+            return this;
+        }
+
+        @NonNull
+        public Transaction saveRegisteringProvider(@NonNull final String providerName) {
+            OPFLog.logMethod(providerName);
+            registeringProviders.put(normalize(providerName), true);
+            return this;
+        }
+
+        @NonNull
+        public Transaction removeRegisteringProvider(@NonNull final String providerName) {
+            OPFLog.logMethod(providerName);
+            registeringProviders.put(normalize(providerName), false);
+            return this;
+        }
+
+        @NonNull
+        public Transaction savePendingRegistrationProvider(@NonNull final String providerName) {
+            OPFLog.logMethod(providerName);
+            isPendingRegistrationProviderChanged = true;
+            pendingRegistrationProvider = providerName;
+            return this;
+        }
+
+        @NonNull
+        public Transaction removePendingRegistrationProvider() {
+            OPFLog.logMethod();
+            isPendingRegistrationProviderChanged = true;
+            pendingRegistrationProvider = null;
+            return this;
+        }
+
+        @NonNull
+        public Transaction savePendingUnregistrationProvider(@NonNull final String providerName) {
+            OPFLog.logMethod(providerName);
+            isPendingUnregistrationProviderChanged = true;
+            pendingUnregistrationProvider = providerName;
+            return this;
+        }
+
+        @NonNull
+        public Transaction removePendingUnregistrationProvider() {
+            OPFLog.logMethod();
+            isPendingUnregistrationProviderChanged = true;
+            pendingUnregistrationProvider = null;
+            return this;
+        }
+
+        /**
+         * Publishes all collected changes at once and persists them asynchronously in one batch.
+         */
+        @SuppressWarnings({"PMD.NPathComplexity", "PMD.ModifiedCyclomaticComplexity", "PMD.StdCyclomaticComplexity"})
+        public void apply() {
+            synchronized (Settings.this) {
+                Snapshot newSnapshot = snapshot;
+                final SharedPreferences.Editor editor = preferences.edit();
+                boolean hasChanges = false;
+
+                if (isCleared) {
+                    newSnapshot = Snapshot.EMPTY;
+                    editor.clear();
+                    hasChanges = true;
+                }
+                if (state != null && state != newSnapshot.state) {
+                    newSnapshot = newSnapshot.withState(state);
+                    editor.putInt(KEY_STATE, state.getValue());
+                    hasChanges = true;
+                }
+                if (isLastProviderNameChanged
+                        && !TextUtils.equals(lastProviderName, newSnapshot.lastProviderName)) {
+                    newSnapshot = newSnapshot.withLastProviderName(lastProviderName);
+                    putOrRemove(editor, KEY_LAST_PROVIDER_NAME, lastProviderName);
+                    hasChanges = true;
+                }
+                if (isLastAndroidIdChanged
+                        && !TextUtils.equals(lastAndroidId, newSnapshot.lastAndroidId)) {
+                    newSnapshot = newSnapshot.withLastAndroidId(lastAndroidId);
+                    putOrRemove(editor, KEY_LAST_ANDROID_ID, lastAndroidId);
+                    hasChanges = true;
+                }
+                if (isPendingRegistrationProviderChanged
+                        && !TextUtils.equals(pendingRegistrationProvider, newSnapshot.pendingRegistrationProvider)) {
+                    newSnapshot = newSnapshot.withPendingRegistrationProvider(pendingRegistrationProvider);
+                    putOrRemove(editor, KEY_PENDING_REGISTRATION_PROVIDER, pendingRegistrationProvider);
+                    hasChanges = true;
+                }
+                if (isPendingUnregistrationProviderChanged
+                        && !TextUtils.equals(pendingUnregistrationProvider, newSnapshot.pendingUnregistrationProvider)) {
+                    newSnapshot = newSnapshot.withPendingUnregistrationProvider(pendingUnregistrationProvider);
+                    putOrRemove(editor, KEY_PENDING_UNREGISTRATION_PROVIDER, pendingUnregistrationProvider);
+                    hasChanges = true;
+                }
+                for (Map.Entry<String, Boolean> entry : registeringProviders.entrySet()) {
+                    final String providerName = entry.getKey();
+                    final boolean isPerforming = entry.getValue();
+                    if (newSnapshot.registeringProviders.contains(providerName) != isPerforming) {
+                        newSnapshot = newSnapshot.withRegisteringProvider(providerName, isPerforming);
+                        putOrRemove(editor, KEY_REGISTERING_PROVIDER_PREFIX + providerName, isPerforming);
+                        hasChanges = true;
+                    }
+                }
+                for (Map.Entry<String, Boolean> entry : unregisteringProviders.entrySet()) {
+                    final String providerName = entry.getKey();
+                    final boolean isPerforming = entry.getValue();
+                    if (newSnapshot.unregisteringProviders.contains(providerName) != isPerforming) {
+                        newSnapshot = newSnapshot.withUnregisteringProvider(providerName, isPerforming);
+                        putOrRemove(editor, KEY_UNREGISTERING_PROVIDER_PREFIX + providerName, isPerforming);
+                        hasChanges = true;
+                    }
+                }
+
+                if (hasChanges) {
+                    snapshot = newSnapshot;
+                    editor.apply();
+                } else {
+                    OPFLog.d("Nothing to apply");
+                }
+            }
+        }
+
+        private void putOrRemove(@NonNull final SharedPreferences.Editor editor,
+                                 @NonNull final String key,
+                                 @Nullable final String value) {
+            if (value == null) {
+                editor.remove(key);
+            } else {
+                editor.putString(key, value);
+            }
+        }
+
+        private void putOrRemove(@NonNull final SharedPreferences.Editor editor,
+                                 @NonNull final String key,
+                                 final boolean value) {
+            if (value) {
+                editor.putBoolean(key, true);
+            } else {
+                editor.remove(key);
+            }
+        }
     }
 
-    private String getProviderPreferenceKey(@NonNull final String prefix,
-                                            @NonNull final String providerName) {
-        return prefix + providerName.toLowerCase(Locale.US);
+    /**
+     * Immutable copy of all values stored by {@link Settings}.
+     * Provider names in the registering and unregistering sets are normalized by {@link #normalize(String)}.
+     */
+    private static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(
+                UNREGISTERED,
+                null,
+                null,
+                null,
+                null,
+                Collections.<String>emptySet(),
+                Collections.<String>emptySet()
+        );
+
+        /**
+         * {@code null} if an unknown value is stored.
+         */
+        @Nullable
+        final State state;
+
+        @Nullable
+        final String lastProviderName;
+
+        @Nullable
+        final String lastAndroidId;
+
+        @Nullable
+        final String pendingRegistrationProvider;
+
+        @Nullable
+        final String pendingUnregistrationProvider;
+
+        @NonNull
+        final Set<String> registeringProviders;
+
+        @NonNull
+        final Set<String> unregisteringProviders;
+
+        Snapshot(@Nullable final State state,
+                 @Nullable final String lastProviderName,
+                 @Nullable final String lastAndroidId,
+                 @Nullable final String pendingRegistrationProvider,
+                 @Nullable final String pendingUnregistrationProvider,
+                 @NonNull final Set<String> registeringProviders,
+                 @NonNull final Set<String> unregisteringProviders) {
+            this.state = state;
+            this.lastProviderName = lastProviderName;
+            this.lastAndroidId = lastAndroidId;
+            this.pendingRegistrationProvider = pendingRegistrationProvider;
+            this.pendingUnregistrationProvider = pendingUnregistrationProvider;
+            this.registeringProviders = registeringProviders;
+            this.unregisteringProviders = unregisteringProviders;
+        }
+
+        @NonNull
+        static Snapshot load(@NonNull final SharedPreferences preferences) {
+            final Set<String> registeringProviders = new HashSet<>();
+            final Set<String> unregisteringProviders = new HashSet<>();
+            for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+                final String key = entry.getKey();
+                if (!Boolean.TRUE.equals(entry.getValue())) {
+                    continue;
+                }
+                if (key.startsWith(KEY_REGISTERING_PROVIDER_PREFIX)) {
+                    registeringProviders.add(key.substring(KEY_REGISTERING_PROVIDER_PREFIX.length()));
+                } else if (key.startsWith(KEY_UNREGISTERING_PROVIDER_PREFIX)) {
+                    unregisteringProviders.add(key.substring(KEY_UNREGISTERING_PROVIDER_PREFIX.length()));
+                }
+            }
+
+            return new Snapshot(
+                    State.fromValue(preferences.getInt(KEY_STATE, UNREGISTERED.getValue())),
+                    preferences.getString(KEY_LAST_PROVIDER_NAME, null),
+                    preferences.getString(KEY_LAST_ANDROID_ID, null),
+                    preferences.getString(KEY_PENDING_REGISTRATION_PROVIDER, null),
+                    preferences.getString(KEY_PENDING_UNREGISTRATION_PROVIDER, null),
+                    Collections.unmodifiableSet(registeringProviders),
+                    Collections.unmodifiableSet(unregisteringProviders)
+            );
+        }
+
+        @NonNull
+        Snapshot withState(@NonNull final State newState) {
+            return new Snapshot(newState, lastProviderName, lastAndroidId,
+                    pendingRegistrationProvider, pendingUnregistrationProvider,
+                    registeringProviders, unregisteringProviders);
+        }
+
+        @NonNull
+        Snapshot withLastProviderName(@Nullable final String newLastProviderName) {
+            return new Snapshot(state, newLastProviderName, lastAndroidId,
+                    pendingRegistrationProvider, pendingUnregistrationProvider,
+                    registeringProviders, unregisteringProviders);
+        }
+
+        @NonNull
+        Snapshot withLastAndroidId(@Nullable final String newLastAndroidId) {
+            return new Snapshot(state, lastProviderName, newLastAndroidId,
+                    pendingRegistrationProvider, pendingUnregistrationProvider,
+                    registeringProviders, unregisteringProviders);
+        }
+
+        @NonNull
+        Snapshot withPendingRegistrationProvider(@Nullable final String providerName) {
+            return new Snapshot(state, lastProviderName, lastAndroidId,
+                    providerName, pendingUnregistrationProvider,
+                    registeringProviders, unregisteringProviders);
+        }
+
+        @NonNull
+        Snapshot withPendingUnregistrationProvider(@Nullable final String providerName) {
+            return new Snapshot(state, lastProviderName, lastAndroidId,
+                    pendingRegistrationProvider, providerName,
+                    registeringProviders, unregisteringProviders);
+        }
+
+        @NonNull
+        Snapshot withRegisteringProvider(@NonNull final String providerName, final boolean isPerforming) {
+            return new Snapshot(state, lastProviderName, lastAndroidId,
+                    pendingRegistrationProvider, pendingUnregistrationProvider,
+                    copyWith(registeringProviders, providerName, isPerforming), unregisteringProviders);
+        }
+
+        @NonNull
+        Snapshot withUnregisteringProvider(@NonNull final String providerName, final boolean isPerforming) {
+            return new Snapshot(state, lastProviderName, lastAndroidId,
+                    pendingRegistrationProvider, pendingUnregistrationProvider,
+                    registeringProviders, copyWith(unregisteringProviders, providerName, isPerforming));
+        }
+
+        @NonNull
+        private static Set<String> copyWith(@NonNull final Set<String> providers,
+                                            @NonNull final String providerName,
+                                            final boolean contains) {
+            if (providers.contains(providerName) == contains) {
+                return providers;
+            }
+
+            final Set<String> newProviders = new HashSet<>(providers);
+            if (contains) {
+                newProviders.add(providerName);
+            } else {
+                newProviders.remove(providerName);
+            }
+            return Collections.unmodifiableSet(newProviders);
+        }
     }
 }
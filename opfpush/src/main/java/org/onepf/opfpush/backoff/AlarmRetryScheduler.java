@@ -0,0 +1,50 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.backoff;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+/**
+ * Schedules retries by the {@link AlarmScheduler}. The alarm doesn't know about the network,
+ * so {@link RetryManager} defers the retry that is due while the device is offline until the connectivity change.
+ *
+ * @since 18.10.2026
+ */
+final class AlarmRetryScheduler implements RetryScheduler {
+
+    @NonNull
+    private final AlarmScheduler alarmScheduler;
+
+    AlarmRetryScheduler(@NonNull final Context appContext) {
+        this.alarmScheduler = AlarmScheduler.getInstance(appContext);
+    }
+
+    @Override
+    public void schedule(@NonNull final String providerName, @NonNull final String action, final long delayMillis) {
+        alarmScheduler.schedule(providerName, action, System.currentTimeMillis() + delayMillis);
+    }
+
+    @Override
+    public void cancel(@NonNull final String providerName, @NonNull final String action) {
+        alarmScheduler.cancel(providerName, action);
+    }
+
+    @Override
+    public boolean isNetworkAware() {
+        return false;
+    }
+}
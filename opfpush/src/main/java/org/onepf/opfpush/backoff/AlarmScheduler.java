@@ -0,0 +1,249 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.backoff;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Pair;
+
+import org.onepf.opfpush.RetryBroadcastReceiver;
+import org.onepf.opfutils.OPFLog;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import static android.content.Context.ALARM_SERVICE;
+import static org.onepf.opfpush.OPFConstants.ACTION_CHECK_ALARMS;
+
+/**
+ * Keeps the deadlines of the retries and the registering timeouts of all providers in one priority queue
+ * and arms a single alarm for the earliest deadline. So all deadlines use one {@link PendingIntent},
+ * and the deadlines that are close to each other are handled by one alarm.
+ * <p/>
+ * The deadlines are persisted, so they survive the process death as the separate alarms did.
+ *
+ * @since 18.10.2026
+ */
+@SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
+public final class AlarmScheduler {
+
+    /**
+     * The deadlines that are due within this window after the earliest one are handled by the same alarm.
+     */
+    static final long COALESCING_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The request code of the only alarm {@link PendingIntent}.
+     */
+    static final int ALARM_REQUEST_CODE = 0;
+
+    private static final String PREFERENCES_POSTFIX = ".opfpush.alarms";
+    private static final char KEY_SEPARATOR = '|';
+    private static final long NOT_ARMED = -1;
+
+    private static volatile AlarmScheduler instance;
+
+    @NonNull
+    private final Context appContext;
+
+    @NonNull
+    private final AlarmManager alarmManager;
+
+    @NonNull
+    private final SharedPreferences preferences;
+
+    @NonNull
+    private final PriorityQueue<Alarm> queue = new PriorityQueue<>();
+
+    @NonNull
+    private final Map<Pair<String, String>, Alarm> alarms = new HashMap<>();
+
+    private long armedTime = NOT_ARMED;
+
+    private AlarmScheduler(@NonNull final Context context) {
+        this.appContext = context.getApplicationContext();
+        this.alarmManager = (AlarmManager) appContext.getSystemService(ALARM_SERVICE);
+        this.preferences = appContext.getSharedPreferences(
+                appContext.getPackageName() + PREFERENCES_POSTFIX, Context.MODE_PRIVATE);
+        restoreAlarms();
+        arm();
+    }
+
+    @NonNull
+    public static AlarmScheduler getInstance(@NonNull final Context context) {
+        if (instance == null) {
+            synchronized (AlarmScheduler.class) {
+                if (instance == null) {
+                    instance = new AlarmScheduler(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Schedules the {@code action} for the {@code providerName} at the {@code time}.
+     * Replaces the previous deadline of the same action and provider.
+     *
+     * @param providerName The name of the provider.
+     * @param action       The action.
+     * @param time         The deadline in {@link System#currentTimeMillis()} time base.
+     */
+    public synchronized void schedule(@NonNull final String providerName,
+                                      @NonNull final String action,
+                                      final long time) {
+        OPFLog.d("Schedule %s for provider '%s' at %s", action, providerName, formatTime(time));
+        final Pair<String, String> key = new Pair<>(providerName, action);
+        removeAlarm(key);
+
+        final Alarm alarm = new Alarm(key, time);
+        alarms.put(key, alarm);
+        queue.add(alarm);
+        preferences.edit().putLong(toPreferenceKey(key), time).apply();
+        arm();
+    }
+
+    public synchronized void cancel(@NonNull final String providerName, @NonNull final String action) {
+        OPFLog.logMethod(providerName, action);
+        if (removeAlarm(new Pair<>(providerName, action))) {
+            arm();
+        }
+    }
+
+    /**
+     * Removes the deadlines that are due, including the ones in the coalescing window,
+     * and arms the alarm for the next deadline.
+     *
+     * @return The pairs of the provider name and the action that must be handled now, in the order of deadlines.
+     */
+    @NonNull
+    public synchronized List<Pair<String, String>> takeDueAlarms() {
+        final long dueTime = System.currentTimeMillis() + COALESCING_WINDOW_MILLIS;
+        final List<Pair<String, String>> dueAlarms = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().time <= dueTime) {
+            final Pair<String, String> key = queue.peek().key;
+            removeAlarm(key);
+            dueAlarms.add(key);
+        }
+
+        //The alarm has been delivered, so it must be armed again even if the earliest deadline is the same.
+        armedTime = NOT_ARMED;
+        arm();
+        return dueAlarms;
+    }
+
+    /**
+     * Returns the time of the armed alarm or {@code null} if the alarm isn't armed.
+     */
+    @Nullable
+    synchronized Long getArmedTime() {
+        return armedTime == NOT_ARMED ? null : armedTime;
+    }
+
+    private boolean removeAlarm(@NonNull final Pair<String, String> key) {
+        final Alarm alarm = alarms.remove(key);
+        if (alarm == null) {
+            return false;
+        }
+
+        queue.remove(alarm);
+        preferences.edit().remove(toPreferenceKey(key)).apply();
+        return true;
+    }
+
+    private void arm() {
+        final Alarm earliestAlarm = queue.peek();
+        if (earliestAlarm == null) {
+            if (armedTime != NOT_ARMED) {
+                OPFLog.d("Cancel alarm");
+                alarmManager.cancel(createPendingIntent());
+                armedTime = NOT_ARMED;
+            }
+        } else if (earliestAlarm.time != armedTime) {
+            OPFLog.d("Set alarm at %s", formatTime(earliestAlarm.time));
+            alarmManager.set(AlarmManager.RTC, earliestAlarm.time, createPendingIntent());
+            armedTime = earliestAlarm.time;
+        }
+    }
+
+    @NonNull
+    private PendingIntent createPendingIntent() {
+        final Intent intent = new Intent(appContext, RetryBroadcastReceiver.class);
+        intent.setAction(ACTION_CHECK_ALARMS);
+        return PendingIntent.getBroadcast(appContext, ALARM_REQUEST_CODE, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private void restoreAlarms() {
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            final String preferenceKey = entry.getKey();
+            final int separatorIndex = preferenceKey.indexOf(KEY_SEPARATOR);
+            if (separatorIndex < 0 || !(entry.getValue() instanceof Long)) {
+                continue;
+            }
+
+            final Pair<String, String> key = new Pair<>(
+                    preferenceKey.substring(separatorIndex + 1),
+                    preferenceKey.substring(0, separatorIndex)
+            );
+            final Alarm alarm = new Alarm(key, (Long) entry.getValue());
+            alarms.put(key, alarm);
+            queue.add(alarm);
+        }
+        OPFLog.d("Restored %d alarms", alarms.size());
+    }
+
+    @NonNull
+    private static String toPreferenceKey(@NonNull final Pair<String, String> key) {
+        return key.second + KEY_SEPARATOR + key.first;
+    }
+
+    @NonNull
+    private static String formatTime(final long time) {
+        return SimpleDateFormat.getDateTimeInstance(DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US)
+                .format(new Date(time));
+    }
+
+    private static final class Alarm implements Comparable<Alarm> {
+
+        @NonNull
+        private final Pair<String, String> key;
+
+        private final long time;
+
+        Alarm(@NonNull final Pair<String, String> key, final long time) {
+            this.key = key;
+            this.time = time;
+        }
+
+        @Override
+        public int compareTo(@NonNull final Alarm another) {
+            return time < another.time ? -1 : (time == another.time ? 0 : 1);
+        }
+    }
+}
@@ -17,14 +17,18 @@
 package org.onepf.opfpush.backoff;
 
 /**
+ * The strategy of delays between retries of an operation.
+ * <p/>
+ * Every provider gets its own instance for every operation, see {@link BackoffFactory}.
+ * Use {@link Backoffs} to get the built-in strategies.
+ *
  * @author Kirill Rozov
  * @since 05.09.14.
  */
-interface Backoff {
+public interface Backoff {
 
     /**
-     * Maximum number of try to register push provider.
-     * Zero value means that will be no retry.
+     * Returns {@code true} if there is one more try, {@code false} otherwise.
      */
     boolean hasTries();
 
@@ -32,7 +36,7 @@ interface Backoff {
      * Get delay before next attempt to register push provider.
      *
      * @return Period in milliseconds to wait before next try ro register.
-     * @throws {@link java.util.NoSuchElementException} if there are no more elements.
+     * @throws java.util.NoSuchElementException if there are no more tries.
      */
     long getTryDelay();
 
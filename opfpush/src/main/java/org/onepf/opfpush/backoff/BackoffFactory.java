@@ -0,0 +1,31 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.backoff;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Creates {@link Backoff} instances. A new instance is created for every provider and operation.
+ *
+ * @see Backoffs
+ * @see org.onepf.opfpush.configuration.Configuration.Builder#setBackoffFactory(BackoffFactory)
+ * @since 18.10.2026
+ */
+public interface BackoffFactory {
+
+    @NonNull
+    Backoff createBackoff();
+}
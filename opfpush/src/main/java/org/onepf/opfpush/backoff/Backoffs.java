@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.backoff;
+
+import android.support.annotation.NonNull;
+
+/**
+ * The factories of the built-in {@link Backoff} strategies.
+ * <p/>
+ * The jittered strategies spread retries of different devices in time, so devices that failed at the same moment,
+ * e.g. because of a server outage, don't retry all together.
+ *
+ * @since 18.10.2026
+ */
+public final class Backoffs {
+
+    private Backoffs() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the factory of the default backoff: the delay is {@code 2 << tryNumber} seconds
+     * up to about an hour, the count of tries is unlimited.
+     */
+    @NonNull
+    public static BackoffFactory infinityExponential() {
+        return new BackoffFactory() {
+            @NonNull
+            @Override
+            public Backoff createBackoff() {
+                return new InfinityExponentialBackoff();
+            }
+        };
+    }
+
+    /**
+     * Returns the factory of the exponential backoff without jitter: the delay is
+     * {@code min(maxDelayMillis, baseDelayMillis * 2 ^ tryNumber)}. The count of tries is unlimited.
+     *
+     * @param baseDelayMillis The delay before the first retry.
+     * @param maxDelayMillis  The maximum delay.
+     * @throws IllegalArgumentException If {@code baseDelayMillis} isn't positive
+     *                                  or {@code maxDelayMillis} is less than {@code baseDelayMillis}.
+     */
+    @NonNull
+    public static BackoffFactory cappedExponential(final long baseDelayMillis, final long maxDelayMillis) {
+        checkDelays(baseDelayMillis, maxDelayMillis);
+        return new BackoffFactory() {
+            @NonNull
+            @Override
+            public Backoff createBackoff() {
+                return new ExponentialBackoff(baseDelayMillis, maxDelayMillis);
+            }
+        };
+    }
+
+    /**
+     * Returns the factory of the "full jitter" backoff: the delay is a random value between zero and
+     * {@code min(maxDelayMillis, baseDelayMillis * 2 ^ tryNumber)}. The count of tries is unlimited.
+     *
+     * @param baseDelayMillis The upper bound of the delay before the first retry.
+     * @param maxDelayMillis  The maximum delay.
+     * @throws IllegalArgumentException If {@code baseDelayMillis} isn't positive
+     *                                  or {@code maxDelayMillis} is less than {@code baseDelayMillis}.
+     */
+    @NonNull
+    public static BackoffFactory fullJitter(final long baseDelayMillis, final long maxDelayMillis) {
+        checkDelays(baseDelayMillis, maxDelayMillis);
+        return new BackoffFactory() {
+            @NonNull
+            @Override
+            public Backoff createBackoff() {
+                return new FullJitterBackoff(baseDelayMillis, maxDelayMillis);
+            }
+        };
+    }
+
+    /**
+     * Returns the factory of the "decorrelated jitter" backoff: the delay is a random value between
+     * {@code baseDelayMillis} and the triple previous delay, but not greater than {@code maxDelayMillis}.
+     * The count of tries is unlimited.
+     *
+     * @param baseDelayMillis The minimum delay.
+     * @param maxDelayMillis  The maximum delay.
+     * @throws IllegalArgumentException If {@code baseDelayMillis} isn't positive
+     *                                  or {@code maxDelayMillis} is less than {@code baseDelayMillis}.
+     */
+    @NonNull
+    public static BackoffFactory decorrelatedJitter(final long baseDelayMillis, final long maxDelayMillis) {
+        checkDelays(baseDelayMillis, maxDelayMillis);
+        return new BackoffFactory() {
+            @NonNull
+            @Override
+            public Backoff createBackoff() {
+                return new DecorrelatedJitterBackoff(baseDelayMillis, maxDelayMillis);
+            }
+        };
+    }
+
+    /**
+     * Returns the factory of the backoff that gives at most {@code maxTries} tries with delays
+     * of the backoff that is created by the {@code factory}.
+     *
+     * @param factory  The factory of the backoff that computes delays.
+     * @param maxTries The maximum count of tries. Zero means that there will be no retries.
+     * @throws IllegalArgumentException If {@code maxTries} is negative.
+     */
+    @NonNull
+    public static BackoffFactory boundedTries(@NonNull final BackoffFactory factory, final int maxTries) {
+        if (maxTries < 0) {
+            throw new IllegalArgumentException("Max tries count must not be negative.");
+        }
+        return new BackoffFactory() {
+            @NonNull
+            @Override
+            public Backoff createBackoff() {
+                return new BoundedTriesBackoff(factory.createBackoff(), maxTries);
+            }
+        };
+    }
+
+    private static void checkDelays(final long baseDelayMillis, final long maxDelayMillis) {
+        if (baseDelayMillis <= 0) {
+            throw new IllegalArgumentException("Base delay must be positive.");
+        }
+        if (maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Max delay must not be less than base delay.");
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.backoff;
+
+import android.support.annotation.NonNull;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Gives at most {@code maxTries} tries with delays of the wrapped {@link Backoff}.
+ *
+ * @since 18.10.2026
+ */
+@SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
+final class BoundedTriesBackoff implements Backoff {
+
+    @NonNull
+    private final Backoff backoff;
+
+    private final int maxTries;
+
+    private int tryNumber;
+
+    BoundedTriesBackoff(@NonNull final Backoff backoff, final int maxTries) {
+        this.backoff = backoff;
+        this.maxTries = maxTries;
+    }
+
+    @Override
+    public synchronized boolean hasTries() {
+        return tryNumber < maxTries && backoff.hasTries();
+    }
+
+    @Override
+    public synchronized long getTryDelay() {
+        if (!hasTries()) {
+            throw new NoSuchElementException("All " + maxTries + " tries have been used.");
+        }
+
+        ++tryNumber;
+        return backoff.getTryDelay();
+    }
+
+    @Override
+    public synchronized void reset() {
+        tryNumber = 0;
+        backoff.reset();
+    }
+}
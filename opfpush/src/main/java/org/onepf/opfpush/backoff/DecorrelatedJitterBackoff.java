@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.backoff;
+
+import java.util.Random;
+
+/**
+ * The delay is a random value between {@code baseDelayMillis} and the triple previous delay,
+ * but not greater than {@code maxDelayMillis}.
+ *
+ * @since 18.10.2026
+ */
+@SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
+final class DecorrelatedJitterBackoff implements Backoff {
+
+    private static final int GROWTH_FACTOR = 3;
+
+    private final Random random = new Random();
+
+    private final long baseDelayMillis;
+
+    private final long maxDelayMillis;
+
+    private long prevDelayMillis;
+
+    DecorrelatedJitterBackoff(final long baseDelayMillis, final long maxDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.prevDelayMillis = baseDelayMillis;
+    }
+
+    @Override
+    public boolean hasTries() {
+        return true;
+    }
+
+    @Override
+    public synchronized long getTryDelay() {
+        final long upperDelay = prevDelayMillis > maxDelayMillis / GROWTH_FACTOR
+                ? maxDelayMillis
+                : prevDelayMillis * GROWTH_FACTOR;
+        final long delay = baseDelayMillis + (long) (random.nextDouble() * (upperDelay - baseDelayMillis));
+        prevDelayMillis = Math.min(maxDelayMillis, delay);
+        return prevDelayMillis;
+    }
+
+    @Override
+    public synchronized void reset() {
+        prevDelayMillis = baseDelayMillis;
+    }
+}
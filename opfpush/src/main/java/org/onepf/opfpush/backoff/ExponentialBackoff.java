@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.backoff;
+
+/**
+ * The delay is {@code min(maxDelayMillis, baseDelayMillis * 2 ^ tryNumber)}.
+ *
+ * @since 18.10.2026
+ */
+@SuppressWarnings("PMD.AvoidSynchronizedAtMethodLevel")
+class ExponentialBackoff implements Backoff {
+
+    private final long baseDelayMillis;
+
+    private final long maxDelayMillis;
+
+    private int tryNumber;
+
+    ExponentialBackoff(final long baseDelayMillis, final long maxDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    @Override
+    public boolean hasTries() {
+        return true;
+    }
+
+    @Override
+    public synchronized long getTryDelay() {
+        final long delay = getExponentialDelay(tryNumber);
+        if (delay < maxDelayMillis) {
+            ++tryNumber;
+        }
+        return delay;
+    }
+
+    @Override
+    public synchronized void reset() {
+        tryNumber = 0;
+    }
+
+    /**
+     * Returns {@code min(maxDelayMillis, baseDelayMillis * 2 ^ tryNumber)} without the overflow.
+     */
+    final long getExponentialDelay(final int tryNumber) {
+        if (tryNumber >= Long.SIZE - 1 || baseDelayMillis > maxDelayMillis >> tryNumber) {
+            return maxDelayMillis;
+        }
+        return baseDelayMillis << tryNumber;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.backoff;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfutils.OPFLog;
+import org.onepf.opfpush.model.Operation;
+
+/**
+ * The {@link BackoffManager} that uses the backoffs created by the {@link BackoffFactory}
+ * for both operations.
+ *
+ * @see Backoffs
+ * @since 18.10.2026
+ */
+public final class FactoryBackoffManager implements BackoffManager {
+
+    @NonNull
+    private final BackoffManager registerBackoffAdapter;
+
+    @NonNull
+    private final BackoffManager unregisterBackoffAdapter;
+
+    public FactoryBackoffManager(@NonNull final BackoffFactory backoffFactory) {
+        registerBackoffAdapter = new RegisterBackoffAdapter(backoffFactory);
+        unregisterBackoffAdapter = new UnregisterBackoffAdapter(backoffFactory);
+    }
+
+    @Override
+    public boolean hasTries(@NonNull final String providerName,
+                            @NonNull final Operation operation) {
+        OPFLog.logMethod(providerName, operation);
+        return getManagerByOperation(operation).hasTries(providerName, operation);
+    }
+
+    @Override
+    public long getTryDelay(@NonNull final String providerName,
+                            @NonNull final Operation operation) {
+        OPFLog.logMethod(providerName, operation);
+        return getManagerByOperation(operation).getTryDelay(providerName, operation);
+    }
+
+    @Override
+    public void reset(@NonNull final String providerName,
+                      @NonNull final Operation operation) {
+        OPFLog.logMethod(providerName, operation);
+        getManagerByOperation(operation).reset(providerName, operation);
+    }
+
+    @NonNull
+    private BackoffManager getManagerByOperation(@NonNull final Operation operation) {
+        switch (operation) {
+            case REGISTER:
+                return registerBackoffAdapter;
+            case UNREGISTER:
+                return unregisterBackoffAdapter;
+        }
+        throw new IllegalStateException("Wrong operation : " + operation);
+    }
+}
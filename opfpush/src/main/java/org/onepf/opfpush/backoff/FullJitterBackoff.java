@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.backoff;
+
+import java.util.Random;
+
+/**
+ * The delay is a random value between zero and {@code min(maxDelayMillis, baseDelayMillis * 2 ^ tryNumber)}.
+ *
+ * @since 18.10.2026
+ */
+final class FullJitterBackoff extends ExponentialBackoff {
+
+    private final Random random = new Random();
+
+    FullJitterBackoff(final long baseDelayMillis, final long maxDelayMillis) {
+        super(baseDelayMillis, maxDelayMillis);
+    }
+
+    @Override
+    public long getTryDelay() {
+        final long ceilingDelay = super.getTryDelay();
+        return (long) (random.nextDouble() * ceilingDelay);
+    }
+}
@@ -37,8 +37,9 @@ public final class InfinityExponentialBackoffManager implements BackoffManager {
     private final BackoffManager unregisterBackoffAdapter;
 
     private InfinityExponentialBackoffManager() {
-        registerBackoffAdapter = new RegisterBackoffAdapter<>(InfinityExponentialBackoff.class);
-        unregisterBackoffAdapter = new UnregisterBackoffAdapter<>(InfinityExponentialBackoff.class);
+        final BackoffFactory backoffFactory = Backoffs.infinityExponential();
+        registerBackoffAdapter = new RegisterBackoffAdapter(backoffFactory);
+        unregisterBackoffAdapter = new UnregisterBackoffAdapter(backoffFactory);
     }
 
     @SuppressWarnings("PMD.NonThreadSafeSingleton")
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.backoff;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.PersistableBundle;
+import android.support.annotation.NonNull;
+
+import org.onepf.opfpush.RetryJobService;
+import org.onepf.opfpush.configuration.Configuration;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.content.Context.JOB_SCHEDULER_SERVICE;
+import static org.onepf.opfpush.OPFConstants.ACTION_RETRY_REGISTER;
+import static org.onepf.opfpush.OPFConstants.EXTRA_PROVIDER_NAME;
+import static org.onepf.opfpush.RetryJobService.EXTRA_ACTION;
+
+/**
+ * Schedules retries by the {@link JobScheduler}. The job runs when the delay has passed
+ * and a network is available, so the retry doesn't need any other trigger.
+ * <p/>
+ * The job IDs share the ID space with the jobs of the app, so they are taken from the range
+ * that starts with the configured first job ID. Every provider gets two IDs in the order of the providers:
+ * one for the register retry and one for the unregister retry.
+ *
+ * @since 18.10.2026
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class JobRetryScheduler implements RetryScheduler {
+
+    @NonNull
+    private final Context appContext;
+
+    @NonNull
+    private final JobScheduler jobScheduler;
+
+    @NonNull
+    private final List<String> providerNames;
+
+    private final int firstJobId;
+
+    JobRetryScheduler(@NonNull final Context appContext,
+                      @NonNull final List<String> providerNames,
+                      final int firstJobId) {
+        this.appContext = appContext;
+        this.jobScheduler = (JobScheduler) appContext.getSystemService(JOB_SCHEDULER_SERVICE);
+        this.providerNames = new ArrayList<>(providerNames);
+        this.firstJobId = firstJobId;
+    }
+
+    @Override
+    public void schedule(@NonNull final String providerName, @NonNull final String action, final long delayMillis) {
+        OPFLog.d("Schedule job %s for provider '%s' in %d ms", action, providerName, delayMillis);
+
+        final PersistableBundle extras = new PersistableBundle();
+        extras.putString(EXTRA_PROVIDER_NAME, providerName);
+        extras.putString(EXTRA_ACTION, action);
+
+        final JobInfo jobInfo = new JobInfo.Builder(
+                getJobId(providerName, action),
+                new ComponentName(appContext, RetryJobService.class)
+        )
+                .setMinimumLatency(delayMillis)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setExtras(extras)
+                .build();
+        jobScheduler.schedule(jobInfo);
+    }
+
+    @Override
+    public void cancel(@NonNull final String providerName, @NonNull final String action) {
+        jobScheduler.cancel(getJobId(providerName, action));
+    }
+
+    @Override
+    public boolean isNetworkAware() {
+        return true;
+    }
+
+    private int getJobId(@NonNull final String providerName, @NonNull final String action) {
+        final int providerIndex = providerNames.indexOf(providerName);
+        if (providerIndex == -1) {
+            throw new IllegalArgumentException("Provider '" + providerName + "' isn't configured.");
+        }
+
+        final int actionOffset = ACTION_RETRY_REGISTER.equals(action) ? 0 : 1;
+        return firstJobId + providerIndex * Configuration.RETRY_JOB_IDS_PER_PROVIDER + actionOffset;
+    }
+}
@@ -21,52 +21,62 @@ import android.support.annotation.NonNull;
 import org.onepf.opfutils.OPFLog;
 import org.onepf.opfpush.model.Operation;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import static org.onepf.opfpush.model.Operation.REGISTER;
 
 /**
  * @author Roman Savin
  * @since 04.02.2015
  */
-final class RegisterBackoffAdapter<T extends Backoff> implements BackoffManager {
+final class RegisterBackoffAdapter implements BackoffManager {
+
+    @NonNull
+    private final BackoffFactory backoffFactory;
 
+    /**
+     * Every provider has its own backoff, so failures of one provider don't delay retries of another one.
+     * The map is accessed from the registration executor and the main thread.
+     */
     @NonNull
-    private final Backoff registerBackoff;
+    private final ConcurrentMap<String, Backoff> backoffMap = new ConcurrentHashMap<>();
 
-    public RegisterBackoffAdapter(@NonNull final Class<T> backoffClass) {
-        this.registerBackoff = createBackoff(backoffClass);
+    public RegisterBackoffAdapter(@NonNull final BackoffFactory backoffFactory) {
+        this.backoffFactory = backoffFactory;
     }
 
     @Override
     public boolean hasTries(@NonNull final String providerName, @NonNull final Operation operation) {
         OPFLog.logMethod(providerName, operation);
         checkOperation(operation);
-        return registerBackoff.hasTries();
+        return getBackoff(providerName).hasTries();
     }
 
     @Override
     public long getTryDelay(@NonNull final String providerName, @NonNull final Operation operation) {
         OPFLog.logMethod(providerName, operation);
         checkOperation(operation);
-        return registerBackoff.getTryDelay();
+        return getBackoff(providerName).getTryDelay();
     }
 
     @Override
     public void reset(@NonNull final String providerName, @NonNull final Operation operation) {
         OPFLog.logMethod(providerName, operation);
         checkOperation(operation);
-        registerBackoff.reset();
+        backoffMap.remove(providerName);
     }
 
     @NonNull
-    @SuppressWarnings("PMD.AvoidCatchingGenericException")
-    private Backoff createBackoff(@NonNull final Class<T> backoffClass) {
-        try {
-            return backoffClass.newInstance();
-        } catch (Exception e) {
-            OPFLog.w("Exception while instantiating class " + backoffClass + " : " + e);
-            OPFLog.w("Use " + InfinityExponentialBackoff.class.getSimpleName());
-            return new InfinityExponentialBackoff();
+    private Backoff getBackoff(@NonNull final String providerName) {
+        final Backoff backoff = backoffMap.get(providerName);
+        if (backoff != null) {
+            return backoff;
         }
+
+        final Backoff newBackoff = backoffFactory.createBackoff();
+        final Backoff existingBackoff = backoffMap.putIfAbsent(providerName, newBackoff);
+        return existingBackoff == null ? newBackoff : existingBackoff;
     }
 
     private void checkOperation(@NonNull final Operation operation) {
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.backoff;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persists the count of register tries of every provider, so the register backoff
+ * survives the process death.
+ *
+ * @since 18.10.2026
+ */
+final class RegisterTriesStorage {
+
+    private static final String PREFERENCES_POSTFIX = ".opfpush.backoff";
+    private static final String KEY_REGISTER_TRIES_PREFIX = "register_tries_";
+
+    @NonNull
+    private final SharedPreferences preferences;
+
+    RegisterTriesStorage(@NonNull final Context context) {
+        this(context.getSharedPreferences(context.getPackageName() + PREFERENCES_POSTFIX, Context.MODE_PRIVATE));
+    }
+
+    RegisterTriesStorage(@NonNull final SharedPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    void incrementTries(@NonNull final String providerName) {
+        final String key = KEY_REGISTER_TRIES_PREFIX + providerName;
+        preferences.edit().putInt(key, preferences.getInt(key, 0) + 1).apply();
+    }
+
+    void removeTries(@NonNull final String providerName) {
+        final String key = KEY_REGISTER_TRIES_PREFIX + providerName;
+        if (preferences.contains(key)) {
+            preferences.edit().remove(key).apply();
+        }
+    }
+
+    /**
+     * Returns the count of register tries by provider names.
+     */
+    @NonNull
+    Map<String, Integer> getTries() {
+        final Map<String, Integer> tries = new HashMap<>();
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            final String key = entry.getKey();
+            final Object value = entry.getValue();
+            if (key.startsWith(KEY_REGISTER_TRIES_PREFIX) && value instanceof Integer) {
+                tries.put(key.substring(KEY_REGISTER_TRIES_PREFIX.length()), (Integer) value);
+            }
+        }
+        return tries;
+    }
+}
@@ -16,43 +16,52 @@
 
 package org.onepf.opfpush.backoff;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
 import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Pair;
 
 import org.onepf.opfpush.ConnectivityChangeReceiver;
-import org.onepf.opfpush.RetryBroadcastReceiver;
 import org.onepf.opfpush.model.Operation;
 import org.onepf.opfutils.OPFChecks;
 import org.onepf.opfutils.OPFLog;
 import org.onepf.opfutils.exception.InitException;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Locale;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import static android.content.Context.ALARM_SERVICE;
+import static android.content.Context.CONNECTIVITY_SERVICE;
 import static android.net.ConnectivityManager.CONNECTIVITY_ACTION;
 import static org.onepf.opfpush.OPFConstants.ACTION_RETRY_REGISTER;
 import static org.onepf.opfpush.OPFConstants.ACTION_RETRY_UNREGISTER;
-import static org.onepf.opfpush.OPFConstants.EXTRA_PROVIDER_NAME;
 import static org.onepf.opfpush.model.Operation.REGISTER;
 import static org.onepf.opfpush.model.Operation.UNREGISTER;
 
 /**
+ * Schedules the retries of the registration and unregistration.
+ * <p/>
+ * A retry is executed once, when its delay has passed and a network is available.
+ * Since Lollipop the {@link android.app.job.JobScheduler} waits for both conditions.
+ * On older versions the retry is scheduled by the {@link android.app.AlarmManager}: a retry that is due
+ * while the device is offline is deferred until the {@link ConnectivityChangeReceiver} receives a connection.
+ *
  * @author Roman Savin
  * @since 06.02.2015
  */
 public final class RetryManager implements BackoffManager {
 
+    /**
+     * Limits the count of the register tries that are replayed after the process restart.
+     */
+    private static final int MAX_RESTORED_TRIES = 32;
+
     private static volatile RetryManager instance;
 
     @NonNull
@@ -62,28 +71,50 @@ public final class RetryManager implements BackoffManager {
     private final BackoffManager backoffManager;
 
     @NonNull
-    private final AlarmManager alarmManager;
+    private final RetryScheduler retryScheduler;
 
+    /**
+     * Changed by the registration executor and by the receivers on the main thread.
+     * Guarded by itself together with the {@link #connectivityChangeReceiver}.
+     */
+    @NonNull
     private final Set<Pair<String, String>> retryProvidersActions;
 
+    @NonNull
+    private final RegisterTriesStorage registerTriesStorage;
+
     @Nullable
     private ConnectivityChangeReceiver connectivityChangeReceiver;
 
     private RetryManager(@NonNull final Context context,
-                         @NonNull final BackoffManager backoffManager) {
+                         @NonNull final BackoffManager backoffManager,
+                         @NonNull final List<String> providerNames,
+                         final int firstRetryJobId) {
         this.appContext = context.getApplicationContext();
         this.backoffManager = backoffManager;
-        this.alarmManager = (AlarmManager) context.getSystemService(ALARM_SERVICE);
+        this.retryScheduler = createRetryScheduler(appContext, providerNames, firstRetryJobId);
         this.retryProvidersActions = new HashSet<>();
+        this.registerTriesStorage = new RegisterTriesStorage(appContext);
+        restoreRegisterTries();
     }
 
+    /**
+     * @param context         The context.
+     * @param backoffManager  The backoff manager of the retries.
+     * @param providerNames   The names of all configured providers in the order of the configuration.
+     * @param firstRetryJobId The first ID of the range of the retry job IDs,
+     *                        see {@link org.onepf.opfpush.configuration.Configuration#getFirstRetryJobId()}.
+     * @return The initialized {@code RetryManager}.
+     */
     @NonNull
     @SuppressWarnings("PMD.NonThreadSafeSingleton")
     public static RetryManager init(@NonNull final Context context,
-                            @NonNull final BackoffManager backoffManager) {
+                                    @NonNull final BackoffManager backoffManager,
+                                    @NonNull final List<String> providerNames,
+                                    final int firstRetryJobId) {
         OPFChecks.checkThread(true);
         checkInit(false);
-        return instance = new RetryManager(context, backoffManager);
+        return instance = new RetryManager(context, backoffManager, providerNames, firstRetryJobId);
     }
 
     @NonNull
@@ -115,6 +146,9 @@ public final class RetryManager implements BackoffManager {
     @Override
     public void reset(@NonNull final String providerName, @NonNull final Operation operation) {
         backoffManager.reset(providerName, operation);
+        if (operation == REGISTER) {
+            registerTriesStorage.removeTries(providerName);
+        }
     }
 
     public void postRetryRegister(@NonNull final String providerName) {
@@ -134,63 +168,147 @@ public final class RetryManager implements BackoffManager {
 
     public void cancelRetryRegister(@NonNull final String providerName) {
         OPFLog.logMethod(providerName);
-        cancelRetry(providerName, REGISTER, ACTION_RETRY_REGISTER);
+        reset(providerName, REGISTER);
+        cancelRetry(providerName, ACTION_RETRY_REGISTER);
+    }
+
+    /**
+     * Cancels the scheduled register retry but keeps the register backoff of the provider.
+     * So if the new registration attempt fails, the next retry continues the backoff
+     * instead of starting it again.
+     *
+     * @param providerName The name of the provider.
+     */
+    public void cancelScheduledRetryRegister(@NonNull final String providerName) {
+        OPFLog.logMethod(providerName);
+        cancelRetry(providerName, ACTION_RETRY_REGISTER);
     }
 
     public void cancelRetryUnregister(@NonNull final String providerName) {
         OPFLog.logMethod(providerName);
-        cancelRetry(providerName, UNREGISTER, ACTION_RETRY_UNREGISTER);
+        reset(providerName, UNREGISTER);
+        cancelRetry(providerName, ACTION_RETRY_UNREGISTER);
     }
 
+    /**
+     * @return The copy of the pairs of the provider name and the retry action that are scheduled or deferred.
+     */
     @NonNull
     public Set<Pair<String, String>> getRetryProvidersActions() {
         OPFLog.logMethod();
-        return retryProvidersActions;
+        synchronized (retryProvidersActions) {
+            return new HashSet<>(retryProvidersActions);
+        }
+    }
+
+    /**
+     * Must be called when the scheduled retry is delivered.
+     *
+     * @param providerName The name of the provider.
+     * @param action       The retry action.
+     * @return {@code true} if the retry must be executed now, {@code false} if the device is offline
+     * and the retry is deferred until the network is available.
+     */
+    public boolean onRetryDue(@NonNull final String providerName, @NonNull final String action) {
+        OPFLog.logMethod(providerName, action);
+        final Pair<String, String> providerAction = new Pair<>(providerName, action);
+        synchronized (retryProvidersActions) {
+            if (retryScheduler.isNetworkAware() || isNetworkConnected()) {
+                retryProvidersActions.remove(providerAction);
+                if (retryProvidersActions.isEmpty()) {
+                    unregisterConnectivityChangeReceiver();
+                }
+                return true;
+            }
+
+            OPFLog.d("Network isn't available. Retry %s of provider '%s' is deferred", action, providerName);
+            retryProvidersActions.add(providerAction);
+            registerConnectivityChangeReceiver();
+            return false;
+        }
+    }
+
+    /**
+     * Must be called when the connectivity is changed.
+     * Cancels the scheduled retries, so every retry is executed once.
+     *
+     * @return The pairs of the provider name and the retry action that must be executed now.
+     * The set is empty if the device is offline.
+     */
+    @NonNull
+    public Set<Pair<String, String>> onConnectivityChanged() {
+        OPFLog.logMethod();
+        synchronized (retryProvidersActions) {
+            if (retryProvidersActions.isEmpty() || !isNetworkConnected()) {
+                return Collections.emptySet();
+            }
+
+            final Set<Pair<String, String>> dueProvidersActions = new HashSet<>(retryProvidersActions);
+            for (Pair<String, String> providerAction : dueProvidersActions) {
+                cancelRetry(providerAction.first, providerAction.second);
+            }
+            return dueProvidersActions;
+        }
     }
 
     private void postRetry(@NonNull final String providerName,
                            @NonNull final Operation operation,
                            @NonNull final String action) {
-        final long when = System.currentTimeMillis() + getTryDelay(providerName, operation);
-        OPFLog.d("Post retry %s provider '%s' at %s",
-                operation,
-                providerName,
-                SimpleDateFormat.getDateTimeInstance(
-                        DateFormat.DEFAULT, DateFormat.DEFAULT, Locale.US
-                ).format(new Date(when))
-        );
-
-        retryProvidersActions.add(new Pair<>(providerName, action));
-        registerConnectivityChangeReceiver();
-
-        final Intent intent = new Intent(appContext, RetryBroadcastReceiver.class);
-        intent.setAction(action);
-        intent.putExtra(EXTRA_PROVIDER_NAME, providerName);
+        final long delay = getTryDelay(providerName, operation);
+        if (operation == REGISTER) {
+            registerTriesStorage.incrementTries(providerName);
+        }
+        OPFLog.d("Post retry %s provider '%s' in %d ms", operation, providerName, delay);
 
-        alarmManager.set(
-                AlarmManager.RTC,
-                when,
-                PendingIntent.getBroadcast(appContext, providerName.hashCode(), intent, 0)
-        );
+        synchronized (retryProvidersActions) {
+            retryProvidersActions.add(new Pair<>(providerName, action));
+            if (!retryScheduler.isNetworkAware()) {
+                registerConnectivityChangeReceiver();
+            }
+        }
+        retryScheduler.schedule(providerName, action, delay);
     }
 
     private void cancelRetry(@NonNull final String providerName,
-                             @NonNull final Operation operation,
                              @NonNull final String action) {
-        reset(providerName, operation);
+        synchronized (retryProvidersActions) {
+            retryProvidersActions.remove(new Pair<>(providerName, action));
+            if (retryProvidersActions.isEmpty()) {
+                unregisterConnectivityChangeReceiver();
+            }
+        }
+        retryScheduler.cancel(providerName, action);
+    }
 
-        retryProvidersActions.remove(new Pair<>(providerName, action));
-        if (retryProvidersActions.isEmpty()) {
-            unregisterConnectivityChangeReceiver();
+    @NonNull
+    private static RetryScheduler createRetryScheduler(@NonNull final Context appContext,
+                                                       @NonNull final List<String> providerNames,
+                                                       final int firstRetryJobId) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return new JobRetryScheduler(appContext, providerNames, firstRetryJobId);
         }
+        return new AlarmRetryScheduler(appContext);
+    }
 
-        final Intent intent = new Intent(appContext, RetryBroadcastReceiver.class);
-        intent.setAction(action);
+    private boolean isNetworkConnected() {
+        final ConnectivityManager connectivityManager =
+                (ConnectivityManager) appContext.getSystemService(CONNECTIVITY_SERVICE);
+        final NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
 
-        final PendingIntent pendingIntent = PendingIntent
-                .getBroadcast(appContext, providerName.hashCode(), intent, 0);
-        alarmManager.cancel(pendingIntent);
-        pendingIntent.cancel();
+    /**
+     * Moves the register backoff of every provider to the state before the process death.
+     */
+    private void restoreRegisterTries() {
+        for (Map.Entry<String, Integer> entry : registerTriesStorage.getTries().entrySet()) {
+            final String providerName = entry.getKey();
+            final int tries = Math.min(entry.getValue(), MAX_RESTORED_TRIES);
+            OPFLog.d("Restore %d register tries of provider '%s'", tries, providerName);
+            for (int i = 0; i < tries && backoffManager.hasTries(providerName, REGISTER); ++i) {
+                backoffManager.getTryDelay(providerName, REGISTER);
+            }
+        }
     }
 
     private void registerConnectivityChangeReceiver() {
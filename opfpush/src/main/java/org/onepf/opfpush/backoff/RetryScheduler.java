@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.backoff;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Schedules the retries of the operations. The scheduled retry is delivered as the {@code action}
+ * for the {@code providerName}, see {@link RetryManager#onRetryDue(String, String)}.
+ *
+ * @since 18.10.2026
+ */
+interface RetryScheduler {
+
+    void schedule(@NonNull final String providerName, @NonNull final String action, final long delayMillis);
+
+    void cancel(@NonNull final String providerName, @NonNull final String action);
+
+    /**
+     * Returns {@code true} if the retry is delivered only when a network is available,
+     * {@code false} if the retry can be delivered while the device is offline.
+     */
+    boolean isNetworkAware();
+}
@@ -21,8 +21,8 @@ import android.support.annotation.NonNull;
 import org.onepf.opfutils.OPFLog;
 import org.onepf.opfpush.model.Operation;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.onepf.opfpush.model.Operation.UNREGISTER;
 
@@ -30,16 +30,19 @@ import static org.onepf.opfpush.model.Operation.UNREGISTER;
  * @author Roman Savin
  * @since 03.02.2015
  */
-final class UnregisterBackoffAdapter<T extends Backoff> implements BackoffManager {
+final class UnregisterBackoffAdapter implements BackoffManager {
 
     @NonNull
-    private final Class<T> backoffClass;
+    private final BackoffFactory backoffFactory;
 
+    /**
+     * The map is accessed from the registration executor and the main thread.
+     */
     @NonNull
-    private final Map<String, Backoff> backoffMap = new HashMap<>();
+    private final ConcurrentMap<String, Backoff> backoffMap = new ConcurrentHashMap<>();
 
-    public UnregisterBackoffAdapter(@NonNull final Class<T> backoffClass) {
-        this.backoffClass = backoffClass;
+    public UnregisterBackoffAdapter(@NonNull final BackoffFactory backoffFactory) {
+        this.backoffFactory = backoffFactory;
     }
 
     @Override
@@ -47,14 +50,7 @@ final class UnregisterBackoffAdapter<T extends Backoff> implements BackoffManage
                             @NonNull final Operation operation) {
         OPFLog.logMethod(providerName, operation);
         checkOperation(operation);
-        if (backoffMap.containsKey(providerName)) {
-            OPFLog.d("Backoff map contains key for provider " + providerName);
-            return backoffMap.get(providerName).hasTries();
-        }
-
-        final Backoff newUnregisterBackoff = createBackoff();
-        backoffMap.put(providerName, newUnregisterBackoff);
-        return newUnregisterBackoff.hasTries();
+        return getBackoff(providerName).hasTries();
     }
 
     @Override
@@ -62,36 +58,29 @@ final class UnregisterBackoffAdapter<T extends Backoff> implements BackoffManage
                             @NonNull final Operation operation) {
         OPFLog.logMethod(providerName, operation);
         checkOperation(operation);
-        if (backoffMap.containsKey(providerName)) {
-            OPFLog.d("Backoff map contains key for provider " + providerName);
-            return backoffMap.get(providerName).getTryDelay();
-        }
-
-        final Backoff newUnregisterBackoff = createBackoff();
-        backoffMap.put(providerName, newUnregisterBackoff);
-        return newUnregisterBackoff.getTryDelay();
+        return getBackoff(providerName).getTryDelay();
     }
 
     @Override
     public void reset(@NonNull final String providerName, @NonNull final Operation operation) {
         OPFLog.logMethod(providerName, operation);
         checkOperation(operation);
-        if (backoffMap.containsKey(providerName)) {
-            OPFLog.d("Backoff map contains key for provider " + providerName);
-            backoffMap.remove(providerName);
+        if (backoffMap.remove(providerName) != null) {
+            OPFLog.d("Backoff is removed for provider " + providerName);
         }
     }
 
     @NonNull
-    @SuppressWarnings("PMD.AvoidCatchingGenericException")
-    private Backoff createBackoff() {
-        try {
-            return backoffClass.newInstance();
-        } catch (Exception e) {
-            OPFLog.w("Exception while instantiating class " + backoffClass + " : " + e);
-            OPFLog.w("Use " + InfinityExponentialBackoff.class.getSimpleName());
-            return new InfinityExponentialBackoff();
+    private Backoff getBackoff(@NonNull final String providerName) {
+        final Backoff backoff = backoffMap.get(providerName);
+        if (backoff != null) {
+            OPFLog.d("Backoff map contains key for provider " + providerName);
+            return backoff;
         }
+
+        final Backoff newUnregisterBackoff = backoffFactory.createBackoff();
+        final Backoff existingBackoff = backoffMap.putIfAbsent(providerName, newUnregisterBackoff);
+        return existingBackoff == null ? newUnregisterBackoff : existingBackoff;
     }
 
     private void checkOperation(@NonNull final Operation operation) {
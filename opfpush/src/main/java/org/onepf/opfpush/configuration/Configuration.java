@@ -20,6 +20,7 @@ package org.onepf.opfpush.configuration;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import org.onepf.opfpush.backoff.BackoffFactory;
 import org.onepf.opfpush.listener.CheckManifestHandler;
 import org.onepf.opfpush.listener.EventListener;
 import org.onepf.opfpush.pushprovider.PushProvider;
@@ -28,9 +29,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The instance of this class is used as an argument of the {@link org.onepf.opfpush.OPFPush#init(android.content.Context, Configuration)}
@@ -43,6 +47,23 @@ import java.util.Map;
 @SuppressWarnings("PMD.MissingStaticMethodInNonInstantiatableClass")
 public final class Configuration {
 
+    /**
+     * The default time in milliseconds during which a provider must be registered.
+     * When the time is over, the next available provider is chosen.
+     */
+    public static final long DEFAULT_REGISTERING_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * The default first ID of the range of the {@link android.app.job.JobScheduler} job IDs
+     * that are used for the retries of the registration and the unregistration. It is "OPF" in ASCII.
+     */
+    public static final int DEFAULT_FIRST_RETRY_JOB_ID = 0x4F504600;
+
+    /**
+     * The count of the retry job IDs that are used for every provider.
+     */
+    public static final int RETRY_JOB_IDS_PER_PROVIDER = 2;
+
     @NonNull
     private final List<PushProvider> providers;
 
@@ -54,14 +75,70 @@ public final class Configuration {
 
     private final boolean isSelectSystemPreferred;
 
+    private final boolean isBackgroundThreadEnabled;
+
+    private final int messageBatchMaxCount;
+
+    private final long messageBatchWindowMillis;
+
+    @Nullable
+    private final Executor callbackExecutor;
+
+    private final boolean isInProcessReceiverEnabled;
+
+    @Nullable
+    private final BackoffFactory backoffFactory;
+
+    private final long registeringTimeoutMillis;
+
+    @NonNull
+    private final Map<String, Long> providerRegisteringTimeouts;
+
+    private final boolean isAdaptiveRegisteringTimeoutEnabled;
+
+    private final int hedgedRegistrationCount;
+
+    private final boolean isDeferredManifestCheckEnabled;
+
+    private final boolean isOptimisticRestoreEnabled;
+
+    private final int firstRetryJobId;
+
+    @SuppressWarnings("PMD.ExcessiveParameterList")
     private Configuration(@NonNull final Collection<? extends PushProvider> providers,
                           @Nullable final EventListener eventListener,
                           final boolean selectSystemPreferred,
-                          @Nullable CheckManifestHandler checkManifestHandler) {
+                          @Nullable CheckManifestHandler checkManifestHandler,
+                          final boolean backgroundThreadEnabled,
+                          final int messageBatchMaxCount,
+                          final long messageBatchWindowMillis,
+                          @Nullable final Executor callbackExecutor,
+                          final boolean inProcessReceiverEnabled,
+                          @Nullable final BackoffFactory backoffFactory,
+                          final long registeringTimeoutMillis,
+                          @NonNull final Map<String, Long> providerRegisteringTimeouts,
+                          final boolean adaptiveRegisteringTimeoutEnabled,
+                          final int hedgedRegistrationCount,
+                          final boolean deferredManifestCheckEnabled,
+                          final boolean optimisticRestoreEnabled,
+                          final int firstRetryJobId) {
         this.providers = Collections.unmodifiableList(new ArrayList<>(providers));
         this.eventListener = eventListener;
         this.isSelectSystemPreferred = selectSystemPreferred;
         this.checkManifestHandler = checkManifestHandler;
+        this.isBackgroundThreadEnabled = backgroundThreadEnabled;
+        this.messageBatchMaxCount = messageBatchMaxCount;
+        this.messageBatchWindowMillis = messageBatchWindowMillis;
+        this.callbackExecutor = callbackExecutor;
+        this.isInProcessReceiverEnabled = inProcessReceiverEnabled;
+        this.backoffFactory = backoffFactory;
+        this.registeringTimeoutMillis = registeringTimeoutMillis;
+        this.providerRegisteringTimeouts = Collections.unmodifiableMap(new HashMap<>(providerRegisteringTimeouts));
+        this.isAdaptiveRegisteringTimeoutEnabled = adaptiveRegisteringTimeoutEnabled;
+        this.hedgedRegistrationCount = hedgedRegistrationCount;
+        this.isDeferredManifestCheckEnabled = deferredManifestCheckEnabled;
+        this.isOptimisticRestoreEnabled = optimisticRestoreEnabled;
+        this.firstRetryJobId = firstRetryJobId;
     }
 
     /**
@@ -103,11 +180,153 @@ public final class Configuration {
         return checkManifestHandler;
     }
 
+    /**
+     * Returns {@code true} if the helper operations are performed on the dedicated background thread,
+     * false otherwise.
+     *
+     * @return {@code true} if the helper operations are performed on the dedicated background thread,
+     * false otherwise.
+     */
+    public boolean isBackgroundThreadEnabled() {
+        return isBackgroundThreadEnabled;
+    }
+
+    /**
+     * Returns {@code true} if received messages are delivered in batches, false otherwise.
+     *
+     * @return {@code true} if received messages are delivered in batches, false otherwise.
+     */
+    public boolean isMessageBatchingEnabled() {
+        return messageBatchMaxCount > 1;
+    }
+
+    /**
+     * Returns the maximum count of messages in one batch.
+     *
+     * @return The maximum count of messages in one batch.
+     */
+    public int getMessageBatchMaxCount() {
+        return messageBatchMaxCount;
+    }
+
+    /**
+     * Returns the time in milliseconds during which received messages are collected into one batch.
+     *
+     * @return The time in milliseconds during which received messages are collected into one batch.
+     */
+    public long getMessageBatchWindowMillis() {
+        return messageBatchWindowMillis;
+    }
+
+    /**
+     * Returns the executor of the {@link EventListener} callbacks.
+     *
+     * @return The executor of the {@link EventListener} callbacks. Null means the main thread.
+     */
+    @Nullable
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Returns {@code true} if events are delivered to the {@link org.onepf.opfpush.receiver.OPFPushReceiver}
+     * of the current process without the system server, false otherwise.
+     *
+     * @return {@code true} if events are delivered to the {@link org.onepf.opfpush.receiver.OPFPushReceiver}
+     * of the current process without the system server, false otherwise.
+     */
+    public boolean isInProcessReceiverEnabled() {
+        return isInProcessReceiverEnabled;
+    }
+
+    /**
+     * Returns the factory of the backoffs of registration and unregistration retries.
+     *
+     * @return The factory of the backoffs. Null means the default exponential backoff.
+     */
+    @Nullable
+    public BackoffFactory getBackoffFactory() {
+        return backoffFactory;
+    }
+
+    /**
+     * Returns the time in milliseconds during which the provider must be registered.
+     * When the time is over, the next available provider is chosen.
+     *
+     * @param providerName The name of the provider.
+     * @return The registering timeout of the provider in milliseconds.
+     */
+    public long getRegisteringTimeoutMillis(@NonNull final String providerName) {
+        final Long providerRegisteringTimeout = providerRegisteringTimeouts.get(providerName);
+        return providerRegisteringTimeout == null ? registeringTimeoutMillis : providerRegisteringTimeout;
+    }
+
+    /**
+     * Returns {@code true} if the registering timeout is adapted to the observed registration latency,
+     * {@code false} otherwise.
+     *
+     * @return {@code true} if the registering timeout is adapted to the observed registration latency,
+     * {@code false} otherwise.
+     */
+    public boolean isAdaptiveRegisteringTimeoutEnabled() {
+        return isAdaptiveRegisteringTimeoutEnabled;
+    }
+
+    /**
+     * Returns the maximum count of providers which registration is started concurrently.
+     *
+     * @return The maximum count of providers which registration is started concurrently.
+     * One means that providers are registered one by one.
+     */
+    public int getHedgedRegistrationCount() {
+        return hedgedRegistrationCount;
+    }
+
+    /**
+     * Returns {@code true} if the manifest is checked on the background thread once for every app version,
+     * {@code false} if it's checked on every initialization of the {@link org.onepf.opfpush.OPFPushHelper}.
+     *
+     * @return {@code true} if the manifest check is deferred, {@code false} otherwise.
+     */
+    public boolean isDeferredManifestCheckEnabled() {
+        return isDeferredManifestCheckEnabled;
+    }
+
+    /**
+     * Returns {@code true} if the stored registered provider is restored without the availability check,
+     * which is performed on the background thread instead, {@code false} otherwise.
+     *
+     * @return {@code true} if the optimistic restoring of the last provider is enabled, {@code false} otherwise.
+     */
+    public boolean isOptimisticRestoreEnabled() {
+        return isOptimisticRestoreEnabled;
+    }
+
+    /**
+     * Returns the first ID of the range of the {@link android.app.job.JobScheduler} job IDs that are used
+     * for the retries. The range contains {@link #RETRY_JOB_IDS_PER_PROVIDER} IDs for every provider.
+     *
+     * @return The first ID of the range of the retry job IDs.
+     */
+    public int getFirstRetryJobId() {
+        return firstRetryJobId;
+    }
+
     @Override
     public String toString() {
         return "Configuration {"
                 + "providers = " + providers
                 + ", isSelectSystemPreferred = " + isSelectSystemPreferred
+                + ", isBackgroundThreadEnabled = " + isBackgroundThreadEnabled
+                + ", messageBatchMaxCount = " + messageBatchMaxCount
+                + ", messageBatchWindowMillis = " + messageBatchWindowMillis
+                + ", registeringTimeoutMillis = " + registeringTimeoutMillis
+                + ", providerRegisteringTimeouts = " + providerRegisteringTimeouts
+                + ", isAdaptiveRegisteringTimeoutEnabled = " + isAdaptiveRegisteringTimeoutEnabled
+                + ", hedgedRegistrationCount = " + hedgedRegistrationCount
+                + ", isDeferredManifestCheckEnabled = " + isDeferredManifestCheckEnabled
+                + ", isOptimisticRestoreEnabled = " + isOptimisticRestoreEnabled
+                + ", firstRetryJobId = " + firstRetryJobId
                 + '}';
     }
 
@@ -127,6 +346,35 @@ public final class Configuration {
         @Nullable
         private CheckManifestHandler checkManifestHandler;
 
+        private boolean isBackgroundThreadEnabled;
+
+        private int messageBatchMaxCount = 1;
+
+        private long messageBatchWindowMillis;
+
+        @Nullable
+        private Executor callbackExecutor;
+
+        private boolean isInProcessReceiverEnabled;
+
+        @Nullable
+        private BackoffFactory backoffFactory;
+
+        private long registeringTimeoutMillis = DEFAULT_REGISTERING_TIMEOUT_MILLIS;
+
+        @NonNull
+        private final Map<String, Long> providerRegisteringTimeouts = new HashMap<>();
+
+        private boolean isAdaptiveRegisteringTimeoutEnabled;
+
+        private int hedgedRegistrationCount = 1;
+
+        private boolean isDeferredManifestCheckEnabled;
+
+        private boolean isOptimisticRestoreEnabled;
+
+        private int firstRetryJobId = DEFAULT_FIRST_RETRY_JOB_ID;
+
         /**
          * See {@link #addProviders(java.util.List)}
          *
@@ -197,11 +445,233 @@ public final class Configuration {
             return this;
         }
 
+        /**
+         * If you set {@code true}, the registration, the unregistration, the restoring of the last provider
+         * and the handling of the provider callbacks will be performed on the dedicated background thread
+         * instead of the calling thread. So the main thread doesn't touch the disk and the package manager
+         * during these operations. Results are delivered via the {@link EventListener}
+         * or the {@link org.onepf.opfpush.receiver.OPFPushReceiver} as usual.
+         * False by default.
+         *
+         * @param isBackgroundThreadEnabled {@code true} if the background thread must be used, {@code false} otherwise.
+         * @return The current {@code Builder}.
+         */
+        @NonNull
+        public Builder setBackgroundThreadEnabled(final boolean isBackgroundThreadEnabled) {
+            this.isBackgroundThreadEnabled = isBackgroundThreadEnabled;
+            return this;
+        }
+
+        /**
+         * Enables the delivery of received messages in batches. Messages that are received within
+         * {@code windowMillis} after the first message of a batch are delivered together,
+         * a batch is delivered immediately when it contains {@code maxCount} messages.
+         * If the event listener implements the {@link org.onepf.opfpush.listener.BatchEventListener} interface,
+         * a batch is passed to the {@link org.onepf.opfpush.listener.BatchEventListener#onMessages} method,
+         * otherwise the {@link EventListener#onMessage} method is called for each message.
+         * Disabled by default.
+         *
+         * @param maxCount     The maximum count of messages in one batch. {@code 1} disables the batching.
+         * @param windowMillis The time in milliseconds during which messages are collected into one batch.
+         * @return The current {@code Builder}.
+         * @throws java.lang.IllegalArgumentException If {@code maxCount} is less than 1
+         *                                            or {@code windowMillis} is negative.
+         */
+        @NonNull
+        public Builder setMessageBatching(final int maxCount, final long windowMillis) {
+            if (maxCount < 1) {
+                throw new IllegalArgumentException("Max count of messages in a batch must be positive.");
+            }
+            if (windowMillis < 0) {
+                throw new IllegalArgumentException("Batch window must not be negative.");
+            }
+
+            this.messageBatchMaxCount = maxCount;
+            this.messageBatchWindowMillis = windowMillis;
+            return this;
+        }
+
+        /**
+         * Sets the executor on which the {@link EventListener} callbacks are called. Received messages are also passed
+         * to the {@link org.onepf.opfpush.notification.NotificationMaker} via this executor.
+         * Use it if the listener does the background work, e.g. writes messages to a database,
+         * to avoid the hop to the main thread and back. Callbacks keep their order only if the executor
+         * runs tasks one by one.
+         * The main thread is used by default.
+         *
+         * @param callbackExecutor The executor of the {@link EventListener} callbacks.
+         * @return The current {@code Builder}.
+         */
+        @NonNull
+        public Builder setCallbackExecutor(@NonNull final Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * If you set {@code true} and handle events via the {@link org.onepf.opfpush.receiver.OPFPushReceiver}
+         * that runs in the current process, events are passed to the receiver without the system broadcast.
+         * As for the system broadcast, a new receiver instance gets every event in the main thread.
+         * But an event that is sent in the main thread is delivered immediately
+         * and the receiver can't call {@link android.content.BroadcastReceiver#goAsync()}.
+         * False by default.
+         *
+         * @param isInProcessReceiverEnabled {@code true} if events must be delivered without the system broadcast
+         *                                   when it's possible, {@code false} otherwise.
+         * @return The current {@code Builder}.
+         */
+        @NonNull
+        public Builder setInProcessReceiverEnabled(final boolean isInProcessReceiverEnabled) {
+            this.isInProcessReceiverEnabled = isInProcessReceiverEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the strategy of delays between retries of registration and unregistration.
+         * Every provider gets its own backoff for every operation. If the backoff runs out of tries,
+         * the registration error is handled as unrecoverable and the next available provider is chosen.
+         * See {@link org.onepf.opfpush.backoff.Backoffs} for the built-in strategies.
+         * The exponential backoff with unlimited count of tries is used by default.
+         *
+         * @param backoffFactory The factory of the backoffs.
+         * @return The current {@code Builder}.
+         */
+        @NonNull
+        public Builder setBackoffFactory(@NonNull final BackoffFactory backoffFactory) {
+            this.backoffFactory = backoffFactory;
+            return this;
+        }
+
+        /**
+         * Sets the time during which a provider must be registered. When the time is over,
+         * the next available provider is chosen.
+         * {@link Configuration#DEFAULT_REGISTERING_TIMEOUT_MILLIS} by default.
+         *
+         * @param timeoutMillis The registering timeout in milliseconds.
+         * @return The current {@code Builder}.
+         * @throws java.lang.IllegalArgumentException If {@code timeoutMillis} isn't positive.
+         */
+        @NonNull
+        public Builder setRegisteringTimeout(final long timeoutMillis) {
+            checkRegisteringTimeout(timeoutMillis);
+            this.registeringTimeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * Sets the time during which the provider must be registered. It overrides the timeout
+         * that is set by {@link #setRegisteringTimeout(long)} for this provider.
+         *
+         * @param providerName  The name of the provider.
+         * @param timeoutMillis The registering timeout of the provider in milliseconds.
+         * @return The current {@code Builder}.
+         * @throws java.lang.IllegalArgumentException If {@code timeoutMillis} isn't positive.
+         */
+        @NonNull
+        public Builder setRegisteringTimeout(@NonNull final String providerName, final long timeoutMillis) {
+            checkRegisteringTimeout(timeoutMillis);
+            providerRegisteringTimeouts.put(providerName, timeoutMillis);
+            return this;
+        }
+
+        /**
+         * If you set {@code true}, the latency of every successful registration is stored
+         * and the registering timeout of the provider is derived from the 95th percentile of the stored latencies.
+         * It makes the failover to the next provider much faster when the provider is silently stuck.
+         * The adapted timeout is never greater than the configured one, which is also used until
+         * there are enough stored latencies.
+         * False by default.
+         *
+         * @param isAdaptiveRegisteringTimeoutEnabled {@code true} if the registering timeout must be adapted
+         *                                            to the observed registration latency, {@code false} otherwise.
+         * @return The current {@code Builder}.
+         */
+        @NonNull
+        public Builder setAdaptiveRegisteringTimeoutEnabled(final boolean isAdaptiveRegisteringTimeoutEnabled) {
+            this.isAdaptiveRegisteringTimeoutEnabled = isAdaptiveRegisteringTimeoutEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the maximum count of the available providers with the highest priority which registration is started
+         * concurrently. The {@link org.onepf.opfpush.OPFPushHelper} commits to the provider with the highest priority
+         * that has been registered, the other registered providers are unregistered. If all of them fail,
+         * the rest of the providers are registered one by one.
+         * It decreases the time to the first registration ID if the preferred provider is slow,
+         * but the registration of several providers is more expensive.
+         * One by default, so providers are registered one by one.
+         *
+         * @param count The maximum count of providers which registration is started concurrently.
+         * @return The current {@code Builder}.
+         * @throws java.lang.IllegalArgumentException If {@code count} is less than one.
+         */
+        @NonNull
+        public Builder setHedgedRegistrationCount(final int count) {
+            if (count < 1) {
+                throw new IllegalArgumentException("Hedged registration count must be positive.");
+            }
+            this.hedgedRegistrationCount = count;
+            return this;
+        }
+
+        /**
+         * If you set {@code true}, the manifest of the providers is checked on the background thread
+         * instead of the thread which initializes the {@link org.onepf.opfpush.OPFPushHelper}.
+         * The version code of the successfully checked app is stored, so the check is performed
+         * only once for every app version.
+         * If the check manifest handler isn't set, the exception of the failed check is thrown on the main thread.
+         * False by default.
+         *
+         * @param isDeferredManifestCheckEnabled {@code true} if the manifest check must be deferred,
+         *                                       {@code false} otherwise.
+         * @return The current {@code Builder}.
+         */
+        @NonNull
+        public Builder setDeferredManifestCheckEnabled(final boolean isDeferredManifestCheckEnabled) {
+            this.isDeferredManifestCheckEnabled = isDeferredManifestCheckEnabled;
+            return this;
+        }
+
+        /**
+         * If you set {@code true}, the stored registered provider is restored during the initialization
+         * without checking its availability and registration, so the initialization time doesn't depend
+         * on the providers. The provider is checked on the background thread afterwards. If it has become
+         * unavailable or unregistered, the next available provider is registered.
+         * False by default.
+         *
+         * @param isOptimisticRestoreEnabled {@code true} if the last provider must be restored optimistically,
+         *                                   {@code false} otherwise.
+         * @return The current {@code Builder}.
+         */
+        @NonNull
+        public Builder setOptimisticRestoreEnabled(final boolean isOptimisticRestoreEnabled) {
+            this.isOptimisticRestoreEnabled = isOptimisticRestoreEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the first ID of the range of the {@link android.app.job.JobScheduler} job IDs that are used
+         * for the retries of the registration and the unregistration since Lollipop.
+         * The job IDs share the ID space with the jobs of the app, so the range must not intersect the IDs
+         * of the app jobs. The range contains {@link #RETRY_JOB_IDS_PER_PROVIDER} IDs for every added provider:
+         * from {@code firstJobId} to {@code firstJobId + RETRY_JOB_IDS_PER_PROVIDER * providersCount - 1}.
+         * {@link Configuration#DEFAULT_FIRST_RETRY_JOB_ID} by default.
+         *
+         * @param firstJobId The first ID of the range of the retry job IDs.
+         * @return The current {@code Builder}.
+         */
+        @NonNull
+        public Builder setFirstRetryJobId(final int firstJobId) {
+            this.firstRetryJobId = firstJobId;
+            return this;
+        }
+
         /**
          * Create the instance of the {@link Configuration} class.
          *
          * @return The new {@link Configuration} object.
-         * @throws java.lang.IllegalArgumentException If there are no any added providers.
+         * @throws java.lang.IllegalArgumentException If there are no any added providers
+         *                                            or the range of the retry job IDs overflows.
          */
         @NonNull
         @SuppressWarnings("PMD.AccessorClassGeneration")
@@ -209,12 +679,29 @@ public final class Configuration {
             if (providersMap == null) {
                 throw new IllegalArgumentException("Need to add at least one push provider.");
             }
+            if ((long) firstRetryJobId + (long) RETRY_JOB_IDS_PER_PROVIDER * providersMap.size() - 1
+                    > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Range of the retry job IDs overflows.");
+            }
 
             return new Configuration(
                     providersMap.values(),
                     eventListener,
                     isSelectSystemPreferred,
-                    checkManifestHandler
+                    checkManifestHandler,
+                    isBackgroundThreadEnabled,
+                    messageBatchMaxCount,
+                    messageBatchWindowMillis,
+                    callbackExecutor,
+                    isInProcessReceiverEnabled,
+                    backoffFactory,
+                    registeringTimeoutMillis,
+                    providerRegisteringTimeouts,
+                    isAdaptiveRegisteringTimeoutEnabled,
+                    hedgedRegistrationCount,
+                    isDeferredManifestCheckEnabled,
+                    isOptimisticRestoreEnabled,
+                    firstRetryJobId
             );
         }
 
@@ -225,7 +712,33 @@ public final class Configuration {
                     + providersMap
                     + ", systemPushPreferred="
                     + isSelectSystemPreferred
+                    + ", backgroundThreadEnabled="
+                    + isBackgroundThreadEnabled
+                    + ", messageBatchMaxCount="
+                    + messageBatchMaxCount
+                    + ", messageBatchWindowMillis="
+                    + messageBatchWindowMillis
+                    + ", registeringTimeoutMillis="
+                    + registeringTimeoutMillis
+                    + ", providerRegisteringTimeouts="
+                    + providerRegisteringTimeouts
+                    + ", adaptiveRegisteringTimeoutEnabled="
+                    + isAdaptiveRegisteringTimeoutEnabled
+                    + ", hedgedRegistrationCount="
+                    + hedgedRegistrationCount
+                    + ", deferredManifestCheckEnabled="
+                    + isDeferredManifestCheckEnabled
+                    + ", optimisticRestoreEnabled="
+                    + isOptimisticRestoreEnabled
+                    + ", firstRetryJobId="
+                    + firstRetryJobId
                     + '}';
         }
+
+        private static void checkRegisteringTimeout(final long timeoutMillis) {
+            if (timeoutMillis <= 0) {
+                throw new IllegalArgumentException("Registering timeout must be positive.");
+            }
+        }
     }
 }
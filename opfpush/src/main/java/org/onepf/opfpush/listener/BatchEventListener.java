@@ -0,0 +1,47 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.listener;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * The extension of the {@link EventListener} interface that can handle several messages at once.
+ * <p/>
+ * If the message batching is enabled via
+ * {@link org.onepf.opfpush.configuration.Configuration.Builder#setMessageBatching(int, long)},
+ * messages are delivered to this listener via the {@link #onMessages(Context, String, List)} method.
+ * A listener that implements only the {@link EventListener} interface gets the
+ * {@link EventListener#onMessage(Context, String, Bundle)} call for each message.
+ *
+ * @since 18.10.2026
+ */
+public interface BatchEventListener extends EventListener {
+
+    /**
+     * Called when new messages have been received.
+     * Messages are passed in the order in which they were received.
+     *
+     * @param context      The application context.
+     * @param providerName The name of the provider which has received the messages.
+     * @param messages     The data associated with each message. An element is null if the message has no data.
+     */
+    void onMessages(@NonNull Context context, @NonNull String providerName, @NonNull List<Bundle> messages);
+}
@@ -23,15 +23,18 @@ import android.support.annotation.Nullable;
 
 import org.onepf.opfpush.model.UnrecoverablePushError;
 
+import java.util.List;
 import java.util.Map;
 
 /**
  * The default implementation of the {@link org.onepf.opfpush.listener.EventListener} interface.
+ * <p/>
+ * Batched messages are passed to the {@link #onMessage(Context, String, Bundle)} method one by one.
  *
  * @author Roman Savin
  * @since 03.12.14
  */
-public class SimpleEventListener implements EventListener {
+public class SimpleEventListener implements BatchEventListener {
 
     @Override
     public void onMessage(@NonNull Context context,
@@ -40,6 +43,15 @@ public class SimpleEventListener implements EventListener {
         //nothing
     }
 
+    @Override
+    public void onMessages(@NonNull Context context,
+                           @NonNull String providerName,
+                           @NonNull List<Bundle> messages) {
+        for (Bundle extras : messages) {
+            onMessage(context, providerName, extras);
+        }
+    }
+
     @Override
     public void onDeletedMessages(@NonNull Context context,
                                   @NonNull String providerName,
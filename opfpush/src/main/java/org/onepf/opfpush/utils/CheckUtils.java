@@ -19,8 +19,7 @@ package org.onepf.opfpush.utils;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.ActivityInfo;
-import android.content.pm.PackageInfo;
+import android.content.pm.ComponentInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.support.annotation.NonNull;
@@ -51,22 +50,19 @@ public final class CheckUtils {
      * @param context The instance of {@link android.content.Context}.
      * @param service The checked service.
      */
-    @SuppressWarnings("PMD.PreserveStackTrace")
     public static void checkService(@NonNull final Context context,
                                     @NonNull final ComponentName service,
                                     @Nullable final CheckManifestHandler checkManifestHandler) {
-        final PackageManager packageManager = context.getPackageManager();
-        try {
-            packageManager.getServiceInfo(service, 0);
-        } catch (PackageManager.NameNotFoundException e) {
-            final String message = "Service " + service.getClassName()
-                    + " hasn't been declared in AndroidManifest.xml";
+        if (isServiceDeclared(context, service)) {
+            return;
+        }
 
-            if (checkManifestHandler == null) {
-                throw new IllegalStateException(message);
-            } else {
-                checkManifestHandler.onCheckManifestError(message);
-            }
+        final String message = "Service " + service.getClassName()
+                + " hasn't been declared in AndroidManifest.xml";
+        if (checkManifestHandler == null) {
+            throw new IllegalStateException(message);
+        } else {
+            checkManifestHandler.onCheckManifestError(message);
         }
     }
 
@@ -93,7 +89,6 @@ public final class CheckUtils {
      * @param permission       The checked permission.
      * @param exceptionMessage The exception message.
      */
-    @SuppressWarnings("PMD.EmptyCatchBlock")
     public static void checkPermission(@NonNull final Context context,
                                        @NonNull final String permission,
                                        @NonNull final String exceptionMessage,
@@ -102,19 +97,9 @@ public final class CheckUtils {
             throw new IllegalArgumentException("Permission can't be null or empty.");
         }
 
-        try {
-            final PackageInfo info = context.getPackageManager()
-                    .getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS);
-            final String[] requestedPermissions = info.requestedPermissions;
-            if (requestedPermissions != null) {
-                for (String requestedPermission : requestedPermissions) {
-                    if (TextUtils.equals(permission, requestedPermission)) {
-                        return;
-                    }
-                }
-            }
-        } catch (PackageManager.NameNotFoundException ignore) {
-            // ignore
+        final ManifestSnapshot manifestSnapshot = ManifestSnapshot.getInstance(context);
+        if (manifestSnapshot != null && manifestSnapshot.hasPermission(permission)) {
+            return;
         }
 
         if (checkManifestHandler == null) {
@@ -186,6 +171,20 @@ public final class CheckUtils {
         }
     }
 
+    private static boolean isServiceDeclared(@NonNull final Context context, @NonNull final ComponentName service) {
+        if (TextUtils.equals(context.getPackageName(), service.getPackageName())) {
+            final ManifestSnapshot manifestSnapshot = ManifestSnapshot.getInstance(context);
+            return manifestSnapshot != null && manifestSnapshot.hasService(service.getClassName());
+        }
+
+        try {
+            context.getPackageManager().getServiceInfo(service, 0);
+            return true;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
     @SuppressWarnings({"PMD.ModifiedCyclomaticComplexity", "PMD.StdCyclomaticComplexity", "PMD.ConsecutiveLiteralAppends"})
     @NonNull
     private static String prepareCheckReceiverReport(@NonNull final Context context,
@@ -240,17 +239,13 @@ public final class CheckUtils {
         reportBuilder.append(LINE_SEPARATOR)
                 .append("Available receivers:");
 
-        PackageInfo receiversInfo;
-        try {
-            receiversInfo = packageManager.getPackageInfo(
-                    packageName, PackageManager.GET_RECEIVERS);
-        } catch (PackageManager.NameNotFoundException e) {
+        final ManifestSnapshot manifestSnapshot = ManifestSnapshot.getInstance(context);
+        if (manifestSnapshot == null) {
             reportBuilder.append("Could not get receivers for package ").append(packageName);
             return reportBuilder.toString();
         }
-        ActivityInfo[] packageReceivers = receiversInfo.receivers;
 
-        for (ActivityInfo packageReceiver : packageReceivers) {
+        for (ComponentInfo packageReceiver : manifestSnapshot.getReceivers()) {
             reportBuilder.append(LINE_SEPARATOR)
                     .append("Receiver package : ")
                     .append(packageReceiver.packageName)
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.utils;
+
+import android.content.Context;
+import android.content.pm.ComponentInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfutils.OPFLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The in-memory copy of the permissions, receivers and services declared in the AndroidManifest.xml file
+ * of the app.
+ * <p/>
+ * The package info is requested from the package manager only once, so all manifest checks cost one binder call.
+ * The manifest can't be changed while the app process is alive, so the snapshot is never invalidated.
+ *
+ * @since 18.10.2026
+ */
+public final class ManifestSnapshot {
+
+    private static final int FLAGS = PackageManager.GET_PERMISSIONS
+            | PackageManager.GET_RECEIVERS
+            | PackageManager.GET_SERVICES;
+
+    private static volatile ManifestSnapshot instance;
+
+    @NonNull
+    private final Set<String> permissions;
+
+    @NonNull
+    private final Set<String> services;
+
+    @NonNull
+    private final List<ComponentInfo> receivers;
+
+    private ManifestSnapshot(@NonNull final PackageInfo packageInfo) {
+        permissions = packageInfo.requestedPermissions == null
+                ? Collections.<String>emptySet()
+                : new HashSet<>(Arrays.asList(packageInfo.requestedPermissions));
+
+        services = new HashSet<>();
+        if (packageInfo.services != null) {
+            for (ComponentInfo service : packageInfo.services) {
+                services.add(service.name);
+            }
+        }
+
+        receivers = packageInfo.receivers == null
+                ? Collections.<ComponentInfo>emptyList()
+                : Collections.unmodifiableList(new ArrayList<ComponentInfo>(Arrays.asList(packageInfo.receivers)));
+    }
+
+    /**
+     * Returns the snapshot of the app manifest.
+     *
+     * @param context The instance of {@link android.content.Context}.
+     * @return The snapshot of the app manifest or {@code null} if the package info can't be retrieved.
+     */
+    @Nullable
+    @SuppressWarnings("PMD.NonThreadSafeSingleton")
+    public static ManifestSnapshot getInstance(@NonNull final Context context) {
+        if (instance == null) {
+            synchronized (ManifestSnapshot.class) {
+                if (instance == null) {
+                    instance = create(context);
+                }
+            }
+        }
+        return instance;
+    }
+
+    public boolean hasPermission(@NonNull final String permission) {
+        return permissions.contains(permission);
+    }
+
+    public boolean hasService(@NonNull final String serviceClassName) {
+        return services.contains(serviceClassName);
+    }
+
+    @NonNull
+    public List<ComponentInfo> getReceivers() {
+        return receivers;
+    }
+
+    @Nullable
+    private static ManifestSnapshot create(@NonNull final Context context) {
+        try {
+            final PackageInfo packageInfo = context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), FLAGS);
+            return new ManifestSnapshot(packageInfo);
+        } catch (PackageManager.NameNotFoundException e) {
+            OPFLog.w("Can't get the package info : " + e.getMessage());
+            return null;
+        }
+    }
+}
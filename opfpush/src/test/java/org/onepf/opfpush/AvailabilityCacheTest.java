@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush;
+
+import android.support.annotation.NonNull;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.onepf.opfpush.mock.MockNamePushProvider;
+import org.onepf.opfpush.model.AvailabilityResult;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class AvailabilityCacheTest extends Assert {
+
+    @Test
+    public void availabilityIsCheckedOnce() {
+        final AvailabilityCache cache = new AvailabilityCache();
+        final CountingPushProvider provider = new CountingPushProvider("PROVIDER", true);
+
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(cache.getAvailabilityResult(provider).isAvailable());
+        }
+        assertEquals(1, provider.checksCount);
+    }
+
+    @Test
+    public void invalidateAllChecksAvailabilityAgain() {
+        final AvailabilityCache cache = new AvailabilityCache();
+        final CountingPushProvider provider = new CountingPushProvider("PROVIDER", true);
+        assertTrue(cache.getAvailabilityResult(provider).isAvailable());
+
+        provider.isAvailable = false;
+        assertTrue(cache.getAvailabilityResult(provider).isAvailable());
+
+        cache.invalidateAll();
+        assertFalse(cache.getAvailabilityResult(provider).isAvailable());
+        assertEquals(2, provider.checksCount);
+    }
+
+    @Test
+    public void unavailableResultIsNotCached() {
+        final AvailabilityCache cache = new AvailabilityCache();
+        final CountingPushProvider provider = new CountingPushProvider("PROVIDER", false);
+        assertFalse(cache.getAvailabilityResult(provider).isAvailable());
+
+        provider.isAvailable = true;
+        assertTrue(cache.getAvailabilityResult(provider).isAvailable());
+        assertTrue(cache.getAvailabilityResult(provider).isAvailable());
+        assertEquals(2, provider.checksCount);
+    }
+
+    private static final class CountingPushProvider extends MockNamePushProvider {
+
+        private boolean isAvailable;
+
+        private int checksCount;
+
+        CountingPushProvider(@NonNull final String name, final boolean isAvailable) {
+            super(name);
+            this.isAvailable = isAvailable;
+        }
+
+        @NonNull
+        @Override
+        public AvailabilityResult getAvailabilityResult() {
+            ++checksCount;
+            return new AvailabilityResult(isAvailable);
+        }
+    }
+}
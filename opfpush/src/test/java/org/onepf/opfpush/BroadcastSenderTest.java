@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.onepf.opfpush.model.UnrecoverablePushError;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+import static org.onepf.opfpush.OPFConstants.ACTION_RECEIVE;
+import static org.onepf.opfpush.OPFConstants.ACTION_REGISTRATION;
+import static org.onepf.opfpush.OPFConstants.EXTRA_PROVIDER_NAME;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class BroadcastSenderTest extends Assert {
+
+    private static final String PROVIDER_NAME = "provider";
+    private static final String RECEIVER_CLASS_NAME = "org.onepf.opfpush.TestReceiver";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+    }
+
+    @Test
+    public void onMessage_resolvedReceiverGetsExplicitBroadcast() {
+        final ComponentName receiver = new ComponentName(context.getPackageName(), RECEIVER_CLASS_NAME);
+        final Map<String, ComponentName> receivers = new HashMap<>();
+        receivers.put(ACTION_RECEIVE, receiver);
+        final EventListenerWrapperCreator.BroadcastSender sender =
+                new EventListenerWrapperCreator.BroadcastSender(context.getPackageName(), receivers, null);
+
+        sender.onMessage(context, PROVIDER_NAME, new Bundle());
+
+        final Intent intent = getLastBroadcastIntent();
+        assertEquals(ACTION_RECEIVE, intent.getAction());
+        assertEquals(receiver, intent.getComponent());
+        assertEquals(PROVIDER_NAME, intent.getStringExtra(EXTRA_PROVIDER_NAME));
+    }
+
+    @Test
+    public void onRegistered_unresolvedReceiverGetsPackageBroadcast() {
+        final EventListenerWrapperCreator.BroadcastSender sender = new EventListenerWrapperCreator.BroadcastSender(
+                context.getPackageName(), Collections.<String, ComponentName>emptyMap(), null);
+
+        sender.onRegistered(context, PROVIDER_NAME, "registrationId");
+
+        final Intent intent = getLastBroadcastIntent();
+        assertEquals(ACTION_REGISTRATION, intent.getAction());
+        assertNull(intent.getComponent());
+        assertEquals(context.getPackageName(), intent.getPackage());
+    }
+
+    @Test
+    public void allEvents_broadcastsNeverLeaveAppPackage() {
+        final EventListenerWrapperCreator.BroadcastSender sender =
+                new EventListenerWrapperCreator.BroadcastSender(context, false);
+        final int broadcastsBefore = ShadowApplication.getInstance().getBroadcastIntents().size();
+
+        sender.onMessage(context, PROVIDER_NAME, null);
+        sender.onDeletedMessages(context, PROVIDER_NAME, OPFConstants.MESSAGES_COUNT_UNKNOWN);
+        sender.onRegistered(context, PROVIDER_NAME, "registrationId");
+        sender.onUnregistered(context, PROVIDER_NAME, "registrationId");
+        sender.onNoAvailableProvider(context, Collections.<String, UnrecoverablePushError>emptyMap());
+
+        final List<Intent> intents = ShadowApplication.getInstance().getBroadcastIntents();
+        assertEquals(broadcastsBefore + 5, intents.size());
+        for (Intent intent : intents.subList(broadcastsBefore, intents.size())) {
+            final ComponentName component = intent.getComponent();
+            if (component == null) {
+                assertEquals(context.getPackageName(), intent.getPackage());
+            } else {
+                assertEquals(context.getPackageName(), component.getPackageName());
+            }
+        }
+    }
+
+    private static Intent getLastBroadcastIntent() {
+        final List<Intent> intents = ShadowApplication.getInstance().getBroadcastIntents();
+        assertFalse(intents.isEmpty());
+        return intents.get(intents.size() - 1);
+    }
+}
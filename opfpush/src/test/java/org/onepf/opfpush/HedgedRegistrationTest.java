@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class HedgedRegistrationTest extends Assert {
+
+    private static final String PROVIDER_A = "PROVIDER_A";
+    private static final String PROVIDER_B = "PROVIDER_B";
+    private static final String PROVIDER_C = "PROVIDER_C";
+    private static final String REGISTRATION_ID = "REGISTRATION_ID";
+
+    @Test
+    public void lowerPriorityWaitsForHigherPriority() {
+        final HedgedRegistration registration = createRegistration();
+        registration.onRegistered(PROVIDER_B, REGISTRATION_ID);
+        assertNull(registration.getWinner());
+
+        registration.onFailed(PROVIDER_A);
+        assertEquals(PROVIDER_B, registration.getWinner());
+        assertEquals(REGISTRATION_ID, registration.getRegistrationId(PROVIDER_B));
+    }
+
+    @Test
+    public void highestPriorityWinsImmediately() {
+        final HedgedRegistration registration = createRegistration();
+        registration.onRegistered(PROVIDER_C, REGISTRATION_ID);
+        registration.onRegistered(PROVIDER_A, REGISTRATION_ID);
+        assertEquals(PROVIDER_A, registration.getWinner());
+        assertTrue(registration.isRegistered(PROVIDER_C));
+        assertFalse(registration.isRegistered(PROVIDER_B));
+    }
+
+    @Test
+    public void allProvidersFail() {
+        final HedgedRegistration registration = createRegistration();
+        registration.onFailed(PROVIDER_A);
+        registration.onFailed(PROVIDER_C);
+        assertFalse(registration.isFailed());
+
+        registration.onFailed(PROVIDER_B);
+        assertTrue(registration.isFailed());
+        assertNull(registration.getWinner());
+        assertEquals(PROVIDER_C, registration.getLastProviderName());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void registrationIdOfUnregisteredProvider() {
+        createRegistration().getRegistrationId(PROVIDER_A);
+    }
+
+    private static HedgedRegistration createRegistration() {
+        return new HedgedRegistration(Arrays.asList(PROVIDER_A, PROVIDER_B, PROVIDER_C));
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Bundle;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.onepf.opfpush.model.UnrecoverablePushError;
+import org.onepf.opfpush.receiver.OPFPushReceiver;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowLog;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+import static org.onepf.opfpush.OPFConstants.ACTION_RECEIVE;
+import static org.onepf.opfpush.OPFConstants.ACTION_REGISTRATION;
+
+/**
+ * Checks the in-process delivery to the {@link OPFPushReceiver} and compares its cost
+ * with the system broadcast.
+ *
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class LocalReceiverBusTest extends Assert {
+
+    private static final String TAG = LocalReceiverBusTest.class.getSimpleName();
+
+    private static final String PROVIDER_NAME = "provider";
+    private static final String REGISTRATION_ID = "registrationId";
+
+    private static final int WARM_UP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 20000;
+
+    private static final List<String> RECEIVED_EVENTS = new ArrayList<>();
+    private static final List<Thread> RECEIVE_THREADS = new ArrayList<>();
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        ShadowLog.stream = System.out;
+        context = RuntimeEnvironment.application;
+        RECEIVED_EVENTS.clear();
+        RECEIVE_THREADS.clear();
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @After
+    public void tearDown() {
+        ShadowLooper.unPauseMainLooper();
+        RECEIVED_EVENTS.clear();
+        RECEIVE_THREADS.clear();
+    }
+
+    @Test
+    public void sendBroadcast_localReceiverGetsEventWithoutSystemBroadcast() {
+        final EventListenerWrapperCreator.BroadcastSender sender = createSender(createLocalBus());
+        final int broadcastsBefore = ShadowApplication.getInstance().getBroadcastIntents().size();
+
+        final Bundle extras = new Bundle();
+        extras.putString("key", "value");
+        sender.onMessage(context, PROVIDER_NAME, extras);
+        sender.onRegistered(context, PROVIDER_NAME, REGISTRATION_ID);
+
+        //The events are sent in the main thread, so they are delivered immediately.
+        assertEquals(2, RECEIVED_EVENTS.size());
+        assertEquals("onMessage " + PROVIDER_NAME + " value", RECEIVED_EVENTS.get(0));
+        assertEquals("onRegistered " + PROVIDER_NAME + " " + REGISTRATION_ID, RECEIVED_EVENTS.get(1));
+        for (Thread thread : RECEIVE_THREADS) {
+            assertSame(Looper.getMainLooper().getThread(), thread);
+        }
+        assertEquals(broadcastsBefore, ShadowApplication.getInstance().getBroadcastIntents().size());
+    }
+
+    @Test
+    public void sendBroadcast_eventFromBackgroundThreadIsPostedToMainThread() throws InterruptedException {
+        final EventListenerWrapperCreator.BroadcastSender sender = createSender(createLocalBus());
+
+        final Thread backgroundThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sender.onRegistered(context, PROVIDER_NAME, REGISTRATION_ID);
+            }
+        });
+        backgroundThread.start();
+        backgroundThread.join();
+
+        assertTrue(RECEIVED_EVENTS.isEmpty());
+        ShadowLooper.runUiThreadTasks();
+
+        assertEquals(1, RECEIVED_EVENTS.size());
+        assertSame(Looper.getMainLooper().getThread(), RECEIVE_THREADS.get(0));
+    }
+
+    @Test
+    public void sendBroadcast_receiverExceptionIsRethrownInMainThreadTask() {
+        final Map<String, Class<? extends OPFPushReceiver>> receivers = new HashMap<>();
+        receivers.put(ACTION_RECEIVE, FailingPushReceiver.class);
+        final EventListenerWrapperCreator.BroadcastSender sender = createSender(new LocalReceiverBus(receivers));
+
+        //The exception isn't thrown to the sender.
+        sender.onMessage(context, PROVIDER_NAME, null);
+
+        try {
+            ShadowLooper.runUiThreadTasks();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(FailingPushReceiver.ERROR, e.getMessage());
+        }
+    }
+
+    @Test
+    public void sendBroadcast_actionWithoutLocalReceiverGoesToSystem() {
+        final EventListenerWrapperCreator.BroadcastSender sender = createSender(createLocalBus());
+        final int broadcastsBefore = ShadowApplication.getInstance().getBroadcastIntents().size();
+
+        sender.onUnregistered(context, PROVIDER_NAME, REGISTRATION_ID);
+        ShadowLooper.runUiThreadTasks();
+
+        assertTrue(RECEIVED_EVENTS.isEmpty());
+        assertEquals(broadcastsBefore + 1, ShadowApplication.getInstance().getBroadcastIntents().size());
+    }
+
+    @Test
+    public void sendBroadcast_dispatchCost() {
+        final EventListenerWrapperCreator.BroadcastSender localSender = createSender(createLocalBus());
+        final EventListenerWrapperCreator.BroadcastSender systemSender = createSender(null);
+        context.registerReceiver(new TestPushReceiver(), new IntentFilter(ACTION_RECEIVE));
+
+        dispatch(localSender, WARM_UP_ITERATIONS);
+        dispatch(systemSender, WARM_UP_ITERATIONS);
+
+        final long systemNanos = dispatch(systemSender, ITERATIONS) / ITERATIONS;
+        final long localNanos = dispatch(localSender, ITERATIONS) / ITERATIONS;
+
+        Log.i(TAG, "onMessage() dispatch : system broadcast " + systemNanos
+                + " ns/op, in-process " + localNanos + " ns/op");
+    }
+
+    private long dispatch(@NonNull final EventListenerWrapperCreator.BroadcastSender sender, final int count) {
+        RECEIVED_EVENTS.clear();
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+            sender.onMessage(context, PROVIDER_NAME, null);
+        }
+        ShadowLooper.runUiThreadTasks();
+        final long nanos = System.nanoTime() - start;
+
+        assertEquals(count, RECEIVED_EVENTS.size());
+        return nanos;
+    }
+
+    @NonNull
+    private LocalReceiverBus createLocalBus() {
+        final Map<String, Class<? extends OPFPushReceiver>> receivers = new HashMap<>();
+        receivers.put(ACTION_RECEIVE, TestPushReceiver.class);
+        receivers.put(ACTION_REGISTRATION, TestPushReceiver.class);
+        return new LocalReceiverBus(receivers);
+    }
+
+    @NonNull
+    private EventListenerWrapperCreator.BroadcastSender createSender(@Nullable final LocalReceiverBus localReceiverBus) {
+        return new EventListenerWrapperCreator.BroadcastSender(
+                context.getPackageName(),
+                new HashMap<String, ComponentName>(),
+                localReceiverBus
+        );
+    }
+
+    public static final class TestPushReceiver extends OPFPushReceiver {
+
+        @Override
+        public void onMessage(@NonNull final Context context,
+                              @NonNull final String providerName,
+                              @Nullable final Bundle extras) {
+            RECEIVE_THREADS.add(Thread.currentThread());
+            RECEIVED_EVENTS.add("onMessage " + providerName + (extras == null ? "" : " " + extras.getString("key")));
+        }
+
+        @Override
+        public void onDeletedMessages(@NonNull final Context context,
+                                      @NonNull final String providerName,
+                                      final int messagesCount) {
+            RECEIVED_EVENTS.add("onDeletedMessages " + providerName);
+        }
+
+        @Override
+        public void onRegistered(@NonNull final Context context,
+                                 @NonNull final String providerName,
+                                 @NonNull final String registrationId) {
+            RECEIVE_THREADS.add(Thread.currentThread());
+            RECEIVED_EVENTS.add("onRegistered " + providerName + " " + registrationId);
+        }
+
+        @Override
+        public void onUnregistered(@NonNull final Context context,
+                                   @NonNull final String providerName,
+                                   @Nullable final String registrationId) {
+            RECEIVED_EVENTS.add("onUnregistered " + providerName);
+        }
+
+        @Override
+        public void onNoAvailableProvider(@NonNull final Context context,
+                                          @NonNull final Map<String, UnrecoverablePushError> pushErrors) {
+            RECEIVED_EVENTS.add("onNoAvailableProvider");
+        }
+    }
+
+    public static final class FailingPushReceiver extends OPFPushReceiver {
+
+        private static final String ERROR = "Receiver error";
+
+        @Override
+        public void onMessage(@NonNull final Context context,
+                              @NonNull final String providerName,
+                              @Nullable final Bundle extras) {
+            throw new IllegalStateException(ERROR);
+        }
+
+        @Override
+        public void onDeletedMessages(@NonNull final Context context,
+                                      @NonNull final String providerName,
+                                      final int messagesCount) {
+        }
+
+        @Override
+        public void onRegistered(@NonNull final Context context,
+                                 @NonNull final String providerName,
+                                 @NonNull final String registrationId) {
+        }
+
+        @Override
+        public void onUnregistered(@NonNull final Context context,
+                                   @NonNull final String providerName,
+                                   @Nullable final String registrationId) {
+        }
+
+        @Override
+        public void onNoAvailableProvider(@NonNull final Context context,
+                                          @NonNull final Map<String, UnrecoverablePushError> pushErrors) {
+        }
+    }
+}
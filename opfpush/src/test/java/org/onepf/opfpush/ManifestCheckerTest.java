@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.onepf.opfpush.listener.CheckManifestHandler;
+import org.onepf.opfpush.mock.MockNamePushProvider;
+import org.onepf.opfpush.pushprovider.PushProvider;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class ManifestCheckerTest extends Assert {
+
+    private static final Executor SYNC_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull final Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final CheckManifestHandler CHECK_MANIFEST_HANDLER = new CheckManifestHandler() {
+        @Override
+        public void onCheckManifestError(@NonNull final String reportMessage) {
+            //nothing
+        }
+    };
+
+    @Test
+    public void checkIsPerformedEveryTime() {
+        final CheckingPushProvider provider = new CheckingPushProvider("PROVIDER", false);
+        final ManifestChecker manifestChecker = createManifestChecker(provider);
+
+        manifestChecker.check();
+        manifestChecker.check();
+        assertEquals(2, provider.checksCount);
+    }
+
+    @Test
+    public void deferredCheckIsPerformedOncePerVersion() {
+        final CheckingPushProvider provider = new CheckingPushProvider("PROVIDER", false);
+
+        createManifestChecker(provider).checkDeferred();
+        createManifestChecker(provider).checkDeferred();
+        assertEquals(1, provider.checksCount);
+    }
+
+    @Test
+    public void deferredCheckIsRepeatedAfterVersionChange() {
+        final CheckingPushProvider provider = new CheckingPushProvider("PROVIDER", false);
+        createManifestChecker(provider).checkDeferred();
+
+        final Context context = RuntimeEnvironment.application;
+        context.getSharedPreferences(context.getPackageName() + ".opfpush.manifest", Context.MODE_PRIVATE)
+                .edit()
+                .putInt("checked_version_code", Integer.MAX_VALUE)
+                .commit();
+
+        createManifestChecker(provider).checkDeferred();
+        assertEquals(2, provider.checksCount);
+    }
+
+    @Test
+    public void failedDeferredCheckIsRepeated() {
+        final CheckingPushProvider provider = new CheckingPushProvider("PROVIDER", true);
+
+        createManifestChecker(provider).checkDeferred();
+        createManifestChecker(provider).checkDeferred();
+        assertEquals(2, provider.checksCount);
+    }
+
+    @NonNull
+    private static ManifestChecker createManifestChecker(@NonNull final PushProvider provider) {
+        final List<PushProvider> providers = new ArrayList<>(Collections.singletonList(provider));
+        return new ManifestChecker(RuntimeEnvironment.application, providers, CHECK_MANIFEST_HANDLER, SYNC_EXECUTOR);
+    }
+
+    private static final class CheckingPushProvider extends MockNamePushProvider {
+
+        private final boolean hasErrors;
+
+        private int checksCount;
+
+        CheckingPushProvider(@NonNull final String name, final boolean hasErrors) {
+            super(name);
+            this.hasErrors = hasErrors;
+        }
+
+        @Override
+        public void checkManifest(@Nullable final CheckManifestHandler checkManifestHandler) {
+            ++checksCount;
+            if (hasErrors && checkManifestHandler != null) {
+                checkManifestHandler.onCheckManifestError("Error");
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class MessageBatcherTest extends Assert {
+
+    private static final String PROVIDER_NAME = "provider";
+    private static final String OTHER_PROVIDER_NAME = "other provider";
+    private static final String EXTRA_INDEX = "index";
+    private static final int MAX_COUNT = 10;
+    private static final long WINDOW_MILLIS = 100;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final List<String> batchProviders = new ArrayList<>();
+    private final List<List<Bundle>> batches = new ArrayList<>();
+
+    private MessageBatcher batcher;
+
+    @Before
+    public void setUp() {
+        ShadowLooper.pauseMainLooper();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        batcher = new MessageBatcher(handler, new MainThreadExecutor(), new MessageBatcher.Callback() {
+            @Override
+            public void onMessages(@NonNull final String providerName, @NonNull final List<Bundle> messages) {
+                batchProviders.add(providerName);
+                batches.add(messages);
+            }
+        }, MAX_COUNT, WINDOW_MILLIS);
+    }
+
+    @Test
+    public void add_fullBatchIsDeliveredImmediately() {
+        for (int i = 0; i < MAX_COUNT; ++i) {
+            batcher.add(PROVIDER_NAME, createMessage(i));
+        }
+        ShadowLooper.runUiThreadTasks();
+
+        assertEquals(1, batches.size());
+        assertMessages(batches.get(0), 0, MAX_COUNT);
+    }
+
+    @Test
+    public void add_partialBatchIsDeliveredAfterWindow() {
+        batcher.add(PROVIDER_NAME, createMessage(0));
+        batcher.add(PROVIDER_NAME, createMessage(1));
+        ShadowLooper.runUiThreadTasks();
+        assertTrue(batches.isEmpty());
+
+        ShadowLooper.idleMainLooper(WINDOW_MILLIS);
+        assertEquals(1, batches.size());
+        assertMessages(batches.get(0), 0, 2);
+    }
+
+    @Test
+    public void add_burstIsSplitIntoOrderedBatches() {
+        final int messagesCount = MAX_COUNT * 2 + 3;
+        for (int i = 0; i < messagesCount; ++i) {
+            batcher.add(PROVIDER_NAME, createMessage(i));
+        }
+        ShadowLooper.idleMainLooper(WINDOW_MILLIS);
+
+        assertEquals(3, batches.size());
+        assertMessages(batches.get(0), 0, MAX_COUNT);
+        assertMessages(batches.get(1), MAX_COUNT, MAX_COUNT);
+        assertMessages(batches.get(2), MAX_COUNT * 2, 3);
+    }
+
+    @Test
+    public void add_otherProviderClosesBatch() {
+        batcher.add(PROVIDER_NAME, createMessage(0));
+        batcher.add(OTHER_PROVIDER_NAME, createMessage(1));
+        ShadowLooper.idleMainLooper(WINDOW_MILLIS);
+
+        assertEquals(2, batches.size());
+        assertEquals(PROVIDER_NAME, batchProviders.get(0));
+        assertMessages(batches.get(0), 0, 1);
+        assertEquals(OTHER_PROVIDER_NAME, batchProviders.get(1));
+        assertMessages(batches.get(1), 1, 1);
+    }
+
+    @Test
+    public void add_callbackIsNotCalledUnderLock() throws InterruptedException {
+        final CountDownLatch otherThreadAdded = new CountDownLatch(1);
+        final List<Boolean> results = new ArrayList<>();
+        final AtomicReference<MessageBatcher> directBatcher = new AtomicReference<>();
+        directBatcher.set(new MessageBatcher(
+                new Handler(Looper.getMainLooper()),
+                new DirectExecutor(),
+                new MessageBatcher.Callback() {
+                    @Override
+                    public void onMessages(@NonNull final String providerName,
+                                           @NonNull final List<Bundle> messages) {
+                        if (!results.isEmpty()) {
+                            return;
+                        }
+
+                        final Thread otherThread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                directBatcher.get().add(PROVIDER_NAME, createMessage(0));
+                                otherThreadAdded.countDown();
+                            }
+                        });
+                        otherThread.start();
+                        try {
+                            results.add(otherThreadAdded.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                },
+                1,
+                WINDOW_MILLIS
+        ));
+
+        directBatcher.get().add(PROVIDER_NAME, createMessage(0));
+
+        assertEquals(Collections.singletonList(true), results);
+    }
+
+    @Test
+    public void add_multiThreadedExecutorKeepsBatchesOrder() throws InterruptedException {
+        final int batchesCount = 200;
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<List<Bundle>> orderedBatches = Collections.synchronizedList(new ArrayList<List<Bundle>>());
+        final CountDownLatch allBatchesDelivered = new CountDownLatch(batchesCount);
+        final MessageBatcher pooledBatcher = new MessageBatcher(
+                new Handler(Looper.getMainLooper()),
+                executor,
+                new MessageBatcher.Callback() {
+                    @Override
+                    public void onMessages(@NonNull final String providerName,
+                                           @NonNull final List<Bundle> messages) {
+                        orderedBatches.add(messages);
+                        allBatchesDelivered.countDown();
+                    }
+                },
+                MAX_COUNT,
+                WINDOW_MILLIS
+        );
+
+        for (int i = 0; i < batchesCount * MAX_COUNT; ++i) {
+            pooledBatcher.add(PROVIDER_NAME, createMessage(i));
+        }
+
+        assertTrue(allBatchesDelivered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        executor.shutdown();
+        for (int i = 0; i < batchesCount; ++i) {
+            assertMessages(orderedBatches.get(i), i * MAX_COUNT, MAX_COUNT);
+        }
+    }
+
+    @NonNull
+    private static Bundle createMessage(final int index) {
+        final Bundle extras = new Bundle();
+        extras.putInt(EXTRA_INDEX, index);
+        return extras;
+    }
+
+    private static void assertMessages(@NonNull final List<Bundle> messages, final int firstIndex, final int count) {
+        assertEquals(count, messages.size());
+        for (int i = 0; i < count; ++i) {
+            assertEquals(firstIndex + i, messages.get(i).getInt(EXTRA_INDEX));
+        }
+    }
+
+    private static final class DirectExecutor implements Executor {
+
+        @Override
+        public void execute(@NonNull final Runnable command) {
+            command.run();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.onepf.opfpush.backoff.RetryManager;
+import org.onepf.opfpush.configuration.Configuration;
+import org.onepf.opfpush.listener.SimpleEventListener;
+import org.onepf.opfpush.mock.MockPushProvider;
+import org.onepf.opfpush.model.AvailabilityResult;
+import org.onepf.opfpush.pushprovider.PushProvider;
+import org.onepf.opfutils.OPFUtils;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.reflect.Field;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * Compares the latency of the message delivery from a provider thread (as {@code GCMService.onMessageReceived}
+ * does it) to the {@link org.onepf.opfpush.listener.EventListener#onMessage(Context, String, Bundle)}
+ * with the delivery path that posted every message to the main thread twice.
+ *
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class MessageDeliveryBenchmarkTest extends Assert {
+
+    private static final String TAG = MessageDeliveryBenchmarkTest.class.getSimpleName();
+
+    private static final String PROVIDER_NAME = "Courier";
+
+    private static final int WARM_UP_ITERATIONS = 5000;
+    private static final int ITERATIONS = 50000;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private CountingEventListener eventListener;
+    private OPFPushHelper.ReceivedMessageHandler receivedMessageHandler;
+
+    @Before
+    public void setup() throws NoSuchFieldException, IllegalAccessException {
+        ShadowLog.stream = System.out;
+
+        final PushProvider provider = new MockPushProvider.Builder()
+                .setName(PROVIDER_NAME)
+                .setAvailabilityResult(new AvailabilityResult(true))
+                .build();
+        eventListener = new CountingEventListener();
+        final Configuration configuration = new Configuration.Builder()
+                .addProviders(provider)
+                .setEventListener(eventListener)
+                .build();
+
+        final OPFPushHelperImpl helper = new OPFPushHelperImpl(RuntimeEnvironment.application);
+        helper.init(configuration);
+        setHelper(helper);
+        helper.register();
+        assertTrue(helper.isRegistered());
+
+        receivedMessageHandler = helper.getReceivedMessageHandler();
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @After
+    public void eraseHelperInstance() throws NoSuchFieldException, IllegalAccessException {
+        ShadowLooper.unPauseMainLooper();
+        final Field retryManagerInstanceField = RetryManager.class.getDeclaredField("instance");
+        retryManagerInstanceField.setAccessible(true);
+        retryManagerInstanceField.set(null, null);
+        setHelper(null);
+    }
+
+    @Test
+    public void onMessage_deliveryLatency() throws InterruptedException {
+        final Runnable currentPath = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITERATIONS; ++i) {
+                    receivedMessageHandler.onMessage(PROVIDER_NAME, null);
+                }
+            }
+        };
+        final Runnable legacyPath = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITERATIONS; ++i) {
+                    deliverWithDoubleHop(null);
+                }
+            }
+        };
+
+        deliver(currentPath, WARM_UP_ITERATIONS);
+        deliver(legacyPath, WARM_UP_ITERATIONS);
+
+        final long legacyNanos = deliver(legacyPath, ITERATIONS) / ITERATIONS;
+        final long currentNanos = deliver(currentPath, ITERATIONS) / ITERATIONS;
+
+        Log.i(TAG, "onMessage() delivery : double hop " + legacyNanos + " ns/op, single hop " + currentNanos + " ns/op");
+    }
+
+    /**
+     * Sends messages from a provider thread and drains the main looper.
+     *
+     * @return The total delivery time in nanoseconds.
+     */
+    private long deliver(@NonNull final Runnable sender, final int expectedCount) throws InterruptedException {
+        eventListener.messagesCount = 0;
+        final long start = System.nanoTime();
+        final Thread providerThread = new Thread(sender);
+        providerThread.start();
+        providerThread.join();
+        ShadowLooper.runUiThreadTasks();
+        final long nanos = System.nanoTime() - start;
+
+        assertTrue(eventListener.messagesCount >= expectedCount);
+        return nanos;
+    }
+
+    /**
+     * Reproduces the delivery path before the main thread check was moved in front of the {@link Runnable} creation:
+     * a message is posted to the main thread and the event listener wrapper creates one more {@code Runnable}.
+     */
+    private void deliverWithDoubleHop(@Nullable final Bundle extras) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Runnable wrapperRunnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        eventListener.onMessage(RuntimeEnvironment.application, PROVIDER_NAME, extras);
+                    }
+                };
+                if (OPFUtils.isMainThread()) {
+                    wrapperRunnable.run();
+                } else {
+                    handler.post(wrapperRunnable);
+                }
+            }
+        });
+    }
+
+    private static void setHelper(@Nullable final OPFPushHelper helper)
+            throws NoSuchFieldException, IllegalAccessException {
+        final Field helperField = OPFPush.class.getDeclaredField("helper");
+        helperField.setAccessible(true);
+        helperField.set(null, helper);
+    }
+
+    private static final class CountingEventListener extends SimpleEventListener {
+
+        private int messagesCount;
+
+        @Override
+        public void onMessage(@NonNull final Context context,
+                              @NonNull final String providerName,
+                              @Nullable final Bundle extras) {
+            ++messagesCount;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.onepf.opfpush;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.os.Build;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -12,12 +13,16 @@ import junit.framework.Assert;
 import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.onepf.opfpush.backoff.AlarmScheduler;
+import org.onepf.opfpush.backoff.RetryManager;
 import org.onepf.opfpush.configuration.Configuration;
 import org.onepf.opfpush.listener.SimpleEventListener;
 import org.onepf.opfpush.mock.MockPushProvider;
 import org.onepf.opfpush.model.AvailabilityResult;
+import org.onepf.opfpush.model.RecoverablePushError;
 import org.onepf.opfpush.model.UnrecoverablePushError;
 import org.onepf.opfpush.pushprovider.PushProvider;
+import org.onepf.opfpush.testutil.CountingSharedPreferences;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
@@ -26,7 +31,10 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
 
@@ -40,6 +48,8 @@ public class OPFPushHelperTest extends Assert {
 
     private static final String TAG = OPFPushHelperTest.class.getSimpleName();
     private static final int BUFFER_INITIAL_CAPACITY = 80;
+    private static final int MESSAGES_BURST_SIZE = 1000;
+    private static final String OPF_CORE_POSTFIX = "opfpush";
 
     @TargetApi(Build.VERSION_CODES.KITKAT)
     @After
@@ -56,6 +66,24 @@ public class OPFPushHelperTest extends Assert {
         }
     }
 
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    @After
+    public void eraseHelperInstance() {
+        try {
+            final Field retryManagerInstanceField = RetryManager.class.getDeclaredField("instance");
+            retryManagerInstanceField.setAccessible(true);
+            retryManagerInstanceField.set(null, null);
+            final Field alarmSchedulerInstanceField = AlarmScheduler.class.getDeclaredField("instance");
+            alarmSchedulerInstanceField.setAccessible(true);
+            alarmSchedulerInstanceField.set(null, null);
+            final Field helperField = OPFPush.class.getDeclaredField("helper");
+            helperField.setAccessible(true);
+            helperField.set(null, null);
+        } catch (IllegalAccessException | NoSuchFieldException e) {
+            Log.e(TAG, e.getMessage());
+        }
+    }
+
     @TargetApi(Build.VERSION_CODES.KITKAT)
     @Test
     public void testGetProviderName() {
@@ -91,13 +119,284 @@ public class OPFPushHelperTest extends Assert {
         assertEquals(expected, OPFPush.getHelper().getProviderName());
     }
 
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    @Test
+    public void testMessagesBurstDoesNotWriteSettings() throws IllegalAccessException, NoSuchFieldException {
+        final String providerName = "Courier";
+        final PushProvider provider = new MockPushProvider.Builder()
+                .setName(providerName)
+                .setAvailabilityResult(new AvailabilityResult(true))
+                .build();
+        final Configuration configuration = new Configuration.Builder()
+                .addProviders(provider)
+                .setEventListener(new TestEventListener())
+                .build();
+
+        final Context context = RuntimeEnvironment.application;
+        final CountingSharedPreferences preferences = new CountingSharedPreferences(
+                context.getSharedPreferences(context.getPackageName() + "." + OPF_CORE_POSTFIX,
+                        Context.MODE_MULTI_PROCESS)
+        );
+        final Field settingsInstanceField = Settings.class.getDeclaredField("instance");
+        settingsInstanceField.setAccessible(true);
+        settingsInstanceField.set(null, new Settings(preferences));
+
+        try {
+            initOPFPush(configuration);
+        } catch (IllegalAccessException | InstantiationException | NoSuchFieldException
+                | InvocationTargetException | NoSuchMethodException | ClassNotFoundException e) {
+            Log.e(TAG, e.getMessage());
+        }
+        OPFPush.getHelper().register();
+        assertTrue(OPFPush.getHelper().isRegistered());
+
+        preferences.resetWritesCount();
+        final OPFPushHelper.ReceivedMessageHandler handler = OPFPush.getHelper().getReceivedMessageHandler();
+        for (int i = 0; i < MESSAGES_BURST_SIZE; ++i) {
+            final Bundle extras = new Bundle();
+            extras.putInt("index", i);
+            handler.onMessage(providerName, extras);
+        }
+
+        assertTrue(OPFPush.getHelper().isRegistered());
+        assertEquals(0, preferences.getWritesCount());
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    @Test
+    public void testCallbackExecutor() {
+        final String providerName = "Courier";
+        final PushProvider provider = new MockPushProvider.Builder()
+                .setName(providerName)
+                .setAvailabilityResult(new AvailabilityResult(true))
+                .build();
+        final TestEventListener eventListener = new TestEventListener();
+        final List<Runnable> callbacks = new ArrayList<>();
+        final Configuration configuration = new Configuration.Builder()
+                .addProviders(provider)
+                .setEventListener(eventListener)
+                .setCallbackExecutor(new Executor() {
+                    @Override
+                    public void execute(@NonNull final Runnable command) {
+                        callbacks.add(command);
+                    }
+                })
+                .build();
+
+        try {
+            initOPFPush(configuration);
+        } catch (IllegalAccessException | InstantiationException | NoSuchFieldException
+                | InvocationTargetException | NoSuchMethodException | ClassNotFoundException e) {
+            Log.e(TAG, e.getMessage());
+        }
+        OPFPush.getHelper().register();
+
+        assertTrue(OPFPush.getHelper().isRegistered());
+        assertFalse(eventListener.isRegistered());
+        assertEquals(1, callbacks.size());
+
+        callbacks.get(0).run();
+        assertTrue(eventListener.isRegistered());
+
+        OPFPush.getHelper().getReceivedMessageHandler().onMessage(providerName, null);
+        assertEquals(2, callbacks.size());
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    @Test
+    public void testHedgedRegistrationCommitsToHighestPriority() {
+        final MockPushProvider firstProvider = new MockPushProvider.Builder()
+                .setName("First")
+                .setAvailabilityResult(new AvailabilityResult(true))
+                .build();
+        final MockPushProvider secondProvider = new MockPushProvider.Builder()
+                .setName("Second")
+                .setAvailabilityResult(new AvailabilityResult(true))
+                .build();
+        final TestEventListener eventListener = new TestEventListener();
+        final Configuration configuration = new Configuration.Builder()
+                .addProviders(firstProvider, secondProvider)
+                .setEventListener(eventListener)
+                .setHedgedRegistrationCount(2)
+                .build();
+
+        try {
+            initOPFPush(configuration);
+        } catch (IllegalAccessException | InstantiationException | NoSuchFieldException
+                | InvocationTargetException | NoSuchMethodException | ClassNotFoundException e) {
+            Log.e(TAG, e.getMessage());
+        }
+        OPFPush.getHelper().register();
+
+        assertTrue(eventListener.isRegistered());
+        assertEquals("First", OPFPush.getHelper().getProviderName());
+        assertTrue(firstProvider.isRegistered());
+        assertFalse(secondProvider.isRegistered());
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    @Test
+    public void testHedgedRegistrationFailover() {
+        final MockPushProvider firstProvider = new MockPushProvider.Builder()
+                .setName("First")
+                .setAvailabilityResult(new AvailabilityResult(true))
+                .setRegError(new UnrecoverablePushError(UnrecoverablePushError.Type.PROVIDER_SPECIFIC_ERROR, "First"))
+                .build();
+        final MockPushProvider secondProvider = new MockPushProvider.Builder()
+                .setName("Second")
+                .setAvailabilityResult(new AvailabilityResult(true))
+                .build();
+        final TestEventListener eventListener = new TestEventListener();
+        final Configuration configuration = new Configuration.Builder()
+                .addProviders(firstProvider, secondProvider)
+                .setEventListener(eventListener)
+                .setHedgedRegistrationCount(2)
+                .build();
+
+        try {
+            initOPFPush(configuration);
+        } catch (IllegalAccessException | InstantiationException | NoSuchFieldException
+                | InvocationTargetException | NoSuchMethodException | ClassNotFoundException e) {
+            Log.e(TAG, e.getMessage());
+        }
+        OPFPush.getHelper().register();
+
+        assertTrue(eventListener.isRegistered());
+        assertEquals("Second", OPFPush.getHelper().getProviderName());
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    @Test
+    public void testHedgedRegistrationRetriesRecoverableError() {
+        final MockPushProvider firstProvider = new MockPushProvider.Builder()
+                .setName("First")
+                .setAvailabilityResult(new AvailabilityResult(true))
+                .setRegError(new RecoverablePushError(RecoverablePushError.Type.SERVICE_NOT_AVAILABLE,
+                        "First", "SERVICE_NOT_AVAILABLE"))
+                .build();
+        final MockPushProvider secondProvider = new MockPushProvider.Builder()
+                .setName("Second")
+                .setAvailabilityResult(new AvailabilityResult(true))
+                .build();
+        final TestEventListener eventListener = new TestEventListener();
+        final Configuration configuration = new Configuration.Builder()
+                .addProviders(firstProvider, secondProvider)
+                .setEventListener(eventListener)
+                .setHedgedRegistrationCount(2)
+                .build();
+
+        try {
+            initOPFPush(configuration);
+        } catch (IllegalAccessException | InstantiationException | NoSuchFieldException
+                | InvocationTargetException | NoSuchMethodException | ClassNotFoundException e) {
+            Log.e(TAG, e.getMessage());
+        }
+        OPFPush.getHelper().register();
+
+        //The second provider waits for the retry of the first one.
+        assertFalse(eventListener.isRegistered());
+        assertTrue(OPFPush.getHelper().isRegistering());
+        assertTrue(secondProvider.isRegistered());
+
+        firstProvider.setRegError(null);
+        OPFPush.getHelper().register("First");
+
+        assertTrue(eventListener.isRegistered());
+        assertEquals("First", OPFPush.getHelper().getProviderName());
+        assertFalse(secondProvider.isRegistered());
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    @Test
+    public void testOptimisticRestoreTrustsStoredProvider() throws ClassNotFoundException
+            , IllegalAccessException, InvocationTargetException, InstantiationException
+            , NoSuchMethodException, NoSuchFieldException {
+        final String providerName = "Courier";
+        final PushProvider provider = new MockPushProvider.Builder()
+                .setName(providerName)
+                .setAvailabilityResult(new AvailabilityResult(true))
+                .build();
+        final Configuration configuration = new Configuration.Builder()
+                .addProviders(provider)
+                .setEventListener(new TestEventListener())
+                .setOptimisticRestoreEnabled(true)
+                .build();
+
+        initOPFPush(configuration);
+        OPFPush.getHelper().register();
+        assertEquals(providerName, OPFPush.getHelper().getProviderName());
+
+        initOPFPush(configuration);
+
+        assertTrue(OPFPush.getHelper().isRegistered());
+        assertEquals(providerName, OPFPush.getHelper().getProviderName());
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    @Test
+    public void testOptimisticRestoreFailsOverUnavailableProvider() throws ClassNotFoundException
+            , IllegalAccessException, InvocationTargetException, InstantiationException
+            , NoSuchMethodException, NoSuchFieldException {
+        final MockPushProvider firstProvider = new MockPushProvider.Builder()
+                .setName("First")
+                .setAvailabilityResult(new AvailabilityResult(true))
+                .build();
+        final MockPushProvider secondProvider = new MockPushProvider.Builder()
+                .setName("Second")
+                .setAvailabilityResult(new AvailabilityResult(true))
+                .build();
+        final TestEventListener eventListener = new TestEventListener();
+        final Configuration configuration = new Configuration.Builder()
+                .addProviders(firstProvider, secondProvider)
+                .setEventListener(eventListener)
+                .setOptimisticRestoreEnabled(true)
+                .build();
+
+        initOPFPush(configuration);
+        OPFPush.getHelper().register();
+        assertEquals("First", OPFPush.getHelper().getProviderName());
+
+        firstProvider.setAvailabilityResult(new AvailabilityResult(false));
+        final List<Runnable> backgroundTasks = new ArrayList<>();
+        initOPFPush(configuration, new Executor() {
+            @Override
+            public void execute(@NonNull final Runnable command) {
+                backgroundTasks.add(command);
+            }
+        });
+
+        //The stored provider is trusted until the revalidation.
+        assertTrue(OPFPush.getHelper().isRegistered());
+        assertEquals("First", OPFPush.getHelper().getProviderName());
+        assertFalse(backgroundTasks.isEmpty());
+
+        for (Runnable backgroundTask : backgroundTasks) {
+            backgroundTask.run();
+        }
+
+        assertTrue(OPFPush.getHelper().isRegistered());
+        assertEquals("Second", OPFPush.getHelper().getProviderName());
+        assertTrue(secondProvider.isRegistered());
+    }
+
     private void initOPFPush(Configuration configuration) throws ClassNotFoundException
             , IllegalAccessException, InvocationTargetException, InstantiationException
             , NoSuchMethodException, NoSuchFieldException {
+        initOPFPush(configuration, null);
+    }
+
+    private void initOPFPush(Configuration configuration, @Nullable Executor backgroundExecutor)
+            throws ClassNotFoundException, IllegalAccessException, InvocationTargetException
+            , InstantiationException, NoSuchMethodException, NoSuchFieldException {
         final Class<?> helperClass = Class.forName("org.onepf.opfpush.OPFPushHelperImpl");
         final Constructor<?> constructor = helperClass.getDeclaredConstructors()[0];
         constructor.setAccessible(true);
         final Object helper = constructor.newInstance(RuntimeEnvironment.application);
+        if (backgroundExecutor != null) {
+            final Field backgroundExecutorField = helperClass.getDeclaredField("backgroundExecutor");
+            backgroundExecutorField.setAccessible(true);
+            backgroundExecutorField.set(helper, backgroundExecutor);
+        }
         final Method helperInitMethod = helperClass.getDeclaredMethod("init", Configuration.class);
         helperInitMethod.invoke(helper, configuration);
         final Field helperField = OPFPush.class.getDeclaredField("helper");
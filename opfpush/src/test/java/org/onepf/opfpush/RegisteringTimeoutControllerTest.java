@@ -24,13 +24,18 @@ import android.os.Build;
 
 import junit.framework.Assert;
 
+import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.onepf.opfpush.backoff.AlarmScheduler;
+import org.onepf.opfpush.configuration.Configuration;
+import org.onepf.opfpush.mock.MockNamePushProvider;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowAlarmManager;
 
+import java.lang.reflect.Field;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -46,9 +51,17 @@ import static org.robolectric.Shadows.shadowOf;
 public class RegisteringTimeoutControllerTest {
 
     private static final String TEST_PROVIDER = "TEST_PROVIDER";
+    private static final String OTHER_PROVIDER = "OTHER_PROVIDER";
     private static final long TIMEOUT_MINUTES = 5;
     private static final long TIME_DELTA_MILLISECONDS = 100;
 
+    @After
+    public void eraseAlarmSchedulerInstance() throws NoSuchFieldException, IllegalAccessException {
+        final Field instanceField = AlarmScheduler.class.getDeclaredField("instance");
+        instanceField.setAccessible(true);
+        instanceField.set(null, null);
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
     @Test
     public void testSetTimeout() {
@@ -57,7 +70,7 @@ public class RegisteringTimeoutControllerTest {
         final ShadowAlarmManager shadowAlarmManager = shadowOf(alarmManager);
 
         final long whenExpected = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(TIMEOUT_MINUTES);
-        RegisteringTimeoutController.setTimeout(ctx, TEST_PROVIDER);
+        new RegisteringTimeoutController(ctx, createConfigurationBuilder().build()).setTimeout(TEST_PROVIDER);
 
         final List<ShadowAlarmManager.ScheduledAlarm> alarms = shadowAlarmManager.getScheduledAlarms();
         for (ShadowAlarmManager.ScheduledAlarm alarm : alarms) {
@@ -70,4 +83,117 @@ public class RegisteringTimeoutControllerTest {
         }
         Assert.fail();
     }
+
+    @Test
+    public void testProviderTimeout() {
+        final Configuration configuration = createConfigurationBuilder()
+                .setRegisteringTimeout(TimeUnit.MINUTES.toMillis(2))
+                .setRegisteringTimeout(TEST_PROVIDER, TimeUnit.SECONDS.toMillis(30))
+                .build();
+        final RegisteringTimeoutController controller =
+                new RegisteringTimeoutController(RuntimeEnvironment.application, configuration);
+
+        Assert.assertEquals(TimeUnit.SECONDS.toMillis(30), controller.getTimeoutMillis(TEST_PROVIDER));
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(2), controller.getTimeoutMillis(OTHER_PROVIDER));
+    }
+
+    @Test
+    public void testAdaptiveTimeout() {
+        final Configuration configuration = createConfigurationBuilder()
+                .setAdaptiveRegisteringTimeoutEnabled(true)
+                .build();
+        final RegisteringTimeoutController controller =
+                new RegisteringTimeoutController(RuntimeEnvironment.application, configuration);
+        final RegistrationLatencyStorage latencyStorage = new RegistrationLatencyStorage(RuntimeEnvironment.application);
+
+        for (int i = 1; i < RegistrationLatencyStorage.MIN_LATENCIES_COUNT; ++i) {
+            latencyStorage.addLatency(TEST_PROVIDER, TimeUnit.SECONDS.toMillis(i));
+        }
+        //There are not enough latencies yet.
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(TIMEOUT_MINUTES), controller.getTimeoutMillis(TEST_PROVIDER));
+
+        for (int i = RegistrationLatencyStorage.MIN_LATENCIES_COUNT; i <= 20; ++i) {
+            latencyStorage.addLatency(TEST_PROVIDER, TimeUnit.SECONDS.toMillis(i));
+        }
+        //The 95th percentile of 1..20 seconds is 19 seconds.
+        Assert.assertEquals(TimeUnit.SECONDS.toMillis(19) * RegisteringTimeoutController.ADAPTIVE_TIMEOUT_FACTOR,
+                controller.getTimeoutMillis(TEST_PROVIDER));
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(TIMEOUT_MINUTES), controller.getTimeoutMillis(OTHER_PROVIDER));
+    }
+
+    @Test
+    public void testAdaptiveTimeoutBounds() {
+        final Configuration configuration = createConfigurationBuilder()
+                .setAdaptiveRegisteringTimeoutEnabled(true)
+                .setRegisteringTimeout(OTHER_PROVIDER, TimeUnit.SECONDS.toMillis(20))
+                .build();
+        final RegisteringTimeoutController controller =
+                new RegisteringTimeoutController(RuntimeEnvironment.application, configuration);
+        final RegistrationLatencyStorage latencyStorage = new RegistrationLatencyStorage(RuntimeEnvironment.application);
+
+        for (int i = 0; i < RegistrationLatencyStorage.MAX_LATENCIES_COUNT; ++i) {
+            latencyStorage.addLatency(TEST_PROVIDER, 100);
+            latencyStorage.addLatency(OTHER_PROVIDER, TimeUnit.MINUTES.toMillis(1));
+        }
+
+        Assert.assertEquals(RegisteringTimeoutController.MIN_ADAPTIVE_TIMEOUT_MILLIS,
+                controller.getTimeoutMillis(TEST_PROVIDER));
+        Assert.assertEquals(TimeUnit.SECONDS.toMillis(20), controller.getTimeoutMillis(OTHER_PROVIDER));
+    }
+
+    @Test
+    public void testOnRegisteredStoresLatency() {
+        final Configuration configuration = createConfigurationBuilder()
+                .setAdaptiveRegisteringTimeoutEnabled(true)
+                .build();
+        final RegisteringTimeoutController controller =
+                new RegisteringTimeoutController(RuntimeEnvironment.application, configuration);
+        final RegistrationLatencyStorage latencyStorage = new RegistrationLatencyStorage(RuntimeEnvironment.application);
+
+        controller.onRegistered(TEST_PROVIDER);
+        Assert.assertEquals(0, latencyStorage.getSortedLatencies(TEST_PROVIDER).length);
+
+        controller.setTimeout(TEST_PROVIDER);
+        controller.onRegistered(TEST_PROVIDER);
+        Assert.assertEquals(1, latencyStorage.getSortedLatencies(TEST_PROVIDER).length);
+    }
+
+    @Test
+    public void testOnTimeoutStoresAppliedTimeout() {
+        final Configuration configuration = createConfigurationBuilder()
+                .setAdaptiveRegisteringTimeoutEnabled(true)
+                .build();
+        final RegisteringTimeoutController controller =
+                new RegisteringTimeoutController(RuntimeEnvironment.application, configuration);
+        final RegistrationLatencyStorage latencyStorage = new RegistrationLatencyStorage(RuntimeEnvironment.application);
+
+        for (int i = 0; i < RegistrationLatencyStorage.MAX_LATENCIES_COUNT; ++i) {
+            latencyStorage.addLatency(TEST_PROVIDER, TimeUnit.SECONDS.toMillis(10));
+        }
+        final long initialTimeout = controller.getTimeoutMillis(TEST_PROVIDER);
+        Assert.assertEquals(TimeUnit.SECONDS.toMillis(10) * RegisteringTimeoutController.ADAPTIVE_TIMEOUT_FACTOR,
+                initialTimeout);
+
+        //The timeout without the started registration is ignored.
+        controller.onTimeout(TEST_PROVIDER);
+        Assert.assertEquals(initialTimeout, controller.getTimeoutMillis(TEST_PROVIDER));
+
+        for (int i = 0; i < 2; ++i) {
+            controller.setTimeout(TEST_PROVIDER);
+            controller.onTimeout(TEST_PROVIDER);
+        }
+        final long[] latencies = latencyStorage.getSortedLatencies(TEST_PROVIDER);
+        Assert.assertEquals(initialTimeout, latencies[latencies.length - 1]);
+        //The timed out registrations make the timeout grow.
+        Assert.assertTrue(controller.getTimeoutMillis(TEST_PROVIDER) > initialTimeout);
+
+        //The registration start time is cleared by the timeout.
+        controller.onRegistered(TEST_PROVIDER);
+        Assert.assertEquals(TimeUnit.SECONDS.toMillis(10), latencyStorage.getSortedLatencies(TEST_PROVIDER)[0]);
+    }
+
+    private static Configuration.Builder createConfigurationBuilder() {
+        return new Configuration.Builder()
+                .addProviders(new MockNamePushProvider(TEST_PROVIDER), new MockNamePushProvider(OTHER_PROVIDER));
+    }
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.onepf.opfpush.model.State;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+import static org.onepf.opfpush.model.State.REGISTERED;
+import static org.onepf.opfpush.model.State.REGISTERING;
+import static org.onepf.opfpush.model.State.UNREGISTERED;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class RegistrationStateMachineTest extends Assert {
+
+    private static final String OPF_CORE_POSTFIX = "opfpush";
+    private static final int NUM_THREADS = 8;
+    private static final int NUM_ITERATIONS = 2000;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private Settings settings;
+    private RegistrationStateMachine stateMachine;
+
+    @Before
+    public void setup() {
+        final Context ctx = RuntimeEnvironment.application.getApplicationContext();
+        final SharedPreferences preferences = ctx.getSharedPreferences(
+                ctx.getPackageName() + "." + OPF_CORE_POSTFIX, Context.MODE_MULTI_PROCESS);
+        settings = new Settings(preferences);
+        stateMachine = new RegistrationStateMachine(settings);
+    }
+
+    @Test
+    public void isAllowed() {
+        for (State from : State.values()) {
+            for (State to : State.values()) {
+                assertEquals(from != REGISTERED || to != REGISTERING, RegistrationStateMachine.isAllowed(from, to));
+            }
+        }
+    }
+
+    @Test
+    public void moveTo_persistsState() {
+        assertTrue(stateMachine.moveTo(REGISTERING));
+        assertEquals(REGISTERING, settings.getState());
+        assertTrue(stateMachine.moveTo(REGISTERED));
+        assertEquals(REGISTERED, settings.getState());
+        assertTrue(stateMachine.moveTo(UNREGISTERED));
+        assertEquals(UNREGISTERED, settings.getState());
+    }
+
+    @Test
+    public void moveTo_rejectedTransitionDoesNotApplyTransaction() {
+        assertTrue(stateMachine.moveTo(REGISTERED));
+        assertFalse(stateMachine.moveTo(REGISTERING, settings.edit().saveRegisteringProvider("provider")));
+        assertEquals(REGISTERED, stateMachine.getState());
+        assertEquals(REGISTERED, settings.getState());
+        assertFalse(settings.isProviderRegistrationPerforming("provider"));
+    }
+
+    @Test
+    public void clear_resetsState() {
+        assertTrue(stateMachine.moveTo(REGISTERED));
+        stateMachine.clear();
+        assertEquals(UNREGISTERED, stateMachine.getState());
+        assertEquals(UNREGISTERED, settings.getState());
+    }
+
+    @Test
+    public void clear_removesValuesOfTransitions() {
+        assertTrue(stateMachine.moveTo(REGISTERING, settings.edit().saveRegisteringProvider("provider")));
+        stateMachine.clear();
+        assertEquals(UNREGISTERED, settings.getState());
+        assertFalse(settings.isProviderRegistrationPerforming("provider"));
+    }
+
+    @Test
+    public void concurrentMoveToAndClear_storedStateIsActual() throws Exception {
+        final List<Boolean> results = runConcurrently(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                final Random random = new Random();
+                final State[] states = State.values();
+                for (int i = 0; i < NUM_ITERATIONS; ++i) {
+                    final int choice = random.nextInt(states.length + 1);
+                    if (choice == states.length) {
+                        stateMachine.clear();
+                    } else {
+                        stateMachine.moveTo(states[choice]);
+                    }
+                }
+                return true;
+            }
+        });
+
+        assertEquals(NUM_THREADS, results.size());
+        assertEquals(stateMachine.getState(), settings.getState());
+    }
+
+    @Test
+    public void concurrentMoveTo_registeredToRegisteringIsAlwaysRejected() throws Exception {
+        assertTrue(stateMachine.moveTo(REGISTERED));
+
+        final List<Boolean> results = runConcurrently(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                boolean isAnyAccepted = false;
+                for (int i = 0; i < NUM_ITERATIONS; ++i) {
+                    isAnyAccepted |= stateMachine.moveTo(REGISTERING);
+                }
+                return isAnyAccepted;
+            }
+        });
+
+        for (Boolean isAnyAccepted : results) {
+            assertFalse(isAnyAccepted);
+        }
+        assertEquals(REGISTERED, stateMachine.getState());
+        assertEquals(REGISTERED, settings.getState());
+    }
+
+    @Test
+    public void concurrentMoveTo_resultsAreConsistent() throws Exception {
+        final List<Boolean> results = runConcurrently(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                final Random random = new Random();
+                final State[] states = State.values();
+                for (int i = 0; i < NUM_ITERATIONS; ++i) {
+                    final State newState = states[random.nextInt(states.length)];
+                    if (!stateMachine.moveTo(newState) && newState != REGISTERING) {
+                        //Only REGISTERED -> REGISTERING transition can be rejected.
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+
+        for (Boolean isConsistent : results) {
+            assertTrue(isConsistent);
+        }
+        assertEquals(stateMachine.getState(), settings.getState());
+    }
+
+    private List<Boolean> runConcurrently(final Callable<Boolean> task) throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(NUM_THREADS);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Future<Boolean>> futures = new ArrayList<>(NUM_THREADS);
+        try {
+            for (int i = 0; i < NUM_THREADS; ++i) {
+                futures.add(executorService.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        startLatch.await();
+                        return task.call();
+                    }
+                }));
+            }
+            startLatch.countDown();
+
+            final List<Boolean> results = new ArrayList<>(NUM_THREADS);
+            for (Future<Boolean> future : futures) {
+                results.add(future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class SerialExecutorTest extends Assert {
+
+    private static final int NUM_THREADS = 8;
+    private static final int NUM_TASKS = 10000;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private int counter;
+
+    @Test
+    public void execute_runsTaskInCallerThread() {
+        final SerialExecutor executor = new SerialExecutor();
+        final Thread callerThread = Thread.currentThread();
+        final List<Thread> executionThreads = new ArrayList<>();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                executionThreads.add(Thread.currentThread());
+            }
+        });
+
+        assertEquals(1, executionThreads.size());
+        assertSame(callerThread, executionThreads.get(0));
+    }
+
+    @Test
+    public void execute_nestedTaskRunsAfterCurrent() {
+        final SerialExecutor executor = new SerialExecutor();
+        final List<String> events = new ArrayList<>();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                events.add("outer start");
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        events.add("nested");
+                    }
+                });
+                events.add("outer end");
+            }
+        });
+
+        assertEquals(3, events.size());
+        assertEquals("outer start", events.get(0));
+        assertEquals("outer end", events.get(1));
+        assertEquals("nested", events.get(2));
+    }
+
+    @Test
+    public void execute_concurrentTasksNeverOverlap() throws Exception {
+        final SerialExecutor executor = new SerialExecutor();
+        final AtomicInteger runningTasks = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                if (runningTasks.incrementAndGet() != 1) {
+                    overlaps.incrementAndGet();
+                }
+                ++counter;
+                runningTasks.decrementAndGet();
+            }
+        };
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(NUM_THREADS);
+        try {
+            final List<Future<?>> futures = new ArrayList<>(NUM_THREADS);
+            for (int i = 0; i < NUM_THREADS; ++i) {
+                futures.add(executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            startLatch.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        for (int j = 0; j < NUM_TASKS; ++j) {
+                            executor.execute(task);
+                        }
+                    }
+                }));
+            }
+            startLatch.countDown();
+            for (Future<?> future : futures) {
+                future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertEquals(0, overlaps.get());
+        assertEquals(NUM_THREADS * NUM_TASKS, counter);
+    }
+
+    @Test
+    public void execute_failedTaskDoesNotStopFollowingTasks() {
+        final SerialExecutor executor = new SerialExecutor();
+        final List<String> events = new ArrayList<>();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        events.add("nested");
+                    }
+                });
+                throw new IllegalStateException("Failed task");
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                events.add("next");
+            }
+        });
+
+        assertEquals(2, events.size());
+        assertEquals("nested", events.get(0));
+        assertEquals("next", events.get(1));
+    }
+
+    @Test
+    public void execute_concurrentCallerDoesNotWait() throws Exception {
+        final SerialExecutor executor = new SerialExecutor();
+        final CountDownLatch firstTaskStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstTask = new CountDownLatch(1);
+        final AtomicReference<Thread> secondTaskThread = new AtomicReference<>();
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        final Thread firstThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        firstTaskStarted.countDown();
+                        try {
+                            releaseFirstTask.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        events.add("first");
+                    }
+                });
+            }
+        });
+        firstThread.start();
+        assertTrue(firstTaskStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        //The task is queued while the first task is running, the caller returns immediately.
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                secondTaskThread.set(Thread.currentThread());
+                events.add("second");
+            }
+        });
+        assertTrue(events.isEmpty());
+
+        releaseFirstTask.countDown();
+        firstThread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+
+        assertSame(firstThread, secondTaskThread.get());
+        assertEquals(2, events.size());
+        assertEquals("first", events.get(0));
+        assertEquals("second", events.get(1));
+    }
+}
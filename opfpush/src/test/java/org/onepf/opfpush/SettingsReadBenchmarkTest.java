@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.onepf.opfpush.model.State;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLog;
+
+import java.lang.reflect.Field;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * Compares the latency of the {@link Settings} snapshot reads with the direct preferences reads
+ * that were used before.
+ *
+ * @since 18.10.2026
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class SettingsReadBenchmarkTest extends Assert {
+
+    private static final String TAG = SettingsReadBenchmarkTest.class.getSimpleName();
+
+    private static final String KEY_STATE = "state";
+    private static final String KEY_REGISTERING_PROVIDER_PREFIX = "registering_provider_";
+    private static final String OPF_CORE_POSTFIX = "opfpush";
+    private static final String PROVIDER_NAME = "provider";
+
+    private static final int WARM_UP_ITERATIONS = 10000;
+    private static final int ITERATIONS = 100000;
+
+    private final Object lock = new Object();
+
+    private SharedPreferences sharedPreferences;
+    private Settings settings;
+
+    @Before
+    public void setup() {
+        ShadowLog.stream = System.out;
+        final Context ctx = RuntimeEnvironment.application.getApplicationContext();
+        sharedPreferences = ctx.getSharedPreferences(ctx.getPackageName() + "." + OPF_CORE_POSTFIX,
+                Context.MODE_MULTI_PROCESS);
+        settings = Settings.getInstance(ctx);
+        settings.saveState(State.REGISTERED);
+        settings.saveRegisteringProvider(PROVIDER_NAME);
+    }
+
+    @After
+    public void eraseSettingsInstance() throws NoSuchFieldException, IllegalAccessException {
+        final Field instanceField = Settings.class.getDeclaredField("instance");
+        instanceField.setAccessible(true);
+        instanceField.set(null, null);
+    }
+
+    @Test
+    public void getState_readLatency() {
+        for (int i = 0; i < WARM_UP_ITERATIONS; ++i) {
+            readStateFromPreferences();
+            settings.getState();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            assertEquals(State.REGISTERED, readStateFromPreferences());
+        }
+        final long preferencesNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            assertEquals(State.REGISTERED, settings.getState());
+        }
+        final long snapshotNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(TAG, "getState() : preferences " + preferencesNanos + " ns/op, snapshot " + snapshotNanos + " ns/op");
+    }
+
+    @Test
+    public void isProviderRegistrationPerforming_readLatency() {
+        for (int i = 0; i < WARM_UP_ITERATIONS; ++i) {
+            readRegisteringFromPreferences();
+            settings.isProviderRegistrationPerforming(PROVIDER_NAME);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            assertTrue(readRegisteringFromPreferences());
+        }
+        final long preferencesNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            assertTrue(settings.isProviderRegistrationPerforming(PROVIDER_NAME));
+        }
+        final long snapshotNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(TAG, "isProviderRegistrationPerforming() : preferences " + preferencesNanos
+                + " ns/op, snapshot " + snapshotNanos + " ns/op");
+    }
+
+    /**
+     * Reproduces the read path of the {@code Settings} before the in-memory snapshot was introduced.
+     */
+    private State readStateFromPreferences() {
+        synchronized (lock) {
+            return State.fromValue(sharedPreferences.getInt(KEY_STATE, State.UNREGISTERED.getValue()));
+        }
+    }
+
+    private boolean readRegisteringFromPreferences() {
+        synchronized (lock) {
+            return sharedPreferences.getBoolean(KEY_REGISTERING_PROVIDER_PREFIX + PROVIDER_NAME, false);
+        }
+    }
+}
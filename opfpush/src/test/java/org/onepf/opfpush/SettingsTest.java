@@ -106,6 +106,7 @@ public class SettingsTest extends Assert {
         // check all states get correctly
         for (State state : State.values()) {
             sharedPreferences.edit().putInt(KEY_STATE, state.getValue()).apply();
+            reloadSettings();
             assertEquals(state, settings.getState());
         }
     }
@@ -113,6 +114,7 @@ public class SettingsTest extends Assert {
     @Test
     public void getState_nullIsTreatedAsUnregistered() {
         sharedPreferences.edit().putInt(KEY_STATE, -1).apply();
+        reloadSettings();
         assertEquals(State.UNREGISTERED, settings.getState());
     }
 
@@ -163,6 +165,7 @@ public class SettingsTest extends Assert {
         for (int i = 0; i < NUM_TESTS; ++i) {
             expected = pushProviders[RND.nextInt(NUM_PROVIDERS)].getName();
             sharedPreferences.edit().putString(KEY_LAST_PROVIDER_NAME, expected).apply();
+            reloadSettings();
             assertEquals(expected, settings.getLastProviderName());
         }
     }
@@ -190,6 +193,7 @@ public class SettingsTest extends Assert {
     public void saveLastAndroidId_passingNullClearsPreferences() {
         // test null case
         sharedPreferences.edit().putString(KEY_LAST_ANDROID_ID, "notNull").apply();
+        reloadSettings();
         settings.saveLastAndroidId(null);
         assertFalse(sharedPreferences.contains(KEY_LAST_ANDROID_ID));
     }
@@ -199,6 +203,7 @@ public class SettingsTest extends Assert {
         String[] randomStrings = getRandomStrings(NUM_TESTS, RANDOM_STRING_LENGTH);
         for (int i = 0; i < NUM_TESTS; ++i) {
             sharedPreferences.edit().putString(KEY_LAST_ANDROID_ID, randomStrings[i]).apply();
+            reloadSettings();
             assertEquals(randomStrings[i], settings.getLastAndroidId());
         }
     }
@@ -229,6 +234,7 @@ public class SettingsTest extends Assert {
                     true
             ).apply();
         }
+        reloadSettings();
 
         final List<String> mixedRandomStrings = shuffleStringArray(randomStrings);
         for (int i = 0; i < NUM_TESTS; ++i) {
@@ -261,6 +267,7 @@ public class SettingsTest extends Assert {
                     true
             ).apply();
         }
+        reloadSettings();
 
         for (int i = 0; i < NUM_TESTS; ++i) {
             settings.removeUnregisteringProvider(randomStrings[i]);
@@ -290,6 +297,7 @@ public class SettingsTest extends Assert {
                     true
             ).apply();
         }
+        reloadSettings();
 
         final List<String> mixedRandomStrings = shuffleStringArray(randomStrings);
         for (int i = 0; i < NUM_TESTS; ++i) {
@@ -322,6 +330,7 @@ public class SettingsTest extends Assert {
                     true
             ).apply();
         }
+        reloadSettings();
 
         for (int i = 0; i < NUM_TESTS; ++i) {
             settings.removeRegisteringProvider(randomStrings[i]);
@@ -409,6 +418,56 @@ public class SettingsTest extends Assert {
         }
     }
 
+    @Test
+    public void edit_changesAreInvisibleBeforeApply() {
+        final String providerName = pushProviders[RND.nextInt(NUM_PROVIDERS)].getName();
+        final Settings.Transaction transaction = settings.edit()
+                .saveState(State.REGISTERING)
+                .saveRegisteringProvider(providerName)
+                .savePendingUnregistrationProvider(providerName);
+
+        assertEquals(State.UNREGISTERED, settings.getState());
+        assertFalse(settings.isProviderRegistrationPerforming(providerName));
+        assertNull(settings.getPendingUnregistrationProvider());
+        assertFalse(sharedPreferences.contains(KEY_STATE));
+
+        transaction.apply();
+
+        assertEquals(State.REGISTERING, settings.getState());
+        assertTrue(settings.isProviderRegistrationPerforming(providerName));
+        assertEquals(providerName, settings.getPendingUnregistrationProvider());
+        assertEquals(State.REGISTERING.getValue(), sharedPreferences.getInt(KEY_STATE, -1));
+        assertTrue(sharedPreferences.getBoolean(
+                KEY_REGISTERING_PROVIDER_PREFIX + providerName.toLowerCase(Locale.US),
+                false
+        ));
+        assertEquals(providerName, sharedPreferences.getString(KEY_PENDING_UNREGISTRATION_PROVIDER, null));
+    }
+
+    @Test
+    public void edit_lastChangeOfKeyWins() {
+        final PushProvider provider = pushProviders[RND.nextInt(NUM_PROVIDERS)];
+        settings.saveRegisteringProvider(provider.getName());
+        settings.savePendingRegistrationProvider(provider.getName());
+
+        settings.edit()
+                .saveState(State.REGISTERING)
+                .saveState(State.REGISTERED)
+                .removeRegisteringProvider(provider.getName())
+                .removePendingRegistrationProvider()
+                .saveLastProvider(provider)
+                .apply();
+
+        assertEquals(State.REGISTERED, settings.getState());
+        assertFalse(settings.isProviderRegistrationPerforming(provider.getName()));
+        assertNull(settings.getPendingRegistrationProvider());
+        assertEquals(provider.getName(), settings.getLastProviderName());
+        assertFalse(sharedPreferences.contains(
+                KEY_REGISTERING_PROVIDER_PREFIX + provider.getName().toLowerCase(Locale.US)
+        ));
+        assertFalse(sharedPreferences.contains(KEY_PENDING_REGISTRATION_PROVIDER));
+    }
+
     @Test
     public void testGetInstance() {
         eraseSettingsInstance();
@@ -416,5 +475,10 @@ public class SettingsTest extends Assert {
         assertEquals(settings, Settings.getInstance(RuntimeEnvironment.application.getApplicationContext()));
     }
 
-
+    /**
+     * {@code Settings} reads the preferences only when it's created.
+     */
+    private void reloadSettings() {
+        settings = new Settings(sharedPreferences);
+    }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.backoff;
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.util.Pair;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowAlarmManager;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+import static org.onepf.opfpush.OPFConstants.ACTION_RETRY_REGISTER;
+import static org.onepf.opfpush.OPFConstants.ACTION_RETRY_UNREGISTER;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class AlarmSchedulerTest extends Assert {
+
+    private static final String PROVIDER_A = "PROVIDER_A";
+    private static final String PROVIDER_B = "PROVIDER_B";
+
+    //Different names with the same hash code.
+    private static final String COLLIDING_PROVIDER_A = "Aa";
+    private static final String COLLIDING_PROVIDER_B = "BB";
+
+    //Must be equal to OPFConstants.ACTION_CHECK_REGISTERING_TIMEOUT, that isn't visible from this package.
+    private static final String ACTION_TIMEOUT = "timeout";
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private AlarmScheduler alarmScheduler;
+
+    private ShadowAlarmManager shadowAlarmManager;
+
+    @Before
+    public void setUp() {
+        alarmScheduler = AlarmScheduler.getInstance(RuntimeEnvironment.application);
+        shadowAlarmManager = shadowOf((AlarmManager) RuntimeEnvironment.application
+                .getSystemService(Context.ALARM_SERVICE));
+    }
+
+    @After
+    public void eraseInstance() throws NoSuchFieldException, IllegalAccessException {
+        final Field instanceField = AlarmScheduler.class.getDeclaredField("instance");
+        instanceField.setAccessible(true);
+        instanceField.set(null, null);
+    }
+
+    @Test
+    public void singleAlarmIsArmedForEarliestDeadline() {
+        final long now = System.currentTimeMillis();
+        alarmScheduler.schedule(PROVIDER_A, ACTION_RETRY_REGISTER, now + 3 * HOUR);
+        alarmScheduler.schedule(PROVIDER_B, ACTION_RETRY_REGISTER, now + HOUR);
+        alarmScheduler.schedule(PROVIDER_A, ACTION_TIMEOUT, now + 2 * HOUR);
+
+        assertEquals(1, shadowAlarmManager.getScheduledAlarms().size());
+        assertEquals(now + HOUR, shadowAlarmManager.getScheduledAlarms().get(0).triggerAtTime);
+        assertEquals(Long.valueOf(now + HOUR), alarmScheduler.getArmedTime());
+
+        alarmScheduler.cancel(PROVIDER_B, ACTION_RETRY_REGISTER);
+        assertEquals(Long.valueOf(now + 2 * HOUR), alarmScheduler.getArmedTime());
+
+        alarmScheduler.cancel(PROVIDER_A, ACTION_RETRY_REGISTER);
+        alarmScheduler.cancel(PROVIDER_A, ACTION_TIMEOUT);
+        assertNull(alarmScheduler.getArmedTime());
+        assertTrue(shadowAlarmManager.getScheduledAlarms().isEmpty());
+    }
+
+    @Test
+    public void scheduleReplacesDeadline() {
+        final long now = System.currentTimeMillis();
+        alarmScheduler.schedule(PROVIDER_A, ACTION_RETRY_REGISTER, now + HOUR);
+        alarmScheduler.schedule(PROVIDER_A, ACTION_RETRY_REGISTER, now + 2 * HOUR);
+
+        assertEquals(Long.valueOf(now + 2 * HOUR), alarmScheduler.getArmedTime());
+    }
+
+    @Test
+    public void takeDueAlarmsCoalescesCloseDeadlines() {
+        final long now = System.currentTimeMillis();
+        alarmScheduler.schedule(PROVIDER_A, ACTION_RETRY_REGISTER, now - 1);
+        alarmScheduler.schedule(PROVIDER_B, ACTION_RETRY_UNREGISTER, now + AlarmScheduler.COALESCING_WINDOW_MILLIS / 2);
+        alarmScheduler.schedule(PROVIDER_B, ACTION_RETRY_REGISTER, now + HOUR);
+
+        final List<Pair<String, String>> dueAlarms = alarmScheduler.takeDueAlarms();
+        assertEquals(Arrays.asList(
+                new Pair<>(PROVIDER_A, ACTION_RETRY_REGISTER),
+                new Pair<>(PROVIDER_B, ACTION_RETRY_UNREGISTER)
+        ), dueAlarms);
+        assertEquals(Long.valueOf(now + HOUR), alarmScheduler.getArmedTime());
+        assertTrue(alarmScheduler.takeDueAlarms().isEmpty());
+    }
+
+    @Test
+    public void retryAndTimeoutDoNotCollide() {
+        final long now = System.currentTimeMillis();
+        alarmScheduler.schedule(PROVIDER_A, ACTION_RETRY_REGISTER, now);
+        alarmScheduler.schedule(PROVIDER_A, ACTION_TIMEOUT, now);
+        alarmScheduler.schedule(COLLIDING_PROVIDER_A, ACTION_RETRY_REGISTER, now);
+        alarmScheduler.schedule(COLLIDING_PROVIDER_B, ACTION_TIMEOUT, now);
+        assertEquals(COLLIDING_PROVIDER_A.hashCode(), COLLIDING_PROVIDER_B.hashCode());
+
+        //All deadlines share the only alarm, so there is no request code that can collide.
+        assertEquals(1, shadowAlarmManager.getScheduledAlarms().size());
+
+        final List<Pair<String, String>> dueAlarms = alarmScheduler.takeDueAlarms();
+        assertEquals(4, dueAlarms.size());
+        assertTrue(dueAlarms.contains(new Pair<>(PROVIDER_A, ACTION_RETRY_REGISTER)));
+        assertTrue(dueAlarms.contains(new Pair<>(PROVIDER_A, ACTION_TIMEOUT)));
+        assertTrue(dueAlarms.contains(new Pair<>(COLLIDING_PROVIDER_A, ACTION_RETRY_REGISTER)));
+        assertTrue(dueAlarms.contains(new Pair<>(COLLIDING_PROVIDER_B, ACTION_TIMEOUT)));
+    }
+
+    @Test
+    public void deadlinesSurviveProcessDeath() throws NoSuchFieldException, IllegalAccessException {
+        final long now = System.currentTimeMillis();
+        alarmScheduler.schedule(PROVIDER_A, ACTION_RETRY_REGISTER, now + HOUR);
+        alarmScheduler.schedule(PROVIDER_B, ACTION_TIMEOUT, now - 1);
+        alarmScheduler.takeDueAlarms();
+
+        eraseInstance();
+        alarmScheduler = AlarmScheduler.getInstance(RuntimeEnvironment.application);
+
+        assertEquals(Long.valueOf(now + HOUR), alarmScheduler.getArmedTime());
+    }
+}
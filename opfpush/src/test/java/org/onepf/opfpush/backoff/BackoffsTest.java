@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.backoff;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.onepf.opfpush.model.Operation;
+import org.onepf.opfpush.testutil.Util;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.NoSuchElementException;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class BackoffsTest extends Assert {
+
+    private static final long BASE_DELAY = 1000;
+    private static final long MAX_DELAY = 60000;
+    private static final int MAX_TRIES = 3;
+
+    private static final String PROVIDER_A = "PROVIDER_A";
+    private static final String PROVIDER_B = "PROVIDER_B";
+
+    @Test
+    public void testCappedExponential() {
+        final Backoff backoff = Backoffs.cappedExponential(BASE_DELAY, MAX_DELAY).createBackoff();
+        long expectedDelay = BASE_DELAY;
+        for (int i = 0; i < Util.NUM_TESTS; ++i) {
+            assertTrue(backoff.hasTries());
+            assertEquals(expectedDelay, backoff.getTryDelay());
+            expectedDelay = Math.min(MAX_DELAY, expectedDelay * 2);
+        }
+
+        backoff.reset();
+        assertEquals(BASE_DELAY, backoff.getTryDelay());
+    }
+
+    @Test
+    public void testCappedExponentialDoesNotOverflow() {
+        final Backoff backoff = Backoffs.cappedExponential(BASE_DELAY, Long.MAX_VALUE).createBackoff();
+        long prevDelay = backoff.getTryDelay();
+        for (int i = 0; i < Long.SIZE * 2; ++i) {
+            final long delay = backoff.getTryDelay();
+            assertTrue(delay >= prevDelay);
+            prevDelay = delay;
+        }
+        assertEquals(Long.MAX_VALUE, prevDelay);
+    }
+
+    @Test
+    public void testFullJitter() {
+        final Backoff backoff = Backoffs.fullJitter(BASE_DELAY, MAX_DELAY).createBackoff();
+        long ceilingDelay = BASE_DELAY;
+        for (int i = 0; i < Util.NUM_TESTS; ++i) {
+            assertTrue(backoff.hasTries());
+            final long delay = backoff.getTryDelay();
+            assertTrue(delay >= 0);
+            assertTrue(delay <= ceilingDelay);
+            ceilingDelay = Math.min(MAX_DELAY, ceilingDelay * 2);
+        }
+    }
+
+    @Test
+    public void testDecorrelatedJitter() {
+        final Backoff backoff = Backoffs.decorrelatedJitter(BASE_DELAY, MAX_DELAY).createBackoff();
+        long prevDelay = BASE_DELAY;
+        for (int i = 0; i < Util.NUM_TESTS; ++i) {
+            assertTrue(backoff.hasTries());
+            final long delay = backoff.getTryDelay();
+            assertTrue(delay >= BASE_DELAY);
+            assertTrue(delay <= Math.min(MAX_DELAY, prevDelay * 3));
+            prevDelay = delay;
+        }
+    }
+
+    @Test
+    public void testBoundedTries() {
+        final Backoff backoff = Backoffs.boundedTries(Backoffs.cappedExponential(BASE_DELAY, MAX_DELAY), MAX_TRIES)
+                .createBackoff();
+        for (int i = 0; i < MAX_TRIES; ++i) {
+            assertTrue(backoff.hasTries());
+            backoff.getTryDelay();
+        }
+        assertFalse(backoff.hasTries());
+
+        backoff.reset();
+        assertTrue(backoff.hasTries());
+        assertEquals(BASE_DELAY, backoff.getTryDelay());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testBoundedTriesExhausted() {
+        final Backoff backoff = Backoffs.boundedTries(Backoffs.fullJitter(BASE_DELAY, MAX_DELAY), 0).createBackoff();
+        assertFalse(backoff.hasTries());
+        backoff.getTryDelay();
+    }
+
+    @Test
+    public void testFactoryBackoffManagerIsPerProvider() {
+        final BackoffManager manager = new FactoryBackoffManager(
+                Backoffs.boundedTries(Backoffs.cappedExponential(BASE_DELAY, MAX_DELAY), MAX_TRIES));
+        for (final Operation operation : Operation.values()) {
+            for (int i = 0; i < MAX_TRIES; ++i) {
+                manager.getTryDelay(PROVIDER_A, operation);
+            }
+            assertFalse(manager.hasTries(PROVIDER_A, operation));
+            assertTrue(manager.hasTries(PROVIDER_B, operation));
+
+            manager.reset(PROVIDER_A, operation);
+            assertTrue(manager.hasTries(PROVIDER_A, operation));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongBaseDelay() {
+        Backoffs.fullJitter(0, MAX_DELAY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxDelayLessThanBaseDelay() {
+        Backoffs.decorrelatedJitter(BASE_DELAY, BASE_DELAY - 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMaxTries() {
+        Backoffs.boundedTries(Backoffs.infinityExponential(), -1);
+    }
+}
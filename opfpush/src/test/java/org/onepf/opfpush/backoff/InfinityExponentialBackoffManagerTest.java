@@ -74,30 +74,19 @@ public class InfinityExponentialBackoffManagerTest extends Assert {
     }
 
     private void getTryDelayRegister() {
-        long prevDelay = manager.getTryDelay(PROVIDER_A, Operation.REGISTER);
-        boolean isConstant = false;
+        long prevDelayA = manager.getTryDelay(PROVIDER_A, Operation.REGISTER);
+        long prevDelayB = manager.getTryDelay(PROVIDER_B, Operation.REGISTER);
+        assertEquals(prevDelayA, prevDelayB);
         for (int i = 0; i < Util.NUM_TESTS; ++i) {
             final long delayA = manager.getTryDelay(PROVIDER_A, Operation.REGISTER);
-            if (isConstant) {
-                Assert.assertEquals(delayA, prevDelay);
-            } else if (delayA != 2L * prevDelay) {
-                isConstant = true;
-                Assert.assertEquals(delayA, prevDelay);
-            } else {
-                Assert.assertEquals(delayA, 2L * prevDelay);
-            }
-            prevDelay = delayA;
             final long delayB = manager.getTryDelay(PROVIDER_B, Operation.REGISTER);
-            if (isConstant) {
-                Assert.assertEquals(delayB, prevDelay);
-            } else if (delayB != 2L * prevDelay) {
-                isConstant = true;
-                Assert.assertEquals(delayB, prevDelay);
-            } else {
-                Assert.assertEquals(delayB, 2L * prevDelay);
-            }
-            prevDelay = delayB;
+            //Register backoffs of different providers are independent.
+            assertEquals(delayA, delayB);
+            assertTrue(delayA == prevDelayA || delayA == 2L * prevDelayA);
+            prevDelayA = delayA;
+            prevDelayB = delayB;
         }
+        assertEquals(prevDelayA, prevDelayB);
     }
 
     private void getTryDelayUnregister() {
@@ -154,4 +143,13 @@ public class InfinityExponentialBackoffManagerTest extends Assert {
             assertTrue(manager.getTryDelay(PROVIDER_A, operation) != manager.getTryDelay(PROVIDER_B, operation));
         }
     }
+
+    @Test
+    public void testRegisterBackoffIsPerProvider() {
+        final long initialDelay = manager.getTryDelay(PROVIDER_A, Operation.REGISTER);
+        for (int i = 0; i < NUM_OF_TRIES; ++i) {
+            manager.getTryDelay(PROVIDER_A, Operation.REGISTER);
+        }
+        assertEquals(initialDelay, manager.getTryDelay(PROVIDER_B, Operation.REGISTER));
+    }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.backoff;
+
+import android.app.AlarmManager;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Pair;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.onepf.opfpush.configuration.Configuration;
+import org.onepf.opfpush.model.Operation;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowConnectivityManager;
+import org.robolectric.shadows.ShadowNetworkInfo;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+import static org.onepf.opfpush.OPFConstants.ACTION_RETRY_REGISTER;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class RetryManagerTest extends Assert {
+
+    private static final String PROVIDER_A = "PROVIDER_A";
+    private static final String PROVIDER_B = "PROVIDER_B";
+    private static final int NUM_OF_TRIES = 3;
+
+    @After
+    public void eraseInstances() throws NoSuchFieldException, IllegalAccessException {
+        eraseInstance(RetryManager.class);
+        eraseInstance(AlarmScheduler.class);
+        eraseInstance(InfinityExponentialBackoffManager.class);
+    }
+
+    @Test
+    public void registerBackoffSurvivesProcessDeath() throws NoSuchFieldException, IllegalAccessException {
+        RetryManager retryManager = initRetryManager();
+        final long initialDelay = retryManager.getTryDelay(PROVIDER_B, Operation.REGISTER);
+        retryManager.reset(PROVIDER_B, Operation.REGISTER);
+        for (int i = 0; i < NUM_OF_TRIES; ++i) {
+            retryManager.postRetryRegister(PROVIDER_A);
+        }
+
+        //Simulates the process death.
+        eraseInstances();
+        retryManager = initRetryManager();
+
+        assertEquals(initialDelay << NUM_OF_TRIES, retryManager.getTryDelay(PROVIDER_A, Operation.REGISTER));
+        assertEquals(initialDelay, retryManager.getTryDelay(PROVIDER_B, Operation.REGISTER));
+    }
+
+    @Test
+    public void cancelRetryRegisterResetsPersistedBackoff() throws NoSuchFieldException, IllegalAccessException {
+        RetryManager retryManager = initRetryManager();
+        final long initialDelay = retryManager.getTryDelay(PROVIDER_B, Operation.REGISTER);
+        for (int i = 0; i < NUM_OF_TRIES; ++i) {
+            retryManager.postRetryRegister(PROVIDER_A);
+        }
+        retryManager.cancelRetryRegister(PROVIDER_A);
+
+        eraseInstances();
+        retryManager = initRetryManager();
+
+        assertEquals(initialDelay, retryManager.getTryDelay(PROVIDER_A, Operation.REGISTER));
+    }
+
+    @Test
+    public void cancelScheduledRetryRegisterKeepsBackoff() {
+        final RetryManager retryManager = initRetryManager();
+        final long initialDelay = retryManager.getTryDelay(PROVIDER_B, Operation.REGISTER);
+        for (int i = 0; i < NUM_OF_TRIES; ++i) {
+            retryManager.postRetryRegister(PROVIDER_A);
+        }
+        retryManager.cancelScheduledRetryRegister(PROVIDER_A);
+
+        assertEquals(initialDelay << NUM_OF_TRIES, retryManager.getTryDelay(PROVIDER_A, Operation.REGISTER));
+    }
+
+    @Test
+    public void retryDueOnlineIsExecutedOnce() {
+        final RetryManager retryManager = initRetryManager();
+        retryManager.postRetryRegister(PROVIDER_A);
+
+        assertTrue(retryManager.onRetryDue(PROVIDER_A, ACTION_RETRY_REGISTER));
+        assertTrue(retryManager.getRetryProvidersActions().isEmpty());
+        assertTrue(retryManager.onConnectivityChanged().isEmpty());
+    }
+
+    @Test
+    public void retryDueOfflineIsDeferredUntilConnected() {
+        final RetryManager retryManager = initRetryManager();
+        retryManager.postRetryRegister(PROVIDER_A);
+
+        setNetworkConnected(false);
+        assertFalse(retryManager.onRetryDue(PROVIDER_A, ACTION_RETRY_REGISTER));
+        assertTrue(retryManager.onConnectivityChanged().isEmpty());
+
+        setNetworkConnected(true);
+        assertEquals(
+                Collections.singleton(new Pair<>(PROVIDER_A, ACTION_RETRY_REGISTER)),
+                retryManager.onConnectivityChanged()
+        );
+        assertTrue(retryManager.onConnectivityChanged().isEmpty());
+    }
+
+    @Test
+    public void connectivityChangeCancelsScheduledRetry() {
+        final RetryManager retryManager = initRetryManager();
+        final AlarmManager alarmManager = (AlarmManager) RuntimeEnvironment.application
+                .getSystemService(Context.ALARM_SERVICE);
+        retryManager.postRetryRegister(PROVIDER_A);
+        assertEquals(1, shadowOf(alarmManager).getScheduledAlarms().size());
+
+        assertEquals(1, retryManager.onConnectivityChanged().size());
+        assertTrue(shadowOf(alarmManager).getScheduledAlarms().isEmpty());
+    }
+
+    private static void setNetworkConnected(final boolean isConnected) {
+        final ConnectivityManager connectivityManager = (ConnectivityManager) RuntimeEnvironment.application
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        final ShadowConnectivityManager shadowConnectivityManager = shadowOf(connectivityManager);
+        shadowConnectivityManager.setActiveNetworkInfo(isConnected
+                ? ShadowNetworkInfo.newInstance(NetworkInfo.DetailedState.CONNECTED,
+                ConnectivityManager.TYPE_WIFI, 0, true, true)
+                : null);
+    }
+
+    private static RetryManager initRetryManager() {
+        return RetryManager.init(
+                RuntimeEnvironment.application,
+                InfinityExponentialBackoffManager.getInstance(),
+                Arrays.asList(PROVIDER_A, PROVIDER_B),
+                Configuration.DEFAULT_FIRST_RETRY_JOB_ID
+        );
+    }
+
+    private static void eraseInstance(final Class<?> singletonClass) throws NoSuchFieldException, IllegalAccessException {
+        final Field instanceField = singletonClass.getDeclaredField("instance");
+        instanceField.setAccessible(true);
+        instanceField.set(null, null);
+    }
+}
@@ -5,6 +5,8 @@ import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.onepf.opfpush.backoff.BackoffFactory;
+import org.onepf.opfpush.backoff.Backoffs;
 import org.onepf.opfpush.listener.EventListener;
 import org.onepf.opfpush.listener.SimpleEventListener;
 import org.onepf.opfpush.mock.MockNamePushProvider;
@@ -102,4 +104,94 @@ public class ConfigurationBuilderTest extends Assert {
         configuration = builder.build();
         assertFalse(configuration.isSelectSystemPreferred());
     }
+
+    @Test
+    public void testSetBackgroundThreadEnabled() {
+        final PushProvider[] providers = Util.getRandomPushProviders();
+        final Set<PushProvider> uniqueProviders = new HashSet<>(Arrays.asList(providers));
+        builder.addProviders(uniqueProviders.toArray(new PushProvider[uniqueProviders.size()]));
+        assertFalse(builder.build().isBackgroundThreadEnabled());
+        builder.setBackgroundThreadEnabled(true);
+        assertTrue(builder.build().isBackgroundThreadEnabled());
+    }
+
+    @Test
+    public void testSetMessageBatching() {
+        final PushProvider[] providers = Util.getRandomPushProviders();
+        final Set<PushProvider> uniqueProviders = new HashSet<>(Arrays.asList(providers));
+        builder.addProviders(uniqueProviders.toArray(new PushProvider[uniqueProviders.size()]));
+        assertFalse(builder.build().isMessageBatchingEnabled());
+        builder.setMessageBatching(20, 500);
+        final Configuration configuration = builder.build();
+        assertTrue(configuration.isMessageBatchingEnabled());
+        assertEquals(20, configuration.getMessageBatchMaxCount());
+        assertEquals(500, configuration.getMessageBatchWindowMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetMessageBatchingWrongMaxCount() {
+        builder.setMessageBatching(0, 500);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetMessageBatchingNegativeWindow() {
+        builder.setMessageBatching(20, -1);
+    }
+
+    @Test
+    public void testSetBackoffFactory() {
+        final PushProvider[] providers = Util.getRandomPushProviders();
+        final Set<PushProvider> uniqueProviders = new HashSet<>(Arrays.asList(providers));
+        builder.addProviders(uniqueProviders.toArray(new PushProvider[uniqueProviders.size()]));
+        assertNull(builder.build().getBackoffFactory());
+        final BackoffFactory backoffFactory = Backoffs.fullJitter(1000, 60000);
+        builder.setBackoffFactory(backoffFactory);
+        assertEquals(backoffFactory, builder.build().getBackoffFactory());
+    }
+
+    @Test
+    public void testSetRegisteringTimeout() {
+        builder.addProviders(new MockNamePushProvider("A"), new MockNamePushProvider("B"));
+        Configuration configuration = builder.build();
+        assertEquals(Configuration.DEFAULT_REGISTERING_TIMEOUT_MILLIS, configuration.getRegisteringTimeoutMillis("A"));
+        assertFalse(configuration.isAdaptiveRegisteringTimeoutEnabled());
+
+        configuration = builder.setRegisteringTimeout(60000)
+                .setRegisteringTimeout("B", 30000)
+                .setAdaptiveRegisteringTimeoutEnabled(true)
+                .build();
+        assertEquals(60000, configuration.getRegisteringTimeoutMillis("A"));
+        assertEquals(30000, configuration.getRegisteringTimeoutMillis("B"));
+        assertTrue(configuration.isAdaptiveRegisteringTimeoutEnabled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetWrongRegisteringTimeout() {
+        builder.setRegisteringTimeout("A", 0);
+    }
+
+    @Test
+    public void testSetHedgedRegistrationCount() {
+        builder.addProviders(new MockNamePushProvider("A"), new MockNamePushProvider("B"));
+        assertEquals(1, builder.build().getHedgedRegistrationCount());
+        assertEquals(2, builder.setHedgedRegistrationCount(2).build().getHedgedRegistrationCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetWrongHedgedRegistrationCount() {
+        builder.setHedgedRegistrationCount(0);
+    }
+
+    @Test
+    public void testSetFirstRetryJobId() {
+        builder.addProviders(new MockNamePushProvider("A"), new MockNamePushProvider("B"));
+        assertEquals(Configuration.DEFAULT_FIRST_RETRY_JOB_ID, builder.build().getFirstRetryJobId());
+        assertEquals(1000, builder.setFirstRetryJobId(1000).build().getFirstRetryJobId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetOverflowingFirstRetryJobId() {
+        builder.addProviders(new MockNamePushProvider("A"), new MockNamePushProvider("B"));
+        builder.setFirstRetryJobId(Integer.MAX_VALUE - 2).build();
+    }
 }
@@ -19,7 +19,7 @@ import org.onepf.opfpush.testutil.Util;
 @SuppressWarnings("PMD.MissingStaticMethodInNonInstantiatableClass")
 public final class MockPushProvider implements PushProvider {
 
-    private final AvailabilityResult availabilityResult;
+    private AvailabilityResult availabilityResult;
     private final String name;
     private final String hostAppPackage;
     private final boolean useOnlyOnError;
@@ -45,6 +45,10 @@ public final class MockPushProvider implements PushProvider {
         this.regError = regError;
     }
 
+    public void setAvailabilityResult(AvailabilityResult availabilityResult) {
+        this.availabilityResult = availabilityResult;
+    }
+
     @Override
     public void register() {
         if (regError == null) {
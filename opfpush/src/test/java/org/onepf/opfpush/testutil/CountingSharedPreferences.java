@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfpush.testutil;
+
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delegates all calls to the wrapped {@link SharedPreferences} and counts the committed or applied editors.
+ *
+ * @since 18.10.2026
+ */
+@SuppressWarnings("PMD.TooManyMethods")
+public final class CountingSharedPreferences implements SharedPreferences {
+
+    @NonNull
+    private final SharedPreferences delegate;
+
+    @NonNull
+    private final AtomicInteger writesCount = new AtomicInteger();
+
+    public CountingSharedPreferences(@NonNull final SharedPreferences delegate) {
+        this.delegate = delegate;
+    }
+
+    public int getWritesCount() {
+        return writesCount.get();
+    }
+
+    public void resetWritesCount() {
+        writesCount.set(0);
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return delegate.getAll();
+    }
+
+    @Nullable
+    @Override
+    public String getString(final String key, @Nullable final String defValue) {
+        return delegate.getString(key, defValue);
+    }
+
+    @Nullable
+    @Override
+    public Set<String> getStringSet(final String key, @Nullable final Set<String> defValues) {
+        return delegate.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(final String key, final int defValue) {
+        return delegate.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(final String key, final long defValue) {
+        return delegate.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(final String key, final float defValue) {
+        return delegate.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(final String key, final boolean defValue) {
+        return delegate.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(final String key) {
+        return delegate.contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new CountingEditor(delegate.edit());
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(final OnSharedPreferenceChangeListener listener) {
+        delegate.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(final OnSharedPreferenceChangeListener listener) {
+        delegate.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
+    private final class CountingEditor implements Editor {
+
+        @NonNull
+        private final Editor editorDelegate;
+
+        private CountingEditor(@NonNull final Editor editorDelegate) {
+            this.editorDelegate = editorDelegate;
+        }
+
+        @Override
+        public Editor putString(final String key, @Nullable final String value) {
+            editorDelegate.putString(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(final String key, @Nullable final Set<String> values) {
+            editorDelegate.putStringSet(key, values);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(final String key, final int value) {
+            editorDelegate.putInt(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(final String key, final long value) {
+            editorDelegate.putLong(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(final String key, final float value) {
+            editorDelegate.putFloat(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(final String key, final boolean value) {
+            editorDelegate.putBoolean(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(final String key) {
+            editorDelegate.remove(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            editorDelegate.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            writesCount.incrementAndGet();
+            return editorDelegate.commit();
+        }
+
+        @Override
+        public void apply() {
+            writesCount.incrementAndGet();
+            editorDelegate.apply();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onepf.opfpush.utils;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.onepf.opfpush.listener.CheckManifestHandler;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.Manifest.permission.INTERNET;
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+/**
+ * @since 18.10.26
+ */
+@Config(sdk = JELLY_BEAN_MR2, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class CheckUtilsTest extends Assert {
+
+    private static final String TAG = CheckUtilsTest.class.getSimpleName();
+
+    @After
+    public void eraseManifestSnapshotInstance() {
+        synchronized (ManifestSnapshot.class) {
+            try {
+                final Field instanceField = ManifestSnapshot.class.getDeclaredField("instance");
+                instanceField.setAccessible(true);
+                instanceField.set(null, null);
+            } catch (IllegalAccessException | NoSuchFieldException e) {
+                Log.e(TAG, e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void manifestSnapshotIsShared() {
+        final Context context = RuntimeEnvironment.application;
+        assertNotNull(ManifestSnapshot.getInstance(context));
+        assertSame(ManifestSnapshot.getInstance(context), ManifestSnapshot.getInstance(context));
+    }
+
+    @Test
+    public void missingDeclarationsAreReported() {
+        final Context context = RuntimeEnvironment.application;
+        final ReportsCollector reportsCollector = new ReportsCollector();
+
+        CheckUtils.checkPermission(context, INTERNET, reportsCollector);
+        CheckUtils.checkService(context, new ComponentName(context, "org.onepf.MissingService"), reportsCollector);
+        assertEquals(2, reportsCollector.reports.size());
+    }
+
+    @Test(expected = SecurityException.class)
+    public void missingPermissionThrowsWithoutHandler() {
+        CheckUtils.checkPermission(RuntimeEnvironment.application, INTERNET, null);
+    }
+
+    private static final class ReportsCollector implements CheckManifestHandler {
+
+        private final List<String> reports = new ArrayList<>();
+
+        @Override
+        public void onCheckManifestError(@NonNull final String reportMessage) {
+            reports.add(reportMessage);
+        }
+    }
+}